@@ -1,12 +1,19 @@
 package itml;
 
 import itml.agents.*;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
+import itml.learning.AsyncArffWriter;
+import itml.learning.ColumnarDataset;
+import itml.learning.DatasetCache;
+import itml.learning.FeaturePipeline;
+import itml.learning.InstanceDeduplicator;
+import itml.learning.ModelStore;
+import itml.learning.MoveHistory;
+import itml.util.Fingerprint;
 import weka.core.Instances;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
 import java.util.Random;
 import itml.simulator.*;
 import itml.cards.*;
@@ -29,9 +36,53 @@ public class BattleSim {
      * @param  args  Command line arguments
      *
      *      itml.BattleSim  [ <numSteps> <numTrainingGames> <numPlayingGames> </numPlayingGames><msConstuctor> <msPerMove> <msLearning> ]
+     *                      [ <configFile> | <key>=<value> ... ]
+     *
+     *      The optional configuration (file or key=value pairs) selects the agents by class name:
+     *          my=AgentFresco  opponent=AgentChicken  sparring=AgentChicken,AgentLazy,AgentRandom,AgentTerminator
+     *      and can register additional agents with agent.&lt;alias&gt;=&lt;class name&gt;.
+     *      The features the opponent model learns from are set with features=&lt;spec&gt;
+     *      (see <code>FeaturePipeline</code>), e.g. features=raw,relative,distance,inRange,moves:2.
+     *      seed=&lt;number&gt; makes the start positions and the training games reproducible. Only a seeded
+     *      run then saves its trained model in, and reloads it from, modelDir=&lt;directory&gt; (off by
+     *      default), so a later run with the same deck, features and training setup does not learn again,
+     *      and caches its training data in dataDir=&lt;directory&gt; (off by default) to be reused, or
+     *      extended, by later runs with the same agents, seed, game parameters, deck and features.
+     *      deck=&lt;file&gt; plays with a deck read from a specification (see <code>CardDeckLoader</code>).
+     *      anytime=true gives agents the full time per move as a deadline, and plays their best move
+     *      so far when it passes (see <code>Battle.setAnytime</code>).
+     *      dedup=false hands the learner every training row, instead of the distinct rows weighted by
+     *      how often they occur (see <code>InstanceDeduplicator</code>).
+     *      exactMatch=true computes the expected match score exactly, instead of playing the match games,
+     *      if both agents are Markovian (see <code>ExactEvaluator</code>).
+     *      detectCycles=true ends match games between deterministic agents as soon as a state repeats
+     *      (see <code>Battle.setCycleDetection</code>), and reports the steps saved.
+     *      warmup=compilation (or throughput) plays untimed games between the two agents before the match,
+     *      until their code is compiled, for at most warmupMs milliseconds (see <code>Warmup</code>); the
+     *      time of act calls in the warm-up is reported apart from the match.
+     *      clock=cpu enforces the time limits on the CPU time of the agent's thread instead of wall time
+     *      (see <code>Battle.setClock</code>); both are reported.
+     *
+     *      itml.BattleSim --agents &lt;agent&gt;,&lt;agent&gt; [--games &lt;n&gt;] [--threads &lt;n&gt;] [--seed &lt;n&gt;] ...
+     *
+     *      Options starting with -- run the headless batch mode instead, which plays the given agents
+     *      against each other and writes machine-readable results (see <code>HeadlessRunner</code>).
+     *
+     *      itml.BattleSim --serve &lt;directory&gt; [--warm &lt;agent&gt;,&lt;agent&gt;] [--threads &lt;n&gt;]
+     *
+     *      --serve keeps running, and plays the batch-mode jobs dropped into the directory in a warm JVM
+     *      (see <code>SimulationService</code>).
      */
     public static void main(String [] args)
     {
+        if ( Arrays.asList( args ).contains( "--serve" ) ) {
+            SimulationService.main( args );
+            return;
+        }
+        if ( args.length > 0 && args[0].startsWith( "--" ) ) {
+            HeadlessRunner.main( args );
+            return;
+        }
         System.out.println( "Welcome to BattleSim 2.1.3" );
 
         // Default arguments.
@@ -42,9 +93,27 @@ public class BattleSim {
         int msPerMove        = 50;     // Maximum time to use per act, startGame, endGame call.
         int msLearning       = 30000;  // Maximum time to use in the learning call.
 
+        // Agent configuration, can be overridden by a configuration file or key=value arguments.
+        Properties config = new Properties();
+        config.setProperty( "my", "AgentFresco" );
+        config.setProperty( "opponent", "AgentChicken" );
+        config.setProperty( "sparring", "AgentChicken,AgentLazy,AgentRandom,AgentTerminator" );
+        config.setProperty( "features", FeaturePipeline.DEFAULT_SPEC );
+        config.setProperty( "modelDir", "" );   // Empty for no saved models.
+        config.setProperty( "dataDir", "" );    // Empty for no cached training data.
+        config.setProperty( "seed", "" );    // Empty for a new random seed every run.
+        config.setProperty( "anytime", "false" );
+        config.setProperty( "detectCycles", "false" );
+        config.setProperty( "dedup", "true" );
+        config.setProperty( "exactMatch", "false" );
+        config.setProperty( "warmup", "off" );      // off, compilation or throughput.
+        config.setProperty( "warmupMs", "10000" );
+        config.setProperty( "clock", "wall" );      // wall or cpu.
+        config.setProperty( "deck", "" );    // Empty for the standard deck.
+
         // Check if any command line arguments
         if (args.length > 0) {
-            if ( args.length == 6 ) {
+            if ( args.length >= 6 ) {
                 try {
                     numStepsInGame   = Integer.parseInt(args[0]);
                     numTrainingGames = Integer.parseInt(args[1]);
@@ -57,21 +126,44 @@ public class BattleSim {
                     System.exit(1);
                 }
             }
+            for ( int i = (args.length >= 6) ? 6 : 0; i < args.length; ++i ) {
+                int eq = args[i].indexOf( '=' );
+                if ( eq > 0 ) {
+                    config.setProperty( args[i].substring( 0, eq ), args[i].substring( eq+1 ) );
+                }
+                else {
+                    try {
+                        config.putAll( AgentFactory.loadConfig( new File( args[i] ) ) );
+                    } catch (IOException e) {
+                        System.err.println("Could not read configuration file " + args[i]);
+                        System.exit(1);
+                    }
+                }
+            }
         }
 
-        // Set up the deck of cards.
-        CardDeck deck = new CardDeck();
-        deck.addCard( new CardRest() );
-        deck.addCard( new CardMoveUp() );
-        deck.addCard( new CardMoveDown() );
-        deck.addCard( new CardMoveLeft() );
-        deck.addCard( new CardMoveRight() );
-        deck.addCard( new CardLeapLeft() );
-        deck.addCard( new CardLeapRight() );
-        deck.addCard( new CardDefend() );
-        deck.addCard( new CardAttackCardinal() );
-        deck.addCard( new CardAttackDiagonal() );
-        deck.addCard( new CardAttackLong() );
+        long seed = 0;
+        try {
+            seed = config.getProperty( "seed" ).isEmpty() ? new Random().nextLong() : Long.parseLong( config.getProperty( "seed" ) );
+        } catch (NumberFormatException e) {
+            System.err.println("Seed must be an integer");
+            System.exit(1);
+        }
+        System.out.println( "Seed = " + seed );
+        Random random = new Random( seed );
+
+        // Set up the deck of cards, the standard one or one read from a deck specification.
+        CardDeck deck = null;
+        try {
+            deck = config.getProperty( "deck" ).isEmpty() ? CardDeckLoader.standardDeck()
+                                                          : CardDeckLoader.load( new File( config.getProperty( "deck" ) ) );
+        } catch (IOException e) {
+            System.err.println("Could not read deck file " + config.getProperty( "deck" ));
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println( e.getMessage() );
+            System.exit(1);
+        }
 
         // Set up the initial state of the agent (location, health- and stamina-points),
         // and create a battle arena (5 x 5).
@@ -82,26 +174,59 @@ public class BattleSim {
         int MAX_HEALTH = 3, MIN_HEALTH = 1;
         int MAX_STAM = 10, MIN_STAM = 0;
 
-        stateAgents[0] =  new StateAgent( ((int) (Math.random()*(MAX - MIN))) + MIN,
-                                                           ((int) (Math.random()*(MAX - MIN))) + MIN,
-                                                            ((int) (Math.random()*(MAX_HEALTH - MIN_HEALTH))) + MIN_HEALTH,
-                                                            ((int) (Math.random()*(MAX_STAM - MIN_STAM))) + MIN_STAM);
-        stateAgents[1] =  new StateAgent( ((int) (Math.random()*(MAX - MIN))) + MIN,
-                                                            ((int) (Math.random()*(MAX - MIN))) + MIN,
-                                                            ((int) (Math.random()*(MAX_HEALTH - MIN_HEALTH))) + MIN_HEALTH,
-                                                            ((int) (Math.random()*(MAX_STAM - MIN_STAM))) + MIN_STAM);
+        stateAgents[0] =  new StateAgent( random.nextInt( MAX - MIN ) + MIN,
+                                          random.nextInt( MAX - MIN ) + MIN,
+                                          random.nextInt( MAX_HEALTH - MIN_HEALTH ) + MIN_HEALTH,
+                                          random.nextInt( MAX_STAM - MIN_STAM ) + MIN_STAM );
+        stateAgents[1] =  new StateAgent( random.nextInt( MAX - MIN ) + MIN,
+                                          random.nextInt( MAX - MIN ) + MIN,
+                                          random.nextInt( MAX_HEALTH - MIN_HEALTH ) + MIN_HEALTH,
+                                          random.nextInt( MAX_STAM - MIN_STAM ) + MIN_STAM );
         // endregion
 
 //        stateAgents[0] =  new StateAgent( 1, 2, 10, 3 );
 //        stateAgents[1] =  new StateAgent( 3, 2, 10, 3 );
         Battle battle = new Battle( 5, 5, deck, stateAgents);
+        battle.setAnytime( Boolean.parseBoolean( config.getProperty( "anytime" ) ) );
+        Battle.Clock clock = Battle.Clock.WALL;
+        try {
+            clock = Battle.Clock.valueOf( config.getProperty( "clock" ).toUpperCase() );
+            battle.setClock( clock );
+        } catch (IllegalArgumentException e) {
+            System.err.println( "clock must be wall or cpu: " + e.getMessage() );
+            System.exit(1);
+        }
+
+        // Models trained with the same deck, features and training setup are saved and reused.
+        // An unseeded run trains on games no later run can repeat, so it neither saves nor reuses one.
+        String modelDir = config.getProperty( "modelDir" );
+        boolean isSeeded = !config.getProperty( "seed" ).isEmpty();
+        ModelStore modelStore = new ModelStore( (modelDir.isEmpty() || !isSeeded) ? null : new File( modelDir ), config.getProperty( "features" ),
+                "opponent=" + config.getProperty( "opponent" ) + ";sparring=" + config.getProperty( "sparring" )
+                + ";games=" + numTrainingGames + ";steps=" + numStepsInGame + ";board=5x5;seed=" + config.getProperty( "seed" )
+                + ";dedup=" + config.getProperty( "dedup" ) );
 
         // Create agents that will compete.
+        AgentFactory factory = new AgentFactory( deck, msConstruct, msPerMove, msLearning, modelStore );
+        try {
+            factory.configure( config );
+        } catch (IllegalArgumentException e) {
+            System.err.println( e.getMessage() );
+            System.exit(1);
+        }
+        FeaturePipeline pipeline = null;
+        try {
+            pipeline = FeaturePipeline.parse( config.getProperty( "features" ), deck );
+        } catch (IllegalArgumentException e) {
+            System.err.println( e.getMessage() );
+            System.exit(1);
+        }
+
         long  msStart, msDuration;
 
         msStart = System.currentTimeMillis();
         // The first agent is yours -- change to yours.
-        Agent agentMy = new AgentFresco( deck.clone(), msConstruct, msPerMove, msLearning );
+        Agent agentMy = factory.create( config.getProperty( "my" ).trim() );
         msDuration = System.currentTimeMillis() - msStart;
         System.out.println("Timing agent constructor = " + msDuration );
         if ( msDuration > msConstruct ) {
@@ -110,53 +235,103 @@ public class BattleSim {
 
         msStart = System.currentTimeMillis();
         // The second agent is your opponent.
-        Agent agentOpp = new AgentChicken ( deck.clone(), msConstruct, msPerMove, msLearning );
+        Agent agentOpp = factory.create( config.getProperty( "opponent" ).trim() );
         msDuration = System.currentTimeMillis() - msStart;
         System.out.println("Timing agent constructor = " + msDuration );
         if ( msDuration > msConstruct ) {
             System.out.println("WARNING: exceeded time limit (" + msDuration + ">" + msConstruct + ")");
         }
 
-        // Now generate the training data for you to observe to predict your opponent's actions;
-        // for that we have the opponent play multiple matches against various sparring partners.
-        Agent[] agentsSparringPartners = {
-                new AgentChicken( deck.clone(), msConstruct, msPerMove, msLearning ),
-                new AgentLazy( deck.clone(), msConstruct, msPerMove, msLearning ),
-                new AgentRandom( deck.clone(), msConstruct, msPerMove, msLearning ),
-                new AgentTerminator( deck.clone(), msConstruct, msPerMove, msLearning ),
-        };
+        // ARFF files are written on writer threads, while the games go on.
+        AsyncArffWriter historyWriter = null;
+        AsyncArffWriter gameWriter = openArff( "game.arff", pipeline );
 
-        Instances instances = generateTrainingData( battle, numTrainingGames, numStepsInGame, msPerMove,
-                agentOpp, agentsSparringPartners );
+        // An agent that loaded a saved model in its constructor has nothing left to learn.
+        if ( agentMy instanceof ModelAgent && ((ModelAgent) agentMy).getModel() != null ) {
+            System.out.println( "Using saved model, skipping training." );
+        }
+        else {
+            // Now generate the training data for you to observe to predict your opponent's actions;
+            // for that we have the opponent play multiple matches against various sparring partners.
+            Agent[] agentsSparringPartners = factory.lease( AgentFactory.parseNames( config.getProperty( "sparring" ) ) );
+
+            // Reuse the games of earlier runs with the same setup, and only play the missing ones.
+            String dataDir = config.getProperty( "dataDir" );
+            DatasetCache cache = (dataDir.isEmpty() || !isSeeded) ? null : new DatasetCache( new File( dataDir ) );
+            String key = trainingDataKey( battle, pipeline, numStepsInGame, msPerMove, seed, agentOpp, agentsSparringPartners );
+            ColumnarDataset trainingData = (cache == null) ? null : cache.load( key, pipeline.createInstances() );
+            if ( trainingData == null ) {
+                trainingData = new ColumnarDataset( pipeline.createInstances() );
+            }
+            trainingData.keepGames( numTrainingGames );
+            System.out.println( "Cached training games: " + trainingData.numGames() );
+            if ( trainingData.numGames() < numTrainingGames ) {
+                generateTrainingData( battle, pipeline, trainingData, numTrainingGames, numStepsInGame, msPerMove, seed,
+                        agentOpp, agentsSparringPartners );
+                if ( cache != null ) {
+                    try {
+                        cache.store( key, trainingData );
+                    }
+                    catch ( IOException e ) {
+                        System.err.println( "Warning: could not cache training data: " + e.getMessage() );
+                    }
+                }
+            }
+            factory.release( agentsSparringPartners );
 
-        // region OUR STUFF
-        // Now learn from our good shit agent
+            // region OUR STUFF
+            // Now learn from our good shit agent
 //        AgentFresco agentFresco = new AgentFresco( deck.clone(), msConstruct, msPerMove, msLearning );
 //        agentFresco.learn(instances);
 //        Agent[] newAgentsSparringPartners = { agentFresco };
 //
 //        instances = generateTrainingData( battle, numTrainingGames, numStepsInGame, msPerMove,
 //                agentOpp, newAgentsSparringPartners );
-        // endregion
+            // endregion
 
-        try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter( "history.arff"));
-            writer.write( instances.toString() );
-            writer.close();
-        }
-        catch ( Exception e ) {
-            System.err.println( "Warning: could not write out ARFF file");
+            historyWriter = openArff( "history.arff", pipeline );
+            if ( historyWriter != null ) {
+                historyWriter.submit( trainingData );
+            }
+            // Identical rows are merged into one, weighted by their count, so learning time follows
+            // the number of distinct states rather than the number of games.
+            ColumnarDataset learningData = trainingData;
+            if ( Boolean.parseBoolean( config.getProperty( "dedup" ) ) ) {
+                learningData = InstanceDeduplicator.deduplicate( trainingData );
+                System.out.println( "Distinct training rows: " + learningData.numRows() + " of " + trainingData.numRows() );
+            }
+            Instances instances = learningData.toInstances();
+
+            // Give your agent the opportunity to learn.
+            System.out.println( "Learning ..." );
+            msStart = System.currentTimeMillis();
+            agentMy.learn(instances);
+            msDuration = System.currentTimeMillis() - msStart;
+            System.out.println("Timing agent learner = " + msDuration);
+            if (msDuration > msLearning) {
+                System.out.println("WARNING: exceeded time limit (" + msDuration + ">" + msLearning + ")");
+            }
         }
 
-        // Give your agent the opportunity to learn.
-        System.out.println( "Learning ..." );
-        msStart = System.currentTimeMillis();
-        agentMy.learn(instances);
-        msDuration = System.currentTimeMillis() - msStart;
-        System.out.println("Timing agent learner = " + msDuration);
-        if (msDuration > msLearning) {
-            System.out.println("WARNING: exceeded time limit (" + msDuration + ">" + msLearning + ")");
+        // Untimed games until the JIT has compiled the agents, so the match is timed on compiled code.
+        String warmup = config.getProperty( "warmup" );
+        if ( !warmup.equals( "off" ) ) {
+            Warmup stage = new Warmup( 5, 5, deck, numStepsInGame, msPerMove );
+            stage.setClock( clock );
+            try {
+                stage.setUntil( Warmup.Until.valueOf( warmup.toUpperCase() ) );
+                stage.setMaxMs( Long.parseLong( config.getProperty( "warmupMs" ) ) );
+            } catch (IllegalArgumentException e) {   // Includes NumberFormatException.
+                System.err.println( "warmup must be off, compilation or throughput, and warmupMs a number" );
+                System.exit(1);
+            }
+            stage.run( new Agent[] { agentMy, agentOpp }, seed );
+            System.out.println( "Warm-up: " + stage.getNumGames() + " games in " + stage.getElapsedMs() + " ms ("
+                                + stage.getReason() + ")" );
+            System.out.print( stage.getTimingStats().report( "Warm-up" ) );
         }
+        TimingStats timingStats = new TimingStats();
+        battle.setTimingStats( timingStats );
 
         // Run match games (alternate agent order), and keep track of the score.
         System.out.println( "Match games: " + numPlayingGames + "==================================");
@@ -164,43 +339,47 @@ public class BattleSim {
         double [] score = new double[2];
         double scoreMy = 0.0;
         double scoreOpp = 0.0;
+        boolean isCycleDetection = Boolean.parseBoolean( config.getProperty( "detectCycles" ) );
+        int stepsSaved = 0;
+        battle.setCycleDetection( isCycleDetection );
+
+        // Between Markovian agents, the expected score of the match can be computed instead of sampled.
+        int numSampledGames = numPlayingGames;
+        if ( Boolean.parseBoolean( config.getProperty( "exactMatch" ) ) ) {
+            agents[0] = agentMy;
+            agents[1] = agentOpp;
+            if ( ExactEvaluator.canEvaluate( agents ) ) {
+                ExactEvaluator evaluator = new ExactEvaluator( deck, numStepsInGame );
+                double[] scoreFirst = evaluator.evaluate( 5, 5, stateAgents, agents );    // My agent in seat 0.
+                agents[0] = agentOpp;
+                agents[1] = agentMy;
+                double[] scoreSecond = evaluator.evaluate( 5, 5, stateAgents, agents );   // My agent in seat 1.
+                int numFirst = (numPlayingGames + 1) / 2;
+                int numSecond = numPlayingGames / 2;
+                scoreMy = numFirst * scoreFirst[0] + numSecond * scoreSecond[1];
+                scoreOpp = numFirst * scoreFirst[1] + numSecond * scoreSecond[0];
+                numSampledGames = 0;
+                System.out.println( "Exact expected score over " + numPlayingGames + " games ("
+                                    + evaluator.getNumStates() + " states)" );
+            }
+            else {
+                System.out.println( "Agents are not Markovian, playing the match games." );
+            }
+        }
 
-        // region our stuff
-        Instances game_instances = createInstances( battle.getDeck() );
-        // endregion
-
-        GameLog log = new GameLog();
-        for ( int n=0; n < numPlayingGames ; n++ ) {
+        for ( int n=0; n < numSampledGames ; n++ ) {
             int  indexMyAgent  = n % 2;
             int  indexOppAgent = (indexMyAgent == 0) ? 1 : 0;
             agents[indexMyAgent] = agentMy;
             agents[indexOppAgent] = agentOpp;
 
+            GameLog log = new GameLog();   // A new log per game, the writer keeps the old one until written.
             battle.run( true, numStepsInGame, msPerMove, agents, score, log );
+            stepsSaved += battle.getStepsSaved();
 
             // region our stuff
-            double[] values = new double[game_instances.numAttributes()];
-            boolean firstPass = true;
-            StateAgent a = null, o = null;
-            for ( StateBattle bs : log.getLog() ) {
-                //System.out.println( bs.toString() );
-                if ( firstPass ) {
-                    firstPass = false;
-                }
-                else {
-                    values[0] = a.getCol();
-                    values[1] = a.getRow();
-                    values[2] = a.getHealthPoints();
-                    values[3] = a.getStaminaPoints();
-                    values[4] = o.getCol();
-                    values[5] = o.getRow();
-                    values[6] = o.getHealthPoints();
-                    values[7] = o.getStaminaPoints();
-                    values[8] = instances.attribute(8).indexOfValue( bs.getLastMoves()[indexOppAgent].getName() ); // move of agent.
-                    game_instances.add( new Instance( 1.0, values.clone() ) );
-                }
-                a = bs.getAgentState(indexOppAgent);
-                o = bs.getAgentState(indexMyAgent);
+            if ( gameWriter != null ) {
+                gameWriter.submit( log, indexOppAgent, indexMyAgent );
             }
             // endregion
 
@@ -210,42 +389,86 @@ public class BattleSim {
 
         }
         System.out.println( "My score = " + scoreMy + "  Opponent score = " + scoreOpp );
+        if ( isCycleDetection ) {
+            System.out.println( "Steps saved by cycle detection = " + stepsSaved );
+        }
+        battle.setCycleDetection( false );
+        System.out.print( timingStats.report( "Match" ) );
+        battle.setTimingStats( null );
         System.out.println();
 
 
         // region our stuff
+        closeArff( historyWriter, "history.arff" );
+        closeArff( gameWriter, "game.arff" );
+        // endregion
+    }
+
+    /**
+     *  This function creates an ARFF file that is written on a thread of its own.
+     *
+     * @param  fileName   Name of the file.
+     * @param  pipeline   The features to compute for each state.
+     *
+     * @return            The writer, or <code>null</code> if the file could not be created.
+     */
+    static private AsyncArffWriter openArff( String fileName, FeaturePipeline pipeline )
+    {
         try {
-            BufferedWriter writer = new BufferedWriter(new FileWriter( "game.arff"));
-            writer.write( game_instances.toString() );
-            writer.close();
+            return new AsyncArffWriter( new File( fileName ), pipeline, AsyncArffWriter.DEFAULT_CAPACITY );
         }
-        catch ( Exception e ) {
-            System.err.println( "Warning: could not write out game.ARFF file");
+        catch ( IOException e ) {
+            System.err.println( "Warning: could not write out " + fileName );
+            return null;
         }
+    }
 
-        // endregion
+    /**
+     *  This function waits until an ARFF file is written, and closes it.
+     *
+     * @param  writer     The writer (may be <code>null</code>).
+     * @param  fileName   Name of the file.
+     */
+    static private void closeArff( AsyncArffWriter writer, String fileName )
+    {
+        if ( writer == null ) {
+            return;
+        }
+        try {
+            writer.close();
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: could not write out " + fileName );
+        }
     }
 
     /**
-     *  This function creates the Instances object with all the training/test data, by matching
-     *  <code>agent</code> against its sparring partners <code>agentsSparring</code>.
+     *  This function generates the training/test data, by matching <code>agent</code> against its
+     *  sparring partners <code>agentsSparring</code>. Games already in <code>instances</code> are kept,
+     *  and only the remaining games are played. The seating, the sparring partner and the seeds of the
+     *  agents' random choices (see <code>Agent.setSeed</code>) depend only on the seed and the number of
+     *  the game, so extending a dataset gives the same games as generating it at once (as long as the
+     *  agents keep to their time limits, and learn nothing from one game to the next).
      *
      * @param  battle            An battle object, specifying the arena setup.
-     * @param  numTrainingGames  An integer representing the number of training games to run.
+     * @param  pipeline          The features to compute for each state.
+     * @param  instances         Columnar dataset the games are added to, convert with <code>toInstances()</code> for WEKA.
+     * @param  numTrainingGames  An integer representing the number of training games the data should have.
      * @param  numStepsInGame    An integer representing the maximum number of steps (turns) in a game.
      * @param  msPerMove         An integer representing the maximum time (in milliseconds) an agent can take
      *                           for an action.
+     * @param  seed              Seed for the random choices of seating and sparring partners.
      * @param  agent             The agent that will be matched against the different sparring partners.
      * @param  agentsSparring    An array with the sparring partner agents.
-     *
-     * @return                   WEKA Instances object.
      */
-    static private Instances generateTrainingData( Battle battle, int numTrainingGames, int numStepsInGame,
-                                                   int msPerMove, Agent agent, Agent[] agentsSparring )
+    static private void generateTrainingData( Battle battle, FeaturePipeline pipeline, ColumnarDataset instances,
+                                              int numTrainingGames, int numStepsInGame, int msPerMove, long seed,
+                                              Agent agent, Agent[] agentsSparring )
     {
         Random random = new Random();
-        Instances instances = createInstances( battle.getDeck() );
-        double[] values = new double[instances.numAttributes()];
+        MoveHistory history = pipeline.createHistory();
+        int classIndex = pipeline.numFeatures();
+        int[] values = new int[instances.numAttributes()];
         double [] scoreTotal = new double[2];
         double [] score = new double[2];
 
@@ -253,19 +476,22 @@ public class BattleSim {
         Agent[] agents = new Agent[2];
 
         // Run training games.
-        System.out.println( "Training games: " + numTrainingGames );
+        System.out.println( "Training games: " + (numTrainingGames - instances.numGames()) );
         for ( int a=0; a<score.length; a++ ) {
             scoreTotal[a] = 0.0;
         }
 
         GameLog log = new GameLog();
-        for ( int n=0; n < numTrainingGames; ++n ) {
+        for ( int n=instances.numGames(); n < numTrainingGames; ++n ) {
 
+            random.setSeed( seed ^ (0x9E3779B97F4A7C15L * (n + 1)) );
             int indexA = random.nextInt(2);
             int indexO = ((indexA==0) ? 1 : 0 );
 
             agents[indexA] = agent;
             agents[indexO] = agentsSparring[random.nextInt(agentsSparring.length)]; // pick sparring partner at random.
+            agents[indexA].setSeed( random.nextLong() );
+            agents[indexO].setSeed( random.nextLong() );
 
             // Run a game.
             log.clear();
@@ -275,28 +501,19 @@ public class BattleSim {
 
             // Create Weka instance data from game.
             //  - Note that we need to get the action played in a state, from the subsequent game log record.
-            boolean firstPass = true;
-            StateAgent a = null, o = null;
+            StateBattle prev = null;
+            history.clear();
             for ( StateBattle bs : log.getLog() ) {
                 //System.out.println( bs.toString() );
-                if ( firstPass ) {
-                    firstPass = false;
-                }
-                else {
-                    values[0] = a.getCol();
-                    values[1] = a.getRow();
-                    values[2] = a.getHealthPoints();
-                    values[3] = a.getStaminaPoints();
-                    values[4] = o.getCol();
-                    values[5] = o.getRow();
-                    values[6] = o.getHealthPoints();
-                    values[7] = o.getStaminaPoints();
-                    values[8] = instances.attribute(8).indexOfValue( bs.getLastMoves()[indexA].getName() ); // move of agent.
-                    instances.add( new Instance( 1.0, values.clone() ) );
+                if ( prev != null ) {
+                    pipeline.extract( prev, indexA, indexO, history, values );
+                    values[classIndex] = battle.getDeck().indexOf( bs.getLastMoves()[indexA] ); // move of agent.
+                    instances.add( values );
                 }
-                a = bs.getAgentState(indexA);
-                o = bs.getAgentState(indexO);
+                history.observe( bs, indexA, battle.getDeck() );
+                prev = bs;
             }
+            instances.endGame();
 
         }
         for (double aScoreTotal : scoreTotal) {
@@ -304,13 +521,47 @@ public class BattleSim {
             System.out.print(aScoreTotal);
         }
         System.out.println();
+    }
 
-        return instances;
+    /**
+     *  This function computes the key training data is cached under. It covers everything the generated
+     *  data depends on, except the number of games.
+     *
+     * @param  battle            An battle object, specifying the arena setup.
+     * @param  pipeline          The features computed for each state.
+     * @param  numStepsInGame    An integer representing the maximum number of steps (turns) in a game.
+     * @param  msPerMove         An integer representing the maximum time (in milliseconds) an agent can take
+     *                           for an action.
+     * @param  seed              Seed for the random choices of the games.
+     * @param  agent             The agent that is matched against the different sparring partners.
+     * @param  agentsSparring    An array with the sparring partner agents.
+     *
+     * @return                   Key, as a hexadecimal string.
+     */
+    static private String trainingDataKey( Battle battle, FeaturePipeline pipeline, int numStepsInGame, int msPerMove,
+                                           long seed, Agent agent, Agent[] agentsSparring )
+    {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add( "seeded agents" );   // Data of games with unseeded agents cannot be extended.
+        fingerprint.add( agent.getClass().getName() );
+        fingerprint.add( agentsSparring.length );
+        for ( Agent a : agentsSparring ) {
+            fingerprint.add( a.getClass().getName() );
+        }
+        fingerprint.add( seed ).add( numStepsInGame ).add( msPerMove );
+        fingerprint.add( battle.getNumColumns() ).add( battle.getNumRows() );
+        for ( StateAgent sa : battle.getStateAgents() ) {
+            fingerprint.add( sa.getCol() ).add( sa.getRow() ).add( sa.getHealthPoints() ).add( sa.getStaminaPoints() );
+        }
+        fingerprint.add( battle.getDeck().fingerprint() );
+        fingerprint.add( pipeline.getSpec() );
+        return fingerprint.toString();
     }
 
 
     /**
-     *  This function creates the structure of the Instances, that is, the attributes and their type.
+     *  This function creates the structure of the Instances, that is, the attributes and their type,
+     *  for the default features.
      *
      * @param  deck  The deck of cards to use (determines the possible values of the class attribute).
      *
@@ -318,28 +569,6 @@ public class BattleSim {
      */
     static public Instances createInstances( CardDeck deck ) // OUR STUFF changed to public
     {
-        FastVector attributes = new FastVector(); // Attributes
-        FastVector actions = new FastVector();    // Class
-
-        // Domain of class are all possible cards.
-        for ( Card c : deck.getCards() ) {
-            actions.addElement( c.getName() );
-        }
-
-        // Add the predicting attributes (all numeric)
-        attributes.addElement(new Attribute("a_y"));
-        attributes.addElement(new Attribute("a_x"));
-        attributes.addElement(new Attribute("a_health"));
-        attributes.addElement(new Attribute("a_stamina"));
-        attributes.addElement(new Attribute("o_x"));
-        attributes.addElement(new Attribute("o_y"));
-        attributes.addElement(new Attribute("o_health"));
-        attributes.addElement(new Attribute("o_stamina"));
-        // Add the class, the action the a_ agent took in the given state (nominal).
-        attributes.addElement(new Attribute("class", actions));
-
-        Instances instances = new Instances( "AgentBattleHistory", attributes, 0 );
-        instances.setClassIndex(8);
-        return instances;
+        return FeaturePipeline.parse( FeaturePipeline.DEFAULT_SPEC, deck ).createInstances();
     }
 }
@@ -0,0 +1,578 @@
+package itml;
+
+import itml.agents.Agent;
+import itml.agents.AgentFactory;
+import itml.agents.ModelAgent;
+import itml.learning.FeaturePipeline;
+import itml.learning.ModelStore;
+import itml.simulator.Battle;
+import itml.simulator.CardDeck;
+import itml.simulator.CardDeckLoader;
+import itml.simulator.GameLog;
+import itml.simulator.StateAgent;
+import itml.simulator.TimingStats;
+import itml.simulator.Warmup;
+import weka.core.Instances;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ *  This class provides the headless batch mode of BattleSim, for running many games without a console.
+ *
+ *      itml.BattleSim --agents AgentChicken,AgentTerminator [--games 1000] [--threads 4] [--seed 42]
+ *                     [--format jsonl|csv] [--metrics-interval 100] [--steps 30] [--ms-per-move 50]
+ *                     [--board 5x5] [--stamina 10] [--health 3] [--deck deck.properties] [--anytime]
+ *                     [--detect-cycles] [--warmup compilation|throughput] [--warmup-ms 10000] [--clock wall|cpu]
+ *                     [--timing=false] [--model-dir models] [--features raw] [--training-tag tag] [--train data.arff]
+ *                     [--out results.jsonl] [--config agents.properties]
+ *
+ *  Each game starts from random squares (drawn from the seed and the number of the game), and the
+ *  seating of the agents rotates from game to game. Games are spread over the threads; each thread has
+ *  a battle of its own, and leases its agents from a shared <code>AgentFactory</code>.
+ *
+ *  Results go to the output (standard output by default) only: one record per game, and in JSON Lines
+ *  format also a metrics record every metrics interval and a summary record at the end. Nothing else is
+ *  printed while the games run; anything the agents themselves print is discarded. With
+ *  --detect-cycles, games between deterministic agents end as soon as a state repeats, and the metrics
+ *  report the steps saved. With --warmup, the agents first play untimed games until their code is
+ *  compiled (see <code>Warmup</code>), which in JSON Lines format is reported in a warm-up record.
+ *
+ *  Time limits are enforced on wall time, or with --clock cpu on the CPU time of the agent's thread, which
+ *  does not grow while other games keep the processors busy (see <code>Battle.setClock</code>). The metrics
+ *  and summary records report both: the total wall and CPU time of all act calls, and the number of calls
+ *  over the limit. Measuring CPU time costs about a microsecond per call, which is noticeable with very
+ *  fast agents; --timing=false records no times (unless the CPU clock needs them).
+ *
+ *  Agents that play from a trained model (<code>ModelAgent</code>) load it from the snapshots in
+ *  --model-dir (see <code>ModelStore</code>), matched by the deck, the --features the model was trained
+ *  with, and the --training-tag it was saved under (for a model saved by BattleSim, the tag it builds
+ *  from its configuration). Agents without a snapshot learn from the --train data instead (an ARFF
+ *  file, such as the history.arff BattleSim writes); the first agent of each kind learns, the others share
+ *  its model. The run fails before any game is played if such an agent ends up with no model.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class HeadlessRunner {
+
+    private String[]   m_agents;
+    private int        m_numGames        = 100;
+    private int        m_numThreads      = 1;
+    private long       m_seed            = new Random().nextLong();
+    private String     m_format          = "jsonl";
+    private int        m_metricsInterval = 0;      // Games between metrics records (0 for none).
+    private int        m_numSteps        = 30;
+    private int        m_msPerMove       = 50;
+    private int        m_numColumns      = 5;
+    private int        m_numRows         = 5;
+    private int        m_stamina         = 10;
+    private int        m_health          = 3;
+    private boolean    m_isAnytime       = false;
+    private boolean    m_isCycleDetection = false;
+    private String     m_deckFile        = null;
+    private String     m_outFile         = null;
+    private String     m_configFile      = null;
+    private Warmup.Until m_warmup        = null;   // Heuristic of the warm-up stage (null for none).
+    private long       m_msWarmup        = 10000;
+    private Battle.Clock m_clock         = Battle.Clock.WALL;
+    private boolean    m_isTiming        = true;   // Record the time of act calls for the metrics.
+    private String     m_modelDir        = null;   // Directory of the model snapshots (null for none).
+    private String     m_featureSpec     = FeaturePipeline.DEFAULT_SPEC;
+    private String     m_trainingTag     = "";
+    private String     m_trainFile       = null;   // ARFF file agents learn from (null for none).
+
+    // Results, updated by the game threads while holding the lock on m_out.
+    private Writer     m_out;
+    private double[]   m_scores;
+    private int        m_numFinished;
+    private long       m_stepsSaved;       // Steps not played because games were cycles.
+    private TimingStats[] m_timingStats;   // Time of the act calls, by game thread.
+    private long       m_msStart;
+
+    /**
+     *  Run the headless mode.
+     *
+     * @param  args  Command line arguments (see class description).
+     */
+    public static void main( String[] args )
+    {
+        HeadlessRunner runner = new HeadlessRunner();
+        try {
+            runner.parse( args );
+        } catch (IllegalArgumentException e) {
+            System.err.println( e.getMessage() );
+            System.exit(2);
+        }
+        try {
+            runner.run();
+        } catch (IllegalArgumentException e) {   // The setup does not fit, e.g. an agent has no model.
+            System.err.println( e.getMessage() );
+            System.exit(2);
+        } catch (Exception e) {
+            System.err.println( "Error: " + e );
+            System.exit(1);
+        }
+    }
+
+    /**
+     *  Set the options from command line arguments, given as --name value or --name=value.
+     *
+     * @param  args  Command line arguments.
+     *
+     * @throws IllegalArgumentException  if an option is unknown or has a bad value.
+     */
+    public void parse( String[] args )
+    {
+        for ( int i=0; i<args.length; ++i ) {
+            String name = args[i];
+            String value = null;
+            if ( !name.startsWith( "--" ) ) {
+                throw new IllegalArgumentException( "Expected an option, not " + name );
+            }
+            int eq = name.indexOf( '=' );
+            if ( eq > 0 ) {
+                value = name.substring( eq+1 );
+                name = name.substring( 0, eq );
+            }
+            if ( name.equals( "--anytime" ) ) {
+                m_isAnytime = (value == null) || Boolean.parseBoolean( value );
+                continue;
+            }
+            if ( name.equals( "--detect-cycles" ) ) {
+                m_isCycleDetection = (value == null) || Boolean.parseBoolean( value );
+                continue;
+            }
+            if ( name.equals( "--timing" ) ) {
+                m_isTiming = (value == null) || Boolean.parseBoolean( value );
+                continue;
+            }
+            if ( value == null ) {
+                if ( i+1 == args.length ) {
+                    throw new IllegalArgumentException( "Option " + name + " needs a value" );
+                }
+                value = args[++i];
+            }
+            if ( name.equals( "--agents" ) )                { m_agents = AgentFactory.parseNames( value ); }
+            else if ( name.equals( "--games" ) )            { m_numGames = parseInt( name, value, 0 ); }
+            else if ( name.equals( "--threads" ) )          { m_numThreads = parseInt( name, value, 1 ); }
+            else if ( name.equals( "--seed" ) )             { m_seed = parseLong( name, value ); }
+            else if ( name.equals( "--format" ) )           { m_format = value; }
+            else if ( name.equals( "--metrics-interval" ) ) { m_metricsInterval = parseInt( name, value, 0 ); }
+            else if ( name.equals( "--steps" ) )            { m_numSteps = parseInt( name, value, 1 ); }
+            else if ( name.equals( "--ms-per-move" ) )      { m_msPerMove = parseInt( name, value, 1 ); }
+            else if ( name.equals( "--stamina" ) )          { m_stamina = parseInt( name, value, 0 ); }
+            else if ( name.equals( "--health" ) )           { m_health = parseInt( name, value, 1 ); }
+            else if ( name.equals( "--deck" ) )             { m_deckFile = value; }
+            else if ( name.equals( "--out" ) )              { m_outFile = value; }
+            else if ( name.equals( "--config" ) )           { m_configFile = value; }
+            else if ( name.equals( "--warmup-ms" ) )        { m_msWarmup = parseInt( name, value, 0 ); }
+            else if ( name.equals( "--model-dir" ) )        { m_modelDir = value; }
+            else if ( name.equals( "--features" ) )         { m_featureSpec = value; }
+            else if ( name.equals( "--training-tag" ) )     { m_trainingTag = value; }
+            else if ( name.equals( "--train" ) )            { m_trainFile = value; }
+            else if ( name.equals( "--clock" ) ) {
+                try {
+                    m_clock = Battle.Clock.valueOf( value.toUpperCase() );
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException( "--clock must be wall or cpu" );
+                }
+            }
+            else if ( name.equals( "--warmup" ) ) {
+                try {
+                    m_warmup = Warmup.Until.valueOf( value.toUpperCase() );
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException( "--warmup must be compilation or throughput" );
+                }
+            }
+            else if ( name.equals( "--board" ) ) {
+                int x = value.indexOf( 'x' );
+                if ( x < 0 ) {
+                    throw new IllegalArgumentException( "Board must be given as <columns>x<rows>: " + value );
+                }
+                m_numColumns = parseInt( name, value.substring( 0, x ), 1 );
+                m_numRows = parseInt( name, value.substring( x+1 ), 1 );
+            }
+            else {
+                throw new IllegalArgumentException( "Unknown option " + name );
+            }
+        }
+        if ( m_agents == null || m_agents.length < 2 ) {
+            throw new IllegalArgumentException( "--agents must name at least two agents" );
+        }
+        if ( !m_format.equals( "jsonl" ) && !m_format.equals( "csv" ) ) {
+            throw new IllegalArgumentException( "--format must be jsonl or csv" );
+        }
+    }
+
+    /**
+     *  Play all games, and write the results.
+     *
+     * @throws Exception  if the setup fails, or a game fails.
+     */
+    public void run() throws Exception
+    {
+        run( createFactory(), null );
+    }
+
+    /**
+     *  Create the agent factory for the options: with the deck, time limit, model store, training data
+     *  and agent configuration.
+     *
+     * @return  A new factory.
+     *
+     * @throws IOException               if the deck, the configuration or the training data cannot be read.
+     * @throws IllegalArgumentException  if the feature specification is not valid.
+     */
+    AgentFactory createFactory() throws IOException
+    {
+        CardDeck deck = (m_deckFile == null) ? CardDeckLoader.standardDeck() : CardDeckLoader.load( new File( m_deckFile ) );
+        FeaturePipeline.parse( m_featureSpec, deck );   // Only to check the specification.
+        ModelStore modelStore = new ModelStore( (m_modelDir == null) ? null : new File( m_modelDir ), m_featureSpec, m_trainingTag );
+        AgentFactory factory = new AgentFactory( deck, 0, m_msPerMove, 0, modelStore );
+        factory.setQuiet( true );   // No one reads the agents' debugging output here.
+        if ( m_configFile != null ) {
+            factory.configure( AgentFactory.loadConfig( new File( m_configFile ) ) );
+        }
+        if ( m_trainFile != null ) {
+            factory.setTrainingData( readArff( new File( m_trainFile ) ) );
+        }
+        return factory;
+    }
+
+    // Read training data; the class (the move played) is the last attribute.
+    private static Instances readArff( File file ) throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try {
+            Instances instances = new Instances( reader );
+            instances.setClassIndex( instances.numAttributes() - 1 );
+            return instances;
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     *  Get a key for the factory of the options; runs with the same key can share a factory (and the
+     *  agents pooled in it).
+     *
+     * @return  The key.
+     */
+    String getFactoryKey()
+    {
+        return m_deckFile + "|" + m_msPerMove + "|" + m_modelDir + "|" + m_featureSpec + "|" + m_trainingTag
+               + "|" + m_configFile + "@" + lastModified( m_configFile ) + "|" + m_trainFile + "@" + lastModified( m_trainFile );
+    }
+
+    // When a file of the options was last changed (0 if there is none).
+    private static long lastModified( String fileName )
+    {
+        return (fileName == null) ? 0 : new File( fileName ).lastModified();
+    }
+
+    /**
+     *  Get the format of the results.
+     *
+     * @return  "jsonl" or "csv".
+     */
+    String getFormat()
+    {
+        return m_format;
+    }
+
+    /**
+     *  Play all games with agents from a factory, and write the results.
+     *
+     * @param  factory  The factory to lease the agents from (see <code>createFactory</code>).
+     * @param  out      Where to write the results (left open), or <code>null</code> for the --out option.
+     *
+     * @throws IllegalArgumentException  if an agent has no model, or the clock is not supported.
+     * @throws Exception                 if a game fails, or the results cannot be written.
+     */
+    void run( AgentFactory factory, OutputStream out ) throws Exception
+    {
+        if ( m_clock == Battle.Clock.CPU && !Battle.isCpuTimeSupported() ) {
+            throw new IllegalArgumentException( "This JVM cannot measure the CPU time of threads" );
+        }
+        checkModels( factory );
+
+        // Results are written to the real standard output, unless told otherwise.
+        OutputStream file = null;   // The --out file, which is ours to close.
+        if ( out == null ) {
+            out = (m_outFile == null) ? System.out : (file = new FileOutputStream( m_outFile ));
+        }
+        m_out = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ), 1 << 16 );
+        try {
+            play( factory );
+        }
+        finally {
+            if ( file != null ) {
+                m_out.close();
+            }
+            else {
+                m_out.flush();
+            }
+        }
+    }
+
+    /**
+     *  Check that every agent that plays from a model has one, loaded or learned (the first agent of each
+     *  kind is leased, and so loads or learns its model, if it has not already).
+     *
+     * @param  factory  The factory to lease the agents from.
+     *
+     * @throws IllegalArgumentException  if an agent has no model.
+     */
+    void checkModels( AgentFactory factory )
+    {
+        for ( String name : m_agents ) {
+            Agent agent = factory.lease( name );
+            try {
+                if ( agent instanceof ModelAgent && ((ModelAgent) agent).getModel() == null ) {
+                    throw new IllegalArgumentException( "Agent " + name + " plays from a trained model, but none was found"
+                            + ((m_modelDir == null) ? " (no --model-dir given)"
+                                                    : " in " + m_modelDir + " for the deck, features and training tag" ) );
+                }
+            }
+            finally {
+                factory.release( agent );
+            }
+        }
+    }
+
+    // Play all games, writing the results to m_out; anything else printed is dropped until they are over.
+    private void play( AgentFactory factory ) throws Exception
+    {
+        PrintStream console = System.out;
+        System.setOut( new PrintStream( new OutputStream() {
+            public void write( int b ) {
+            }
+            public void write( byte[] b, int off, int len ) {
+            }
+        } ) );
+        try {
+            playAll( factory );
+        }
+        finally {
+            System.setOut( console );
+        }
+    }
+
+    // Play all games (see play).
+    private void playAll( final AgentFactory factory ) throws Exception
+    {
+        final CardDeck battleDeck = factory.getDeck();
+        m_scores = new double[m_agents.length];
+        m_numFinished = 0;
+        m_stepsSaved = 0;
+        if ( m_format.equals( "csv" ) ) {
+            StringBuilder header = new StringBuilder( "game,steps" );
+            for ( int s=0; s<m_agents.length; ++s ) {
+                header.append( ",agent" ).append( s );
+            }
+            for ( int s=0; s<m_agents.length; ++s ) {
+                header.append( ",score" ).append( s );
+            }
+            m_out.write( header.append( '\n' ).toString() );
+        }
+
+        m_timingStats = new TimingStats[m_numThreads];
+        for ( int t=0; t<m_numThreads; ++t ) {
+            m_timingStats[t] = new TimingStats();
+        }
+        if ( m_warmup != null ) {
+            warmup( factory, battleDeck );
+        }
+        m_msStart = System.currentTimeMillis();   // After the warm-up, which is reported on its own.
+
+        final AtomicInteger nextGame = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool( m_numThreads );
+        try {
+            Future<?>[] futures = new Future<?>[m_numThreads];
+            for ( int t=0; t<m_numThreads; ++t ) {
+                final TimingStats timingStats = m_timingStats[t];
+                futures[t] = executor.submit( new Runnable() {
+                    public void run() {
+                        playGames( factory, battleDeck, nextGame, timingStats );
+                    }
+                } );
+            }
+            for ( Future<?> future : futures ) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        if ( m_format.equals( "jsonl" ) ) {
+            m_out.write( metrics( "summary" ) );
+        }
+    }
+
+    // The loop of one game thread: take the next game number until all games are taken.
+    private void playGames( AgentFactory factory, CardDeck deck, AtomicInteger nextGame, TimingStats timingStats )
+    {
+        int numAgents = m_agents.length;
+        Battle battle = new Battle( m_numColumns, m_numRows, deck, new StateAgent[0] );
+        battle.setQuiet( true );
+        battle.setClock( m_clock );
+        battle.setTimingStats( m_isTiming ? timingStats : null );
+        battle.setAnytime( m_isAnytime );
+        battle.setCycleDetection( m_isCycleDetection );
+        GameLog log = new GameLog();
+        Random random = new Random();
+        String[] seated = new String[numAgents];
+        double[] score = new double[numAgents];
+        StringBuilder record = new StringBuilder();
+
+        for ( int game = nextGame.getAndIncrement(); game < m_numGames; game = nextGame.getAndIncrement() ) {
+            random.setSeed( m_seed ^ (0x9E3779B97F4A7C15L * (game + 1)) );
+            battle.setStateAgents( Battle.createStateAgents( m_numColumns, m_numRows, numAgents,
+                                                             m_stamina, m_health, random ) );
+            int rotation = game % numAgents;   // Seat s is taken by agent (s + rotation) % numAgents.
+            for ( int s=0; s<numAgents; ++s ) {
+                seated[s] = m_agents[(s + rotation) % numAgents];
+            }
+            Agent[] agents = factory.lease( seated );
+            for ( Agent agent : agents ) {
+                agent.setSeed( random.nextLong() );
+            }
+            try {
+                battle.run( false, m_numSteps, m_msPerMove, agents, score, log );
+            }
+            finally {
+                factory.release( agents );
+            }
+
+            record.setLength( 0 );
+            if ( m_format.equals( "jsonl" ) ) {
+                record.append( "{\"type\":\"game\",\"game\":" ).append( game )
+                      .append( ",\"steps\":" ).append( log.getLog().size() - 1 ).append( ",\"agents\":[" );
+                for ( int s=0; s<numAgents; ++s ) {
+                    record.append( (s > 0) ? ",\"" : "\"" ).append( seated[s] ).append( '"' );
+                }
+                record.append( "],\"scores\":[" );
+                for ( int s=0; s<numAgents; ++s ) {
+                    record.append( (s > 0) ? "," : "" ).append( score[s] );
+                }
+                record.append( "]}\n" );
+            }
+            else {
+                record.append( game ).append( ',' ).append( log.getLog().size() - 1 );
+                for ( int s=0; s<numAgents; ++s ) {
+                    record.append( ',' ).append( seated[s] );
+                }
+                for ( int s=0; s<numAgents; ++s ) {
+                    record.append( ',' ).append( score[s] );
+                }
+                record.append( '\n' );
+            }
+
+            synchronized ( m_out ) {
+                for ( int s=0; s<numAgents; ++s ) {
+                    m_scores[(s + rotation) % numAgents] += score[s];
+                }
+                m_numFinished++;
+                m_stepsSaved += battle.getStepsSaved();
+                try {
+                    m_out.write( record.toString() );
+                    if ( m_metricsInterval > 0 && m_numFinished % m_metricsInterval == 0 && m_format.equals( "jsonl" ) ) {
+                        m_out.write( metrics( "metrics" ) );
+                        m_out.flush();
+                    }
+                }
+                catch ( IOException e ) {
+                    throw new IllegalStateException( "Could not write results: " + e.getMessage(), e );
+                }
+            }
+        }
+    }
+
+    // Play untimed games with one agent of each seat, leased (and so warmed up) for the games to come.
+    private void warmup( AgentFactory factory, CardDeck deck ) throws IOException
+    {
+        Warmup stage = new Warmup( m_numColumns, m_numRows, deck, m_numSteps, m_msPerMove );
+        stage.setUntil( m_warmup );
+        stage.setClock( m_clock );
+        stage.setMaxMs( m_msWarmup );
+        Agent[] agents = factory.lease( m_agents );
+        TimingStats timingStats;
+        try {
+            timingStats = stage.run( agents, m_seed );
+        }
+        finally {
+            factory.release( agents );
+        }
+        if ( m_format.equals( "jsonl" ) ) {
+            m_out.write( "{\"type\":\"warmup\",\"games\":" + stage.getNumGames() + ",\"ms\":" + stage.getElapsedMs()
+                         + ",\"reason\":\"" + stage.getReason() + "\",\"actCalls\":" + timingStats.getNumCalls()
+                         + ",\"overLimit\":" + timingStats.getNumOverLimit() + "}\n" );
+            m_out.flush();
+        }
+    }
+
+    // A metrics or summary record: games finished so far, throughput, and total score of each agent.
+    private String metrics( String type )
+    {
+        long msElapsed = Math.max( 1, System.currentTimeMillis() - m_msStart );
+        TimingStats timing = new TimingStats();
+        for ( TimingStats timingStats : m_timingStats ) {
+            timing.add( timingStats );
+        }
+        StringBuilder record = new StringBuilder();
+        record.append( "{\"type\":\"" ).append( type ).append( "\",\"games\":" ).append( m_numFinished )
+              .append( ",\"seed\":" ).append( m_seed ).append( ",\"ms\":" ).append( msElapsed )
+              .append( ",\"gamesPerSecond\":" ).append( Math.round( 1000.0 * m_numFinished / msElapsed ) )
+              .append( ",\"stepsSaved\":" ).append( m_stepsSaved )
+              .append( ",\"clock\":\"" ).append( m_clock.name().toLowerCase() ).append( '"' )
+              .append( ",\"actCalls\":" ).append( timing.getNumCalls() )
+              .append( ",\"actWallMs\":" ).append( timing.getTotalNanos() / 1000000 )
+              .append( ",\"actCpuMs\":" ).append( timing.getTotalCpuNanos() / 1000000 )
+              .append( ",\"overLimit\":" ).append( timing.getNumOverLimit() )
+              .append( ",\"scores\":{" );
+        for ( int i=0; i<m_agents.length; ++i ) {
+            record.append( (i > 0) ? ",\"" : "\"" ).append( m_agents[i] ).append( "#" ).append( i )
+                  .append( "\":" ).append( m_scores[i] );
+        }
+        return record.append( "}}\n" ).toString();
+    }
+
+    private static int parseInt( String name, String value, int min )
+    {
+        try {
+            int n = Integer.parseInt( value );
+            if ( n >= min ) {
+                return n;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+        throw new IllegalArgumentException( "Option " + name + " must be an integer of at least " + min );
+    }
+
+    private static long parseLong( String name, String value )
+    {
+        try {
+            return Long.parseLong( value );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException( "Option " + name + " must be an integer" );
+        }
+    }
+}
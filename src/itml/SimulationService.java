@@ -0,0 +1,281 @@
+package itml;
+
+import itml.agents.AgentFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ *  This class provides the service mode of BattleSim: a long-running process that runs jobs of the
+ *  headless batch mode (see <code>HeadlessRunner</code>) as they are dropped into a job directory.
+ *
+ *      itml.BattleSim --serve &lt;directory&gt; [--warm AgentChicken,AgentTerminator] [--threads 4]
+ *
+ *  A job is a file named <code>&lt;name&gt;.job</code> holding the options of the batch mode, e.g.
+ *  "--agents AgentChicken,AgentTerminator --games 1000 --seed 42" (over any number of lines; lines
+ *  starting with # are comments). Jobs should be written under another name and then renamed, so the
+ *  service never sees half a job. The service claims a job by renaming it to <code>&lt;name&gt;.running</code>,
+ *  and writes the results to <code>&lt;name&gt;.jsonl</code> (or <code>.csv</code>) while the games run;
+ *  they are flushed with every metrics record, so the file can be followed. Once the job is over it is
+ *  renamed to <code>&lt;name&gt;.done</code>, or, if it fails, to <code>&lt;name&gt;.failed</code> with
+ *  the error appended. Creating a file named <code>stop</code> in the directory stops the service.
+ *
+ *  Jobs run one at a time, in the order they were submitted. What makes a fresh JVM slow stays warm
+ *  from one job to the next: the classes are loaded and compiled, and the agent factories, with the
+ *  agents pooled in them and any models they learned or loaded, are kept (one for each deck, time limit,
+ *  model store, training data and agent configuration).
+ *
+ *  Agents that play from a trained model get it from the job's options: they load it from the snapshots
+ *  in --model-dir (matched by --features and --training-tag), or learn it from the --train data. Each is
+ *  loaded or learned once, by the first job that needs the factory, and shared by the jobs after it. A job
+ *  naming such an agent when no model can be had fails without playing any games.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class SimulationService {
+
+    public static final String JOB_SUFFIX = ".job";
+    public static final String STOP_FILE  = "stop";
+
+    private static final long POLL_MS = 1000;   // Longest wait for a file event before the directory is listed anyway.
+
+    private final File                      m_directory;
+    private final PrintStream               m_console;
+    private final Map<String, AgentFactory> m_factories = new HashMap<String, AgentFactory>();
+
+    /**
+     *  Run the service mode.
+     *
+     * @param  args  Command line arguments (see class description).
+     */
+    public static void main( String[] args )
+    {
+        File directory = null;
+        String[] warm = new String[0];
+        int numThreads = 1;
+        try {
+            for ( int i=0; i<args.length; ++i ) {
+                if ( i+1 == args.length ) {
+                    throw new IllegalArgumentException( "Option " + args[i] + " needs a value" );
+                }
+                if ( args[i].equals( "--serve" ) )        { directory = new File( args[++i] ); }
+                else if ( args[i].equals( "--warm" ) )    { warm = AgentFactory.parseNames( args[++i] ); }
+                else if ( args[i].equals( "--threads" ) ) { numThreads = Integer.parseInt( args[++i] ); }
+                else {
+                    throw new IllegalArgumentException( "Unknown option " + args[i] );
+                }
+            }
+            if ( directory == null ) {
+                throw new IllegalArgumentException( "--serve must name the job directory" );
+            }
+        } catch (IllegalArgumentException e) {   // Includes NumberFormatException.
+            System.err.println( e.getMessage() );
+            System.exit(2);
+        }
+        try {
+            SimulationService service = new SimulationService( directory );
+            service.warm( warm, numThreads );
+            service.serve();
+        } catch (Exception e) {
+            System.err.println( "Error: " + e );
+            System.exit(1);
+        }
+    }
+
+    /**
+     *  Constructor, serve a job directory (created if it does not exist).
+     *
+     * @param  directory  The job directory.
+     *
+     * @throws IOException  if the directory cannot be created.
+     */
+    public SimulationService( File directory ) throws IOException
+    {
+        if ( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException( "Could not create directory " + directory );
+        }
+        m_directory = directory;
+        m_console = System.out;
+    }
+
+    /**
+     *  Fill the pools of the default factory (standard deck, no agent configuration) before any job comes in.
+     *
+     * @param  names   Aliases or class names of the agents.
+     * @param  count   The number of agents of each kind to keep ready (typically the number of threads of a job).
+     *
+     * @throws IOException  if the factory cannot be created.
+     */
+    public void warm( String[] names, int count ) throws IOException
+    {
+        HeadlessRunner runner = new HeadlessRunner();
+        AgentFactory factory = factoryFor( runner );
+        for ( String name : names ) {
+            factory.warm( name, count );
+        }
+    }
+
+    /**
+     *  Run jobs until a stop file appears in the job directory.
+     *
+     * @throws IOException           if the directory cannot be watched.
+     * @throws InterruptedException  if the thread is interrupted.
+     */
+    public void serve() throws IOException, InterruptedException
+    {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        try {
+            m_directory.toPath().register( watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                           StandardWatchEventKinds.ENTRY_MODIFY );
+            m_console.println( "Serving jobs in " + m_directory.getAbsolutePath() );
+            File stop = new File( m_directory, STOP_FILE );
+            while ( !stop.exists() ) {
+                runPendingJobs();
+                // Wait for something to happen; the timeout covers events the watcher drops.
+                WatchKey key = watcher.poll( POLL_MS, TimeUnit.MILLISECONDS );
+                if ( key != null ) {
+                    key.pollEvents();
+                    key.reset();
+                }
+            }
+            stop.delete();
+            m_console.println( "Stopped" );
+        }
+        finally {
+            watcher.close();
+        }
+    }
+
+    /**
+     *  Run every job in the job directory, oldest first.
+     *
+     * @return  The number of jobs run.
+     */
+    public int runPendingJobs()
+    {
+        File[] jobs = m_directory.listFiles();
+        if ( jobs == null ) {
+            return 0;
+        }
+        List<File> pending = new ArrayList<File>();
+        for ( File job : jobs ) {
+            if ( job.getName().endsWith( JOB_SUFFIX ) && job.isFile() ) {
+                pending.add( job );
+            }
+        }
+        File[] ordered = pending.toArray( new File[pending.size()] );
+        Arrays.sort( ordered, new Comparator<File>() {
+            public int compare( File a, File b ) {
+                int c = Long.compare( a.lastModified(), b.lastModified() );
+                return (c != 0) ? c : a.getName().compareTo( b.getName() );
+            }
+        } );
+        int numRun = 0;
+        for ( File job : ordered ) {
+            if ( runJob( job ) ) {
+                numRun++;
+            }
+        }
+        return numRun;
+    }
+
+    // Claim and run one job; false if another service claimed it first.
+    private boolean runJob( File job )
+    {
+        String name = job.getName().substring( 0, job.getName().length() - JOB_SUFFIX.length() );
+        File running = new File( m_directory, name + ".running" );
+        if ( !job.renameTo( running ) ) {
+            return false;
+        }
+        long msStart = System.currentTimeMillis();
+        OutputStream out = null;
+        try {
+            HeadlessRunner runner = new HeadlessRunner();
+            runner.parse( readOptions( running ) );
+            AgentFactory factory = factoryFor( runner );
+            runner.checkModels( factory );   // Before there are results, so a rejected job leaves none.
+            out = new FileOutputStream( new File( m_directory, name + "." + runner.getFormat() ) );
+            runner.run( factory, out );
+            running.renameTo( new File( m_directory, name + ".done" ) );
+            m_console.println( "Job " + name + " done in " + (System.currentTimeMillis() - msStart) + " ms" );
+        }
+        catch ( Exception e ) {
+            File failed = new File( m_directory, name + ".failed" );
+            running.renameTo( failed );
+            try {
+                PrintWriter writer = new PrintWriter( new FileWriter( failed, true ) );
+                writer.println( "# Error: " + e );
+                writer.close();
+            }
+            catch ( IOException e2 ) {
+                // The file name already tells the job failed.
+            }
+            m_console.println( "Job " + name + " failed: " + e );
+        }
+        finally {
+            if ( out != null ) {
+                try {
+                    out.close();
+                }
+                catch ( IOException e ) {
+                    // Nothing more to write.
+                }
+            }
+        }
+        return true;
+    }
+
+    // The factory for the options of a job, kept warm for later jobs with the same deck and configuration.
+    private AgentFactory factoryFor( HeadlessRunner runner ) throws IOException
+    {
+        String key = runner.getFactoryKey();
+        AgentFactory factory = m_factories.get( key );
+        if ( factory == null ) {
+            factory = runner.createFactory();
+            m_factories.put( key, factory );
+        }
+        return factory;
+    }
+
+    // The options of a job file: its words, except on comment lines.
+    private static String[] readOptions( File file ) throws IOException
+    {
+        List<String> options = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader( new FileReader( file ) );
+        try {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+                line = line.trim();
+                if ( line.isEmpty() || line.startsWith( "#" ) ) {
+                    continue;
+                }
+                for ( String word : line.split( "\\s+" ) ) {
+                    options.add( word );
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return options.toArray( new String[options.size()] );
+    }
+}
@@ -22,6 +22,17 @@ public abstract class Agent {
     protected int          m_msPerMove;    // Maximum time you can use per act, startGame, endGame call.
     protected int          m_msLearn;      // Maximum time you can use in the learn() method.
 
+    private volatile Move    m_move = new Move();   // The current (or last) act call of the runner.
+    private boolean          m_isQuiet;             // Suppress debugging output.
+
+    // Token of one act call of the runner. Each call gets a new one, so a call that outlives its move
+    // (abandoned after a cancel) stays cancelled, and cannot offer a move for a later call.
+    private static final class Move {
+        volatile Card    m_bestMoveSoFar;   // Best move found so far by an anytime act (null if none).
+        volatile boolean m_isCancelled;     // Set when the runner no longer waits for the call.
+        volatile boolean m_isDone = true;   // Set once the call has returned.
+    }
+
     /**
      *
      * Constructor, create a new agent using a given deck of cards.
@@ -43,6 +54,7 @@ public abstract class Agent {
      * Start a new game. Do any book keeping you need to to at the beginning of a game here.
      * The index of your agent in stateBattle is provided; it will stay unchanged through the
      * entire game, however, the state of the battle may change each step.
+     * The state is a read-only view, only valid during the call (see <code>act</code>).
      *
      * @param  noThisAgent    The index of the agent in the <code>stateBattle</code> state.
      * @param  stateBattle    The initial battle state.
@@ -65,6 +77,10 @@ public abstract class Agent {
      * The index of your agent in stateBattle is provided; it will stay unchanged through the
      * entire game, however, the state of the battle may change each step.
      *
+     * The state is a read-only view of the real battle state, and is only valid during the call.
+     * Its agent states cannot be modified; calling <code>play</code> on it works on a private copy.
+     * Use <code>clone()</code> to get a modifiable copy, or to keep the state after the call returns.
+     *
      * @param  stateBattle   The current battle (game) state.
      *
      * @return <code>Card</code> The card to play (action to take).
@@ -72,6 +88,153 @@ public abstract class Agent {
      */
     public abstract Card act( StateBattle stateBattle );
 
+    /**
+     * Make your move, by picking a card to play, before a deadline.
+     *
+     * An agent that searches can use all the time up to the deadline: it publishes each move it
+     * finds better than the previous ones with <code>offerMove</code>, and stops as soon as
+     * <code>shouldStop</code> says so. If the deadline passes before the call returns, the runner
+     * cancels the call and plays the last move offered.
+     *
+     * The default ignores the deadline and calls <code>act( stateBattle )</code>.
+     *
+     * @param  stateBattle     The current battle (game) state (see <code>act</code>).
+     * @param  deadlineNanos   Value of <code>System.nanoTime()</code> by which the move must be made.
+     *
+     * @return <code>Card</code> The card to play (action to take).
+     *
+     */
+    public Card act( StateBattle stateBattle, long deadlineNanos ) {
+        return act( stateBattle );
+    }
+
+    /**
+     * Set whether the agent prints debugging output. Batch runs turn it off, so the agent does not
+     * spend time building messages no one reads.
+     *
+     * @param  isQuiet   <code>true</code> for no debugging output.
+     *
+     */
+    public void setQuiet( boolean isQuiet ) {
+        m_isQuiet = isQuiet;
+    }
+
+    /**
+     * Tell whether the agent should keep its debugging output to itself (see <code>setQuiet</code>).
+     *
+     * @return <code>true</code> if the agent is quiet.
+     *
+     */
+    protected boolean isQuiet() {
+        return m_isQuiet;
+    }
+
+    /**
+     * Tell whether the agent's moves depend only on the current state: the locations, stamina and health
+     * of the agents and their last moves, and not on the step number, on earlier states, or on chance.
+     * If all agents of a game are deterministic, the game is a cycle as soon as a state repeats, and the
+     * runner may end it early (see <code>Battle.setCycleDetection</code>).
+     *
+     * The default is <code>false</code>.
+     *
+     * @return <code>true</code> if the agent is deterministic.
+     *
+     */
+    public boolean isDeterministic() {
+        return false;
+    }
+
+    /**
+     * Seed the random choices of the agent, so that the games it plays can be played again.
+     * Called by the runner before a game when its games must be reproducible (e.g. the training data).
+     *
+     * The default does nothing, which is right for agents that make no random choices.
+     *
+     * @param  seed   The seed.
+     *
+     */
+    public void setSeed( long seed ) {
+    }
+
+    /**
+     * Prepare for a new move: start a new call, with no best move so far and not cancelled.
+     * Called by the runner before each <code>act</code>, and followed by <code>endMove</code> once it returns.
+     *
+     * @throws IllegalStateException  if the previous call has not returned yet (see <code>isActing</code>).
+     *
+     */
+    public void beginMove() {
+        if ( isActing() ) {
+            throw new IllegalStateException( "The previous act call has not returned" );
+        }
+        Move move = new Move();
+        move.m_isDone = false;
+        m_move = move;
+    }
+
+    /**
+     * Mark the call started by <code>beginMove</code> as returned.
+     * May be called from another thread (the one the call ran on).
+     *
+     */
+    public void endMove() {
+        m_move.m_isDone = true;
+    }
+
+    /**
+     * Tell whether an <code>act</code> call of the runner has not returned yet. A call the runner
+     * abandoned after cancelling it may still be running; the agent must not be asked to do anything
+     * else until it returns.
+     *
+     * @return <code>true</code> if a call is running.
+     *
+     */
+    public boolean isActing() {
+        return !m_move.m_isDone;
+    }
+
+    /**
+     * Ask the current <code>act</code> call to return as soon as possible.
+     * May be called from another thread.
+     *
+     */
+    public void cancel() {
+        m_move.m_isCancelled = true;
+    }
+
+    /**
+     * Get the best move offered so far in the current <code>act</code> call.
+     * May be called from another thread.
+     *
+     * @return <code>Card</code> The last card offered, or <code>null</code> if none.
+     *
+     */
+    public Card getBestMoveSoFar() {
+        return m_move.m_bestMoveSoFar;
+    }
+
+    /**
+     * Publish the best move found so far, to be played if the deadline passes before <code>act</code> returns.
+     *
+     * @param  card   The card.
+     *
+     */
+    protected void offerMove( Card card ) {
+        m_move.m_bestMoveSoFar = card;
+    }
+
+    /**
+     * Check whether an anytime <code>act</code> should stop searching and return.
+     *
+     * @param  deadlineNanos   The deadline passed to <code>act</code>.
+     *
+     * @return <code>true</code> if the call was cancelled, or the deadline has passed.
+     *
+     */
+    protected boolean shouldStop( long deadlineNanos ) {
+        return m_move.m_isCancelled || System.nanoTime() - deadlineNanos >= 0;
+    }
+
     /**
      * The agent gets information about past matches of the opponent, and can thus (potentially) learn
      * useful strategies against it for upcoming match. The learning cannot take more than time indicated
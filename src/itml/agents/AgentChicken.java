@@ -1,7 +1,7 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
 import itml.simulator.CardDeck;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
@@ -9,6 +9,7 @@ import weka.classifiers.Classifier;
 import weka.core.Instances;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  *
@@ -22,7 +23,7 @@ import java.util.ArrayList;
  * @version     %I%, %G%
  *
  */
-public class AgentChicken extends Agent {
+public class AgentChicken extends Agent implements MarkovianAgent {
 
     private int m_noThisAgent;     // Index of our agent (0 or 1).
     private int m_noOpponentAgent; // Inex of opponent's agent.
@@ -34,7 +35,7 @@ public class AgentChicken extends Agent {
     public void startGame(int noThisAgent, StateBattle stateBattle) {
         // Remember the indicies of the agents in the StateBattle.
         m_noThisAgent = noThisAgent;
-        m_noOpponentAgent  = (noThisAgent == 0 ) ? 1 : 0; // can assume only 2 agents battling.
+        m_noOpponentAgent  = stateBattle.getNearestOpponent( noThisAgent ); // the other agent, if only 2 agents battling.
     }
 
     public void endGame(StateBattle stateBattle, double[] results) {
@@ -43,12 +44,14 @@ public class AgentChicken extends Agent {
 
     public Card act(StateBattle stateBattle ) {
 
-        Card [] move = new Card[2];
+        // In a free-for-all, keep an eye on whoever is closest.
+        m_noOpponentAgent = stateBattle.getNearestOpponent( m_noThisAgent );
+        Card [] move = new Card[stateBattle.getNumAgents()];
 
-        move[m_noOpponentAgent] = new CardRest();   // We assume the opponent just stays where he/she is,
+        Arrays.fill( move, StandardCard.REST.getCard() );   // We assume the opponents just stay where they are,
         // and then take the move that brings us as far away as possible.
 
-        Card bestCard = new CardRest();
+        Card bestCard = StandardCard.REST.getCard();
         int  minDistance = calcDistanceBetweenAgents( stateBattle );
 
         ArrayList<Card> cards = m_deck.getCards( stateBattle.getAgentState( m_noThisAgent ).getStaminaPoints() );
@@ -66,6 +69,16 @@ public class AgentChicken extends Agent {
         return bestCard;
     }
 
+    public boolean isDeterministic() {
+        return true;   // The move only depends on the locations and stamina of the agents.
+    }
+
+    public double[] getActionDistribution( StateBattle stateBattle ) {
+        double[] distribution = new double[m_deck.getCards().size() + 1];
+        distribution[m_deck.slotOf( act( stateBattle ) )] = 1.0;
+        return distribution;
+    }
+
     public Classifier learn( Instances instances ) {
         // no learning
         return null;
@@ -73,8 +86,8 @@ public class AgentChicken extends Agent {
 
     private int calcDistanceBetweenAgents( StateBattle bs ) {
 
-        StateAgent asFirst = bs.getAgentState( 0 );
-        StateAgent asSecond = bs.getAgentState( 1 );
+        StateAgent asFirst = bs.getAgentState( m_noThisAgent );
+        StateAgent asSecond = bs.getAgentState( m_noOpponentAgent );
 
         return Math.abs( asFirst.getCol() - asSecond.getCol() ) + Math.abs( asFirst.getRow() - asSecond.getRow() );
     }
@@ -0,0 +1,263 @@
+package itml.agents;
+
+import itml.cards.Card;
+import itml.cards.StandardCard;
+import itml.learning.ModelPredictor;
+import itml.learning.ModelStore;
+import itml.learning.OpponentPredictor;
+import itml.learning.TrainedModel;
+import itml.simulator.CardDeck;
+import itml.simulator.StateAgent;
+import itml.simulator.StateBattle;
+import itml.simulator.StateKey;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.J48;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ *  This agent searches ahead with depth-limited expectimax. Our own moves are max nodes, and the
+ *  opponent's moves are chance nodes, weighted by the full probability distribution the opponent model
+ *  gives (rather than by its single most likely move). Both agents' moves are simulated with
+ *  <code>StateBattle.play</code>.
+ *
+ *  The search is iteratively deepened until the deadline, and the result of the deepest completed
+ *  iteration is played. It is an anytime search: each completed iteration offers its move, so when
+ *  run in anytime mode it can use the whole time per move. Called without a deadline it stops after
+ *  most of the time per move, to be safe. A transposition table, keyed by the packed state,
+ *  remembers values of states already searched. Without a model the opponent is assumed to pick
+ *  uniformly among its legal cards.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class AgentExpectimax extends Agent implements ModelAgent {
+
+    private static final int    TABLE_BITS     = 16;      // Transposition table has 2^TABLE_BITS entries.
+    private static final double MIN_PROBABILITY = 0.01;   // Opponent moves less likely than this are not searched.
+    private static final double TIME_FRACTION  = 0.8;     // Fraction of the time per move used, without a deadline.
+    private static final int    MAX_DEPTH      = 64;
+
+    private int m_noThisAgent;     // Index of our agent (0 or 1).
+    private int m_noOpponentAgent; // Index of opponent's agent.
+
+    private final Classifier    m_classifier = new J48();
+    private final ModelStore    m_store;      // Where models are loaded from and saved to.
+    private TrainedModel        m_model;
+    private OpponentPredictor   m_predictor;
+
+    // Transposition table: packed state, value, and the depth it was searched to.
+    private final long[]   m_ttKeys   = new long[1 << TABLE_BITS];
+    private final double[] m_ttValues = new double[1 << TABLE_BITS];
+    private final byte[]   m_ttDepths = new byte[1 << TABLE_BITS];
+
+    private long    m_nsDeadline;
+    private boolean m_isTimeUp;       // Set once shouldStop has said so, the search then unwinds.
+    private int     m_depthReached;   // Depth of the last completed iteration (for statistics).
+
+    public AgentExpectimax( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
+        this( deck, msConstruct, msPerMove, msLearn, ModelStore.NONE );
+    }
+
+    public AgentExpectimax( CardDeck deck, int msConstruct, int msPerMove, int msLearn, ModelStore store ) {
+        super( deck, msConstruct, msPerMove, msLearn );
+        m_store = store;
+        TrainedModel snapshot = m_store.load( m_deck, m_classifier );
+        if ( snapshot != null ) {
+            setModel( snapshot );
+        }
+    }
+
+    public void startGame( int noThisAgent, StateBattle stateBattle ) {
+        m_noThisAgent = noThisAgent;
+        m_noOpponentAgent = (noThisAgent == 0) ? 1 : 0; // can assume only 2 agents battling.
+        if ( m_predictor != null ) {
+            m_predictor.startGame( m_noOpponentAgent, m_noThisAgent );
+        }
+        Arrays.fill( m_ttDepths, (byte) -1 );
+    }
+
+    public void endGame( StateBattle stateBattle, double[] results ) {
+        // Nothing to do.
+    }
+
+    public Card act( StateBattle stateBattle ) {
+        return act( stateBattle, System.nanoTime() + (long) (TIME_FRACTION * m_msPerMove * 1000000L) );
+    }
+
+    @Override
+    public Card act( StateBattle stateBattle, long deadlineNanos ) {
+        m_nsDeadline = deadlineNanos;
+        m_isTimeUp = false;
+        if ( m_predictor != null ) {
+            m_predictor.observe( stateBattle );
+        }
+
+        ArrayList<Card> cards = m_deck.getCards( stateBattle.getAgentState( m_noThisAgent ).getStaminaPoints() );
+        Card best = cards.isEmpty() ? StandardCard.REST.getCard() : cards.get( 0 );
+        offerMove( best );
+        int depthLeft = stateBattle.getNumSteps() - stateBattle.getStepNumber();
+        m_depthReached = 0;
+
+        for ( int depth = 1; depth <= Math.min( depthLeft, MAX_DEPTH ); ++depth ) {
+            Card bestAtDepth = null;
+            double bestValue = -1.0;
+            // Search the best card of the previous iteration first.
+            for ( int i = -1; i < cards.size(); ++i ) {
+                Card card = (i < 0) ? best : cards.get( i );
+                if ( i >= 0 && card == best ) continue;
+                double value = chance( stateBattle, card, depth );
+                if ( m_isTimeUp ) break;
+                if ( value > bestValue ) {
+                    bestValue = value;
+                    bestAtDepth = card;
+                }
+            }
+            if ( m_isTimeUp ) break;
+            best = bestAtDepth;
+            offerMove( best );
+            m_depthReached = depth;
+        }
+        return best;
+    }
+
+    /**
+     *
+     * Get the depth of the last completed search iteration of the most recent <code>act</code>.
+     *
+     * @return  An integer representing the search depth.
+     *
+     */
+    public int getDepthReached() {
+        return m_depthReached;
+    }
+
+    // Max node: our move.
+    private double max( StateBattle bs, int depth ) {
+        if ( isTerminal( bs ) || depth == 0 ) {
+            return evaluate( bs );
+        }
+        long key = StateKey.pack( bs );
+        int slot = (int) (key ^ (key >>> 29)) & (m_ttKeys.length - 1);
+        if ( m_ttKeys[slot] == key && m_ttDepths[slot] >= depth ) {
+            return m_ttValues[slot];
+        }
+        double best = 0.0;
+        for ( Card card : m_deck.getCards( bs.getAgentState( m_noThisAgent ).getStaminaPoints() ) ) {
+            best = Math.max( best, chance( bs, card, depth ) );
+            if ( m_isTimeUp ) return best;
+        }
+        m_ttKeys[slot] = key;
+        m_ttValues[slot] = best;
+        m_ttDepths[slot] = (byte) depth;
+        return best;
+    }
+
+    // Chance node: the opponent's move, given our move.
+    private double chance( StateBattle bs, Card card, int depth ) {
+        if ( shouldStop( m_nsDeadline ) ) {
+            m_isTimeUp = true;
+            return 0.0;
+        }
+        ArrayList<Card> cardsOpp = m_deck.getCards( bs.getAgentState( m_noOpponentAgent ).getStaminaPoints() );
+        double[] probabilities = opponentDistribution( bs, cardsOpp );
+        Card[] move = new Card[2];
+        move[m_noThisAgent] = card;
+        double value = 0.0;
+        double total = 0.0;
+        for ( int i=0; i<cardsOpp.size(); ++i ) {
+            if ( probabilities[i] < MIN_PROBABILITY ) continue;
+            StateBattle child = new StateBattle( bs );
+            move[m_noOpponentAgent] = cardsOpp.get( i );
+            child.play( move );
+            value += probabilities[i] * max( child, depth - 1 );
+            total += probabilities[i];
+            if ( m_isTimeUp ) return 0.0;
+        }
+        return (total > 0.0) ? value / total : evaluate( bs );
+    }
+
+    // Probability of each of the opponent's legal cards.
+    private double[] opponentDistribution( StateBattle bs, ArrayList<Card> cardsOpp ) {
+        double[] probabilities = new double[cardsOpp.size()];
+        double total = 0.0;
+        if ( m_predictor != null ) {
+            double[] distribution = new double[m_deck.getCards().size()];
+            try {
+                m_predictor.distribution( bs, distribution );
+                for ( int i=0; i<cardsOpp.size(); ++i ) {
+                    probabilities[i] = distribution[m_deck.indexOf( cardsOpp.get( i ) )];
+                    total += probabilities[i];
+                }
+            }
+            catch ( IllegalStateException e ) {
+                total = 0.0;
+            }
+        }
+        if ( total <= 0.0 ) {
+            Arrays.fill( probabilities, 1.0 );
+            total = probabilities.length;
+        }
+        for ( int i=0; i<probabilities.length; ++i ) {
+            probabilities[i] /= total;
+        }
+        return probabilities;
+    }
+
+    private boolean isTerminal( StateBattle bs ) {
+        return bs.getAgentState( m_noThisAgent ).getHealthPoints() <= 0
+            || bs.getAgentState( m_noOpponentAgent ).getHealthPoints() <= 0
+            || bs.getStepNumber() >= bs.getNumSteps();
+    }
+
+    // Expected score (0.0 = loss, 0.5 = tie, 1.0 = win), estimated for unfinished games.
+    private double evaluate( StateBattle bs ) {
+        StateAgent as = bs.getAgentState( m_noThisAgent );
+        StateAgent os = bs.getAgentState( m_noOpponentAgent );
+        boolean isAlive = as.getHealthPoints() > 0;
+        boolean isOppAlive = os.getHealthPoints() > 0;
+        if ( !isAlive || !isOppAlive ) {
+            return (isAlive == isOppAlive) ? 0.5 : (isAlive ? 1.0 : 0.0);
+        }
+        if ( bs.getStepNumber() >= bs.getNumSteps() ) {
+            return 0.5;
+        }
+        double value = 0.5 + 0.05 * (as.getHealthPoints() - os.getHealthPoints())
+                           + 0.005 * (as.getStaminaPoints() - os.getStaminaPoints());
+        return Math.max( 0.01, Math.min( 0.99, value ) );
+    }
+
+    public Classifier learn( Instances instances ) {
+        try {
+            setModel( TrainedModel.build( m_classifier, instances ) );
+            m_store.save( m_model, m_deck, m_classifier );
+        }
+        catch ( Exception e ) {
+            System.out.println( "Error training classifier: " + e.toString() );
+        }
+        return null;
+    }
+
+    public TrainedModel getModel() {
+        return m_model;
+    }
+
+    public void setModel( TrainedModel model ) {
+        m_model = model;
+        m_predictor = new ModelPredictor( model, m_deck );
+    }
+
+    /**
+     *
+     * Use a different opponent predictor than the learned model.
+     *
+     * @param  predictor   The predictor to use from the next game on.
+     *
+     */
+    public void setPredictor( OpponentPredictor predictor ) {
+        m_predictor = predictor;
+    }
+}
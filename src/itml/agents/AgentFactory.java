@@ -0,0 +1,445 @@
+package itml.agents;
+
+import itml.learning.ModelStore;
+import itml.learning.TrainedModel;
+import itml.simulator.CardDeck;
+import itml.simulator.PolicyTable;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ *
+ *  This class provides the type AgentFactory, a registry that creates agents by (class) name and
+ *  keeps pools of pre-constructed, pre-learned agents that can be leased for a single game at a time.
+ *
+ *  Agents keep per-game state (e.g. their index in the battle), so an agent instance must never be
+ *  used by two games at the same time. Leasing an agent from the factory, and releasing it once the
+ *  game is over, makes it safe to run games in parallel without paying the construction and
+ *  learning cost again for every game.
+ *
+ *  Agents are registered under an alias. An alias that is not registered is resolved as a class name,
+ *  either fully qualified or relative to the <code>itml.agents</code> package (e.g. "AgentChicken").
+ *  A registry can be configured from <code>Properties</code>, using keys of the form
+ *  <code>agent.&lt;alias&gt;=&lt;class name&gt;</code>, and an alias can play from a policy table made by
+ *  <code>PolicyCompiler</code> with <code>policy.&lt;alias&gt;=&lt;file&gt;</code>.
+ *
+ *  Agents that play from a trained model (<code>ModelAgent</code>) only learn once per name: the first
+ *  pooled agent learns, and all later ones share its read-only model. Agents with a
+ *  <code>(CardDeck, int, int, int, ModelStore)</code> constructor are given the factory's model store,
+ *  to load their model from instead of learning, and to save what they learn to.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class AgentFactory {
+
+    public static final String KEY_PREFIX        = "agent.";
+    public static final String POLICY_KEY_PREFIX = "policy.";
+
+    private final CardDeck m_deck;
+    private final int      m_msConstruct;
+    private final int      m_msPerMove;
+    private final int      m_msLearn;
+    private final ModelStore m_modelStore;
+
+    private final Map<String, Constructor<? extends Agent>>   m_registry = new ConcurrentHashMap<String, Constructor<? extends Agent>>();
+    private final Map<String, ConcurrentLinkedQueue<Agent>>   m_pools    = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Agent>>();
+    private final Map<Agent, String>                          m_leased   = new ConcurrentHashMap<Agent, String>();
+    private final Map<String, TrainedModel>                   m_models   = new ConcurrentHashMap<String, TrainedModel>();
+    private final Map<String, PolicyTable>                    m_policies = new ConcurrentHashMap<String, PolicyTable>();
+
+    private volatile Instances m_instances;  // Training data pooled agents learn from (null if none).
+    private volatile boolean   m_isQuiet;    // Create agents without debugging output.
+
+    /**
+     *
+     * Constructor, create a new factory whose agents neither load nor save models. All agents created by
+     * the factory get their own copy of the deck and the given time limits.
+     *
+     * @param  deck           The deck of cards the agents can use.
+     * @param  msConstruct    The maximum time (in milliseconds) the agent constructor can take.
+     * @param  msPerMove      The maximum time (in milliseconds) an agent can spend on each individual action.
+     * @param  msLearn        The maximum time (in milliseconds) an agent can spend for learning.
+     *
+     */
+    public AgentFactory( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
+        this( deck, msConstruct, msPerMove, msLearn, ModelStore.NONE );
+    }
+
+    /**
+     *
+     * Constructor, create a new factory. All agents created by the factory get their own copy of the deck
+     * and the given time limits, and agents that play from a model get the model store.
+     *
+     * @param  deck           The deck of cards the agents can use.
+     * @param  msConstruct    The maximum time (in milliseconds) the agent constructor can take.
+     * @param  msPerMove      The maximum time (in milliseconds) an agent can spend on each individual action.
+     * @param  msLearn        The maximum time (in milliseconds) an agent can spend for learning.
+     * @param  modelStore     Where agents load their models from and save them to.
+     *
+     */
+    public AgentFactory( CardDeck deck, int msConstruct, int msPerMove, int msLearn, ModelStore modelStore ) {
+        m_deck = deck;
+        m_msConstruct = msConstruct;
+        m_msPerMove = msPerMove;
+        m_msLearn = msLearn;
+        m_modelStore = modelStore;
+    }
+
+    /**
+     *
+     * Register an agent class under an alias.
+     *
+     * @param  alias       The name the agent will be known by.
+     * @param  className   Name of the agent class (fully qualified, or relative to <code>itml.agents</code>).
+     *
+     * @throws IllegalArgumentException  if the class cannot be found or is not a valid agent.
+     *
+     */
+    public void register( String alias, String className ) {
+        m_registry.put( alias, resolve( className ) );
+        m_policies.remove( alias );
+    }
+
+    /**
+     *
+     * Register an alias for a <code>TabulatedAgent</code> playing from a policy table.
+     *
+     * @param  alias   The name the agent will be known by.
+     * @param  table   The table (made with the deck of this factory).
+     *
+     * @throws IllegalArgumentException  if the table was made with another deck.
+     *
+     */
+    public void registerPolicy( String alias, PolicyTable table ) {
+        if ( !table.getDeckFingerprint().equals( m_deck.fingerprint() ) ) {
+            throw new IllegalArgumentException( "The policy table of " + alias + " was made with another deck" );
+        }
+        m_policies.put( alias, table );
+        m_registry.put( alias, resolve( TabulatedAgent.class.getName() ) );
+    }
+
+    /**
+     *
+     * Register all agents listed in a configuration, that is, every key of the form
+     * <code>agent.&lt;alias&gt;</code> or <code>policy.&lt;alias&gt;</code>.
+     *
+     * @param  config   Configuration properties.
+     *
+     * @throws IllegalArgumentException  if an agent class or a policy table cannot be loaded.
+     *
+     */
+    public void configure( Properties config ) {
+        for ( String key : config.stringPropertyNames() ) {
+            if ( key.startsWith( KEY_PREFIX ) ) {
+                register( key.substring( KEY_PREFIX.length() ), config.getProperty( key ).trim() );
+            }
+            else if ( key.startsWith( POLICY_KEY_PREFIX ) ) {
+                File file = new File( config.getProperty( key ).trim() );
+                try {
+                    registerPolicy( key.substring( POLICY_KEY_PREFIX.length() ), PolicyTable.read( file ) );
+                }
+                catch ( IOException e ) {
+                    throw new IllegalArgumentException( "Cannot read policy table " + file + ": " + e.getMessage() );
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * Read a configuration file (in <code>Properties</code> format).
+     *
+     * @param  file   The configuration file.
+     *
+     * @return The configuration properties.
+     *
+     * @throws IOException  if the file cannot be read.
+     *
+     */
+    public static Properties loadConfig( File file ) throws IOException {
+        Properties config = new Properties();
+        Reader reader = new FileReader( file );
+        try {
+            config.load( reader );
+        }
+        finally {
+            reader.close();
+        }
+        return config;
+    }
+
+    /**
+     *
+     * Split a comma-separated list of agent names, e.g. "AgentChicken, AgentLazy". Blanks around
+     * each name are dropped, and so are empty names.
+     *
+     * @param  list   The comma-separated names.
+     *
+     * @return The names, in the order listed.
+     *
+     */
+    public static String[] parseNames( String list ) {
+        ArrayList<String> names = new ArrayList<String>();
+        for ( String name : list.split( "," ) ) {
+            name = name.trim();
+            if ( !name.isEmpty() ) {
+                names.add( name );
+            }
+        }
+        return names.toArray( new String[names.size()] );
+    }
+
+    /**
+     *
+     * Get the deck of cards agents created by this factory use.
+     *
+     * @return  <code>CardDeck</code>
+     *
+     */
+    public CardDeck getDeck() {
+        return m_deck;
+    }
+
+    /**
+     *
+     * Get the model store agents created by this factory use.
+     *
+     * @return  <code>ModelStore</code>
+     *
+     */
+    public ModelStore getModelStore() {
+        return m_modelStore;
+    }
+
+    /**
+     *
+     * Set the training data that pooled agents learn from before they are first leased.
+     * Agents already in the pools are not affected, so this should be called before warming up.
+     *
+     * @param  instances  WEKA instances of past experience (or <code>null</code> for no learning).
+     *
+     */
+    public void setTrainingData( Instances instances ) {
+        m_instances = instances;
+        m_models.clear();
+    }
+
+    /**
+     *
+     * Set whether agents created from now on print debugging output (see <code>Agent.setQuiet</code>).
+     *
+     * @param  isQuiet   <code>true</code> for no debugging output.
+     *
+     */
+    public void setQuiet( boolean isQuiet ) {
+        m_isQuiet = isQuiet;
+    }
+
+    /**
+     *
+     * Create a new agent, bypassing the pools. The agent does not learn.
+     *
+     * @param  name   Alias or class name of the agent.
+     *
+     * @return  A newly constructed agent.
+     *
+     */
+    public Agent create( String name ) {
+        Constructor<? extends Agent> constructor = m_registry.get( name );
+        if ( constructor == null ) {
+            constructor = resolve( name );
+            m_registry.put( name, constructor );
+        }
+        try {
+            Agent agent = (constructor.getParameterTypes().length == 5)
+                          ? constructor.newInstance( m_deck.clone(), m_msConstruct, m_msPerMove, m_msLearn, m_modelStore )
+                          : constructor.newInstance( m_deck.clone(), m_msConstruct, m_msPerMove, m_msLearn );
+            agent.setQuiet( m_isQuiet );
+            PolicyTable table = m_policies.get( name );
+            if ( table != null ) {
+                ((TabulatedAgent) agent).setTable( table );
+            }
+            return agent;
+        }
+        catch ( InvocationTargetException e ) {
+            throw new IllegalStateException( "Agent " + name + " failed in constructor: " + e.getCause(), e.getCause() );
+        }
+        catch ( ReflectiveOperationException e ) {
+            throw new IllegalStateException( "Cannot construct agent " + name + ": " + e, e );
+        }
+    }
+
+    /**
+     *
+     * Make sure the pool of a given agent holds (at least) a number of ready-to-play agents.
+     *
+     * @param  name    Alias or class name of the agent.
+     * @param  count   The number of agents to keep ready.
+     *
+     */
+    public void warm( String name, int count ) {
+        ConcurrentLinkedQueue<Agent> pool = pool( name );
+        while ( pool.size() < count ) {
+            pool.add( createReady( name ) );
+        }
+    }
+
+    /**
+     *
+     * Lease an agent for a game. The agent is taken from the pool if one is available, otherwise a new one
+     * is constructed (and learns from the training data, if any). The agent must be given back with
+     * <code>release</code> once the game is over.
+     *
+     * @param  name   Alias or class name of the agent.
+     *
+     * @return  An agent that no one else is using.
+     *
+     */
+    public Agent lease( String name ) {
+        Agent agent = pool( name ).poll();
+        if ( agent == null ) {
+            agent = createReady( name );
+        }
+        m_leased.put( agent, name );
+        return agent;
+    }
+
+    /**
+     *
+     * Return a leased agent to its pool.
+     *
+     * @param  agent   An agent obtained from <code>lease</code>.
+     *
+     */
+    public void release( Agent agent ) {
+        String name = m_leased.remove( agent );
+        if ( name == null ) {
+            throw new IllegalArgumentException( "Agent was not leased from this factory" );
+        }
+        pool( name ).add( agent );
+    }
+
+    /**
+     *
+     * Lease one agent for each name.
+     *
+     * @param  names   Aliases or class names of the agents.
+     *
+     * @return  Array of leased agents, in the same order as <code>names</code>.
+     *
+     */
+    public Agent[] lease( String[] names ) {
+        Agent[] agents = new Agent[names.length];
+        for ( int i=0; i<names.length; ++i ) {
+            agents[i] = lease( names[i] );
+        }
+        return agents;
+    }
+
+    /**
+     *
+     * Return leased agents to their pools.
+     *
+     * @param  agents   Agents obtained from <code>lease</code>.
+     *
+     */
+    public void release( Agent[] agents ) {
+        for ( Agent agent : agents ) {
+            release( agent );
+        }
+    }
+
+    /**
+     *
+     * Get the names (aliases) of all registered agents.
+     *
+     * @return  <code>ArrayList</code> of names.
+     *
+     */
+    public ArrayList<String> getNames() {
+        return new ArrayList<String>( m_registry.keySet() );
+    }
+
+    private Agent createReady( String name ) {
+        Agent agent = create( name );
+        Instances instances = m_instances;
+        if ( instances == null ) {
+            return agent;
+        }
+        if ( !(agent instanceof ModelAgent) ) {
+            agent.learn( instances );
+            return agent;
+        }
+        ModelAgent modelAgent = (ModelAgent) agent;
+        TrainedModel model = m_models.get( name );
+        if ( model == null ) {
+            synchronized ( pool( name ) ) {   // Only the first agent of a kind learns.
+                model = m_models.get( name );
+                if ( model == null ) {
+                    if ( modelAgent.getModel() == null ) {   // Unless it loaded a snapshot.
+                        agent.learn( instances );
+                    }
+                    model = modelAgent.getModel();
+                    if ( model != null ) {
+                        m_models.put( name, model );
+                    }
+                    return agent;
+                }
+            }
+        }
+        modelAgent.setModel( model );
+        return agent;
+    }
+
+    private ConcurrentLinkedQueue<Agent> pool( String name ) {
+        ConcurrentLinkedQueue<Agent> pool = m_pools.get( name );
+        if ( pool == null ) {
+            m_pools.putIfAbsent( name, new ConcurrentLinkedQueue<Agent>() );
+            pool = m_pools.get( name );
+        }
+        return pool;
+    }
+
+    private static Constructor<? extends Agent> resolve( String className ) {
+        Class<?> c;
+        try {
+            c = Class.forName( className );
+        }
+        catch ( ClassNotFoundException e ) {
+            try {
+                c = Class.forName( Agent.class.getPackage().getName() + "." + className );
+            }
+            catch ( ClassNotFoundException e2 ) {
+                throw new IllegalArgumentException( "Unknown agent class: " + className );
+            }
+        }
+        if ( !Agent.class.isAssignableFrom( c ) ) {
+            throw new IllegalArgumentException( className + " is not an Agent" );
+        }
+        Class<? extends Agent> agentClass = c.asSubclass( Agent.class );
+        try {
+            return agentClass.getConstructor( CardDeck.class, int.class, int.class, int.class, ModelStore.class );
+        }
+        catch ( NoSuchMethodException e ) {
+            // Not an agent that uses a model store.
+        }
+        try {
+            return agentClass.getConstructor( CardDeck.class, int.class, int.class, int.class );
+        }
+        catch ( NoSuchMethodException e ) {
+            throw new IllegalArgumentException( className + " has no (CardDeck, int, int, int) constructor" );
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
+import itml.learning.ModelPredictor;
+import itml.learning.ModelStore;
+import itml.learning.OpponentPredictor;
+import itml.learning.TrainedModel;
 import itml.simulator.CardDeck;
 import itml.simulator.GameLog;
+import itml.simulator.PayoffMatrix;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
 import weka.classifiers.Classifier;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.trees.J48;
-import weka.core.Instance;
 import weka.core.Instances;
 
 import java.lang.reflect.Array;
@@ -20,11 +24,13 @@ import java.util.List;
  * User: deong
  * Date: 9/28/14
  */
-public class AgentFresco extends Agent {
+public class AgentFresco extends Agent implements ModelAgent {
     private int m_noThisAgent;     // Index of our agent (0 or 1).
     private int m_noOpponentAgent; // Inex of opponent's agent.
     private Classifier classifier_;
-    private Instances dataset;
+    private TrainedModel m_model;  // Shared, read-only model (null until learned).
+    private OpponentPredictor m_predictor;  // Predicts the opponent's moves (from m_model, unless set otherwise).
+    private ModelStore m_store;     // Where models are loaded from and saved to.
     private Card lastPredict;
     private Card ourLastMove;
 
@@ -89,19 +95,25 @@ public class AgentFresco extends Agent {
     }
 
     /**
-     * Check if we are on the grid in current state
+     * Get the outcomes of all our moves against all moves of the opponent in a state
+     * (computed once per state, and shared by all the checks below).
      * @param sb state of the battle now
-     * @return true if we are out of bounds, false if we are still on the field
+     * @return the payoff matrix, our cards are the rows
      */
-    private boolean outOfBounds(StateBattle sb) {
-        StateAgent a = sb.getAgentState(m_noThisAgent);
-        int column = a.getCol();
-        int row = a.getRow();
-        if(column > 4 || row > 4 || column < 0 || row < 0) {
-            return true;
-        } else {
-            return false;
-        }
+    private PayoffMatrix payoffMatrix(StateBattle sb) {
+        return PayoffMatrix.of(sb, m_deck, m_noThisAgent, m_noOpponentAgent);
+    }
+
+    /**
+     * Find the column of the predicted opponent card. A card the opponent does not have
+     * the stamina for is played as resting.
+     * @param matrix the payoff matrix
+     * @param predictedCard the predicted opponent card
+     * @return the column
+     */
+    private int predictedColumn(PayoffMatrix matrix, Card predictedCard) {
+        int column = matrix.columnOf(predictedCard);
+        return (column >= 0) ? column : matrix.columnOf(StandardCard.REST.getCard());
     }
 
     /**
@@ -112,29 +124,20 @@ public class AgentFresco extends Agent {
      */
     private Card minimizeDistanceCard(ArrayList<Card> availableCards, StateBattle sb, Card predictedCard) {
         ArrayList<Card> safeZoneCards = new ArrayList<Card>();
-        StateAgent a = sb.getAgentState(m_noThisAgent);
-        Card [] move = new Card[2];
-        move[m_noOpponentAgent] = predictedCard;
-        int currentHealthPoints = a.getHealthPoints();
+        PayoffMatrix matrix = payoffMatrix(sb);
+        int column = predictedColumn(matrix, predictedCard);
         for (Card card : availableCards) {
-            StateBattle bs = (StateBattle) sb.clone();   // close the state, as play( ) modifies it.
-            move[m_noThisAgent] = card;
-            bs.play(move);
             // if this move  does not reduce our healthpoints we add to the list
-            int healthPointAfterMove = bs.getAgentState(m_noThisAgent).getHealthPoints();
-
-            if (currentHealthPoints == healthPointAfterMove && !outOfBounds(bs)) {
+            if (matrix.getMyHealthDelta(matrix.rowOf(card), column) == 0) {
                safeZoneCards.add(card);
             }
         }
         Card bestCard = safeZoneCards.get(0);
         int bestDistance = distanceBetweenAgents(sb);
         for(Card c : safeZoneCards){
-            move[m_noThisAgent] = c;
-            StateBattle bs2 = (StateBattle) sb.clone();   // close the state, as play( ) modifies it.
-            bs2.play(move);
-            if(distanceBetweenAgents(bs2) < bestDistance){
-                bestDistance = distanceBetweenAgents(bs2);
+            int distance = matrix.getDistance(matrix.rowOf(c), column);
+            if(distance < bestDistance){
+                bestDistance = distance;
                 bestCard = c;
             }
 
@@ -164,23 +167,15 @@ public class AgentFresco extends Agent {
      */
     private Card whichAttackToUse(ArrayList<Card> cards, StateAgent a, StateAgent o, StateBattle sb, Card predictedCard){
 
-        Card restCard = new CardRest();
-        Card [] move = new Card[2];
-        move[m_noOpponentAgent] = predictedCard;
+        Card restCard = StandardCard.REST.getCard();
+        PayoffMatrix matrix = payoffMatrix(sb);
+        int column = predictedColumn(matrix, predictedCard);
         ArrayList<Card> cardsThatHit = new ArrayList<Card>();
-        int currentOHealthpoints = o.getHealthPoints();
         for(Card c : cards){
 //            System.out.println("Attack card " + c.getName() + " Stamina required " + c.getStaminaPoints() + " Our stamina " +  a.getStaminaPoints());
-            StateBattle bs = (StateBattle) sb.clone();   // close the state, as play( ) modifies it.
-            move[m_noThisAgent] = c;
-            bs.play(move);
-            StateAgent opponentAfterMove = bs.getAgentState(m_noOpponentAgent);
-            // if attack will hit add it to the list
-            if(c.inAttackRange(bs.getAgentState(m_noThisAgent).getCol(),
-                               bs.getAgentState(m_noThisAgent).getRow(),
-                               bs.getAgentState(m_noOpponentAgent).getCol(),
-                               bs.getAgentState(m_noOpponentAgent).getRow())
-                               && currentOHealthpoints > bs.getAgentState(m_noOpponentAgent).getHealthPoints() ){
+            // if attack will hit add it to the list (only our attack can take the opponent's health,
+            // and attacks are resolved after the moves, so the opponent was in range where it ended up)
+            if(matrix.getOpponentHealthDelta(matrix.rowOf(c), column) < 0){
                 cardsThatHit.add(c);
             }
         }
@@ -207,14 +202,9 @@ public class AgentFresco extends Agent {
      * @return
      */
     private boolean opponentAttackWillHit(Card selected, StateBattle sb) {
-        StateBattle bs = (StateBattle) sb.clone();
-        Card ourMove = new CardRest();
-        Card [] move = new Card[2];
-        move[m_noThisAgent] = ourMove;
-        move[m_noOpponentAgent] = selected;
-        int aCurrHealthPoints = bs.getAgentState(m_noThisAgent).getHealthPoints();
-        bs.play(move);
-        if(aCurrHealthPoints > bs.getAgentState(m_noThisAgent).getHealthPoints()) {
+        PayoffMatrix matrix = payoffMatrix(sb);
+        Card ourMove = StandardCard.REST.getCard();
+        if(matrix.getMyHealthDelta(matrix.rowOf(ourMove), predictedColumn(matrix, selected)) < 0) {
             return true;
         } else {
             return false;
@@ -223,10 +213,20 @@ public class AgentFresco extends Agent {
     // endregion
 
     public AgentFresco( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
+        this(deck, msConstruct, msPerMove, msLearn, ModelStore.NONE);
+    }
+
+    public AgentFresco( CardDeck deck, int msConstruct, int msPerMove, int msLearn, ModelStore store ) {
         super(deck, msConstruct, msPerMove, msLearn);
+        m_store = store;
 //        classifier_ = new J48();
 //        classifier_ = new NaiveBayes();
         classifier_ = new J48();
+        // Reuse the model of an earlier run, if it was trained on the same deck, features and data.
+        TrainedModel snapshot = m_store.load(m_deck, classifier_);
+        if (snapshot != null) {
+            setModel(snapshot);
+        }
     }
 
     @Override
@@ -234,16 +234,17 @@ public class AgentFresco extends Agent {
         // Remember the indicies of the agents in the StateBattle.
         m_noThisAgent = noThisAgent;
         m_noOpponentAgent  = (noThisAgent == 0 ) ? 1 : 0; // can assume only 2 agents battling.
+        if (m_predictor != null) {
+            m_predictor.startGame(m_noOpponentAgent, m_noThisAgent);
+        }
     }
 
     @Override
     public void endGame(StateBattle stateBattle, double[] results) {
         //To change body of implemented methods use File | Settings | File Templates.
     }
-    public Card predictCard(double[] values, ArrayList<Card> allCards) throws Exception {
-        Instance i = new Instance(1.0, values.clone());
-        i.setDataset(dataset);
-        int out = (int)classifier_.classifyInstance(i);
+    public Card predictCard(StateBattle stateBattle, ArrayList<Card> allCards) throws Exception {
+        int out = m_predictor.predict(stateBattle);
         Card selected = allCards.get(out);
         return selected;
     }
@@ -251,23 +252,25 @@ public class AgentFresco extends Agent {
     @Override
     public Card act(StateBattle stateBattle) {
 
-        System.out.println();
-        System.out.println("************" + totalSteps + "*************");
-        System.out.println("Overall \t Total type correct");
-        System.out.println("" + totalCorrect + "\t" + totalSteps + "\t" + totalCorrectType + "\t" + totalSteps);
-        if (ourLastMove != null) {
-            System.out.println("ourLastMove.getName() = " + ourLastMove.getName());
+        if (!isQuiet()) {
+            System.out.println();
+            System.out.println("************" + totalSteps + "*************");
+            System.out.println("Overall \t Total type correct");
+            System.out.println("" + totalCorrect + "\t" + totalSteps + "\t" + totalCorrectType + "\t" + totalSteps);
+            if (ourLastMove != null) {
+                System.out.println("ourLastMove.getName() = " + ourLastMove.getName());
+            }
         }
 
-        StateBattle sb = (StateBattle) stateBattle.clone();   // close the state, as play( ) modifies it.
-        System.out.println();
-        double[] values = new double[8];
+        if (!isQuiet()) {
+            System.out.println();
+        }
         StateAgent a = stateBattle.getAgentState(m_noThisAgent);
         StateAgent o = stateBattle.getAgentState(m_noOpponentAgent);
 
         boolean foundOpponentCard = false;
         Card opponentCard = null;
-        for (Card c : sb.getLastMoves() ) {
+        for (Card c : stateBattle.getLastMoves() ) {
             if (c != null && ourLastMove != null && ourLastMove.getName() != c.getName()) {
                 foundOpponentCard = true;
                 opponentCard = c;
@@ -277,7 +280,7 @@ public class AgentFresco extends Agent {
             opponentCard = ourLastMove;
         }
 
-        if (opponentCard != null) {
+        if (opponentCard != null && !isQuiet()) {
             System.out.println("Enemy last move = " + opponentCard.getName());
         }
 
@@ -295,21 +298,21 @@ public class AgentFresco extends Agent {
             } else {
                 totalWrong++;
             }
-            System.out.println("OpponentCard: " + opponentCard.getName() + " " + opponentCard.getType().name() +
-                            " LastPredict: " + lastPredict.getName() + " " + lastPredict.getType().name());
+            if (!isQuiet()) {
+                System.out.println("OpponentCard: " + opponentCard.getName() + " " + opponentCard.getType().name() +
+                                " LastPredict: " + lastPredict.getName() + " " + lastPredict.getType().name());
+            }
         }
         totalSteps++;
 
 
-        values[0] = a.getCol();
-        values[1] = a.getRow();
-        values[2] = a.getHealthPoints();
-        values[3] = a.getStaminaPoints();
-        values[4] = o.getCol();
-        values[5] = o.getRow();
-        values[6] = o.getHealthPoints();
-        values[7] = o.getStaminaPoints();
-        System.out.println("AgentFresco : " + m_noThisAgent + " Looser : " + m_noOpponentAgent);
+        if (m_predictor == null) {
+            return StandardCard.REST.getCard(); // nothing learned, nothing to predict from
+        }
+        m_predictor.observe(stateBattle);
+        if (!isQuiet()) {
+            System.out.println("AgentFresco : " + m_noThisAgent + " Looser : " + m_noOpponentAgent);
+        }
         try {
             ArrayList<Card> allCards = m_deck.getCards(); // all cards
             ArrayList<Card> cards = m_deck.getCards(a.getStaminaPoints());// cards that we have stamina to use
@@ -329,12 +332,12 @@ public class AgentFresco extends Agent {
                 }
             }
             Card returnCard;
-            Card selected = predictCard(values, allCards);
+            Card selected = predictCard(stateBattle, allCards);
             lastPredict = selected;
             String ourGuess = selected.getName();
             // if the opponent does not have any stamina we attack him no matter what
             if(o.getStaminaPoints() < 1){
-                returnCard = whichAttackToUse(attackCards, a, o, sb, new CardRest());
+                returnCard = whichAttackToUse(attackCards, a, o, stateBattle, StandardCard.REST.getCard());
                 ourLastMove = returnCard;
                 return returnCard;
             }
@@ -342,45 +345,45 @@ public class AgentFresco extends Agent {
             // What to do if opponent attacks
             Card.CardActionType cardType = selected.getType();
             if (cardType.equals(Card.CardActionType.ctAttack)) {// Opponent about to attack
-                if(opponentAttackWillHit(selected, sb)) {
+                if(opponentAttackWillHit(selected, stateBattle)) {
                     // if we are stronger, attack
                     if (a.getStaminaPoints() > o.getStaminaPoints() && a.getHealthPoints() > o.getHealthPoints()) {
 //                        System.out.println("Attack because we have more HP");
-                        returnCard = whichAttackToUse(attackCards, a, o, sb, selected);
+                        returnCard = whichAttackToUse(attackCards, a, o, stateBattle, selected);
                         ourLastMove = returnCard;
                         return returnCard;
                     } else {
 //                        System.out.println("Dodge dip duck dive and dodge");
-//                        System.out.println(minimizeDistanceCard(moveCards, sb, selected).getName());
-                        returnCard = minimizeDistanceCard(moveCards, sb, selected); // DANCE, dodge the attack
+//                        System.out.println(minimizeDistanceCard(moveCards, stateBattle, selected).getName());
+                        returnCard = minimizeDistanceCard(moveCards, stateBattle, selected); // DANCE, dodge the attack
                         ourLastMove =  returnCard;
                         return returnCard;
                     }
                 } else {
 //                    System.out.println("Opponent missing his attack, attack him ");
-//                    System.out.println(whichAttackToUse(attackCards, a, o, sb, selected).getName());
-                    if(whichAttackToUse(attackCards, a, o, sb, selected).getName().equals("cRest")){
+//                    System.out.println(whichAttackToUse(attackCards, a, o, stateBattle, selected).getName());
+                    if(whichAttackToUse(attackCards, a, o, stateBattle, selected).getName().equals("cRest")){
 //                        System.out.println("if attack to use != rest");
-                        returnCard = minimizeDistanceCard(moveCards, sb, selected);
+                        returnCard = minimizeDistanceCard(moveCards, stateBattle, selected);
                         ourLastMove = returnCard;
                         return returnCard;
                     }
-                    returnCard = whichAttackToUse(attackCards, a, o, sb, selected);
+                    returnCard = whichAttackToUse(attackCards, a, o, stateBattle, selected);
                     ourLastMove = returnCard;
                     return returnCard;
                 }
                 // if opponent is defending
             } else if (cardType.equals(Card.CardActionType.ctDefend)) { // Opponent about to defend
-                if (a.getStaminaPoints() + new CardRest().getStaminaPoints() <= MAXIMUM_STAMINA ) {
-                    returnCard = new CardRest(); // if the agent benefits from resting, the agent rests
+                if (a.getStaminaPoints() + StandardCard.REST.getCard().getStaminaPoints() <= MAXIMUM_STAMINA ) {
+                    returnCard = StandardCard.REST.getCard(); // if the agent benefits from resting, the agent rests
                     ourLastMove = returnCard;
                     return returnCard;
                 } else if (selected.inAttackRange(a.getCol(), a.getRow(), o.getCol(), o.getRow())) {
-                    returnCard = whichAttackToUse(attackCards, a, o, sb, selected);
+                    returnCard = whichAttackToUse(attackCards, a, o, stateBattle, selected);
                     ourLastMove = returnCard;
                     return returnCard;
                 } else { // Move closer to the opponent
-                    returnCard = minimizeDistanceCard(cards, sb, selected); // return the best move card
+                    returnCard = minimizeDistanceCard(cards, stateBattle, selected); // return the best move card
                     ourLastMove = returnCard;
                     return returnCard;
                 }
@@ -388,25 +391,25 @@ public class AgentFresco extends Agent {
             } else if (cardType.equals(Card.CardActionType.ctMove)) { // Opponent about to move
                 if(selected.getName().equals("cRest")){
 //                    System.out.println("tessi if setning gaeti verid vitlaus");
-                    if(whichAttackToUse(attackCards, a, o, sb, selected).getName().equals("cRest")){
-//                        System.out.println("er tad ad skila okkur resT???" + minimizeDistanceCard(moveCards, sb, selected).getName());
-                        returnCard = minimizeDistanceCard(moveCards, sb, selected);
+                    if(whichAttackToUse(attackCards, a, o, stateBattle, selected).getName().equals("cRest")){
+//                        System.out.println("er tad ad skila okkur resT???" + minimizeDistanceCard(moveCards, stateBattle, selected).getName());
+                        returnCard = minimizeDistanceCard(moveCards, stateBattle, selected);
                         ourLastMove = returnCard;
                         return returnCard;
                     } else{
-                        returnCard = whichAttackToUse(attackCards, a, o, sb, selected);
+                        returnCard = whichAttackToUse(attackCards, a, o, stateBattle, selected);
                         ourLastMove = returnCard;
                         return returnCard;
                     }
 
                 } else {
                     //
-                    if(whichAttackToUse(attackCards, a, o, sb, selected).getName().equals("cRest")){
-                        returnCard = minimizeDistanceCard(moveCards, sb, selected);
+                    if(whichAttackToUse(attackCards, a, o, stateBattle, selected).getName().equals("cRest")){
+                        returnCard = minimizeDistanceCard(moveCards, stateBattle, selected);
                         ourLastMove = returnCard;
                         return returnCard;
                     }
-                    returnCard = whichAttackToUse(attackCards, a, o, sb, selected);
+                    returnCard = whichAttackToUse(attackCards, a, o, stateBattle, selected);
                     ourLastMove = returnCard;
                     return returnCard;
                 }
@@ -414,17 +417,36 @@ public class AgentFresco extends Agent {
         } catch (Exception e) {
             System.out.println("Error classifying new instance: " + e.toString());
         }
-        return new CardRest();  //To change body of implemented methods use File | Settings | File Templates.
+        return StandardCard.REST.getCard();  //To change body of implemented methods use File | Settings | File Templates.
     }
 
     @Override
     public Classifier learn(Instances instances) {
-        this.dataset = instances;
         try {
-            classifier_.buildClassifier(instances);
+            setModel(TrainedModel.build(classifier_, instances));
+            m_store.save(m_model, m_deck, classifier_);
         } catch(Exception e) {
             System.out.println("Error training classifier: " + e.toString());
         }
         return null;  //To change body of implemented methods use File | Settings | File Templates.
     }
+
+    @Override
+    public TrainedModel getModel() {
+        return m_model;
+    }
+
+    @Override
+    public void setModel(TrainedModel model) {
+        m_model = model;
+        m_predictor = new ModelPredictor(model, m_deck);
+    }
+
+    /**
+     * Use a different opponent predictor than the learned model, e.g. an NGramPredictor.
+     * @param predictor the predictor to use from now on
+     */
+    public void setPredictor(OpponentPredictor predictor) {
+        m_predictor = predictor;
+    }
 }
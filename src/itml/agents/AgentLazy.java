@@ -1,7 +1,7 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
 import itml.simulator.CardDeck;
 import itml.simulator.StateBattle;
 import weka.classifiers.Classifier;
@@ -18,7 +18,7 @@ import weka.core.Instances;
  * @version     %I%, %G%
  *
  */
-public class AgentLazy extends Agent {
+public class AgentLazy extends Agent implements MarkovianAgent {
 
     public AgentLazy( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
         super(deck, msConstruct, msPerMove, msLearn );
@@ -33,7 +33,17 @@ public class AgentLazy extends Agent {
     }
 
     public Card act( StateBattle stateBattle ) {
-        return new CardRest();
+        return StandardCard.REST.getCard();
+    }
+
+    public boolean isDeterministic() {
+        return true;   // Always rests.
+    }
+
+    public double[] getActionDistribution( StateBattle stateBattle ) {
+        double[] distribution = new double[m_deck.getCards().size() + 1];
+        distribution[m_deck.slotOf( act( stateBattle ) )] = 1.0;
+        return distribution;
     }
 
     public Classifier learn( Instances instances  ) {
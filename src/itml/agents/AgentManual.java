@@ -1,7 +1,7 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
 import itml.simulator.CardDeck;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
@@ -73,7 +73,7 @@ public class AgentManual extends Agent {
         } catch (IOException e) {
         }
 
-        return new CardRest();
+        return StandardCard.REST.getCard();
     }
 
 
@@ -1,6 +1,7 @@
 package itml.agents;
 
 import itml.cards.Card;
+import itml.cards.StandardCard;
 import itml.simulator.CardDeck;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
@@ -20,16 +21,20 @@ import java.util.Random;
  * @version     %I%, %G%
  *
  */
-public class AgentRandom extends Agent {
+public class AgentRandom extends Agent implements MarkovianAgent {
 
     private int m_noThisAgent;
 
-    static private Random m_random = new Random();  // A random number generator, for randomly picking actions.
+    private Random m_random = new Random();  // A random number generator, for randomly picking actions.
 
     public AgentRandom( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
         super(deck, msConstruct, msPerMove, msLearn );
     }
 
+    public void setSeed( long seed ) {
+        m_random.setSeed( seed );
+    }
+
     public void startGame(int noThisAgent, StateBattle stateBattle) {
         m_noThisAgent = noThisAgent;
     }
@@ -43,12 +48,27 @@ public class AgentRandom extends Agent {
         StateAgent stateAgent = stateBattle.getAgentState(m_noThisAgent);
 
         ArrayList<Card> cards = m_deck.getCards(stateAgent.getStaminaPoints());
-        System.out.println();
+        if ( cards.isEmpty() ) {
+            return StandardCard.REST.getCard();   // Nothing playable (a deck without a rest card).
+        }
         Card randomCard = cards.get(m_random.nextInt(cards.size()));
 //        System.out.println("Random move = " + randomCard.getName());
         return randomCard;
     }
 
+    public double[] getActionDistribution( StateBattle stateBattle ) {
+        // Every card playable with the agent's stamina is equally likely (resting if there is none).
+        double[] distribution = new double[m_deck.getCards().size() + 1];
+        ArrayList<Card> cards = m_deck.getCards( stateBattle.getAgentState( m_noThisAgent ).getStaminaPoints() );
+        if ( cards.isEmpty() ) {
+            distribution[m_deck.slotOf( StandardCard.REST.getCard() )] = 1.0;
+        }
+        for ( Card card : cards ) {
+            distribution[m_deck.indexOf( card )] += 1.0 / cards.size();
+        }
+        return distribution;
+    }
+
     public Classifier learn( Instances instances ) {
         // No learning.
         return null;
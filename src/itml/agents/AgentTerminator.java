@@ -1,7 +1,7 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
 import itml.simulator.CardDeck;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
@@ -9,6 +9,7 @@ import weka.classifiers.Classifier;
 import weka.core.Instances;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  *
@@ -23,7 +24,7 @@ import java.util.ArrayList;
  *
  */
 
-public class AgentTerminator extends Agent {
+public class AgentTerminator extends Agent implements MarkovianAgent {
 
     private int m_noThisAgent;     // Index of our agent (0 or 1).
     private int m_noOpponentAgent; // Inex of opponent's agent.
@@ -35,7 +36,7 @@ public class AgentTerminator extends Agent {
     public void startGame(int noThisAgent, StateBattle stateBattle) {
         // Remember the indicies of the agents in the StateBattle.
         m_noThisAgent = noThisAgent;
-        m_noOpponentAgent  = (noThisAgent == 0 ) ? 1 : 0; // can assume only 2 agents battling.
+        m_noOpponentAgent  = stateBattle.getNearestOpponent( noThisAgent ); // the other agent, if only 2 agents battling.
     }
 
     public void endGame(StateBattle stateBattle, double[] results) {
@@ -45,6 +46,8 @@ public class AgentTerminator extends Agent {
     public Card act(StateBattle stateBattle) {
 //        AgentFresco agentFresco = new AgentFresco(m_deck, m_msConstruct, m_msPerMove, m_msLearn);
 
+        // In a free-for-all, go after whoever is closest.
+        m_noOpponentAgent = stateBattle.getNearestOpponent( m_noThisAgent );
         StateAgent asThis = stateBattle.getAgentState( m_noThisAgent );
         StateAgent asOpp  = stateBattle.getAgentState( m_noOpponentAgent );
 
@@ -61,10 +64,10 @@ public class AgentTerminator extends Agent {
         }
 
         // If we cannot attack, then try to move closer to the agent.
-        Card [] move = new Card[2];
-        move[m_noOpponentAgent] = new CardRest();
+        Card [] move = new Card[stateBattle.getNumAgents()];
+        Arrays.fill( move, StandardCard.REST.getCard() );
 
-        Card bestCard = new CardRest();
+        Card bestCard = StandardCard.REST.getCard();
         int  bestDistance = calcDistanceBetweenAgents( stateBattle );
 
         // ... otherwise move closer to the opponent.
@@ -82,6 +85,16 @@ public class AgentTerminator extends Agent {
         return bestCard;
     }
 
+    public boolean isDeterministic() {
+        return true;   // The move only depends on the locations and stamina of the agents.
+    }
+
+    public double[] getActionDistribution( StateBattle stateBattle ) {
+        double[] distribution = new double[m_deck.getCards().size() + 1];
+        distribution[m_deck.slotOf( act( stateBattle ) )] = 1.0;
+        return distribution;
+    }
+
     public Classifier learn( Instances instances ) {
         // No learning.
         return null;
@@ -89,8 +102,8 @@ public class AgentTerminator extends Agent {
 
     private int calcDistanceBetweenAgents( StateBattle bs ) {
 
-        StateAgent asFirst = bs.getAgentState( 0 );
-        StateAgent asSecond = bs.getAgentState( 1 );
+        StateAgent asFirst = bs.getAgentState( m_noThisAgent );
+        StateAgent asSecond = bs.getAgentState( m_noOpponentAgent );
 
         return Math.abs( asFirst.getCol() - asSecond.getCol() ) + Math.abs( asFirst.getRow() - asSecond.getRow() );
     }
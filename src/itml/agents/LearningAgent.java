@@ -1,13 +1,16 @@
 package itml.agents;
 
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
+import itml.learning.FeaturePipeline;
+import itml.learning.ModelStore;
+import itml.learning.MoveHistory;
+import itml.learning.TrainedModel;
 import itml.simulator.CardDeck;
 import itml.simulator.StateAgent;
 import itml.simulator.StateBattle;
 import weka.classifiers.Classifier;
 import weka.classifiers.trees.J48;
-import weka.core.Instance;
 import weka.core.Instances;
 
 import java.util.ArrayList;
@@ -16,15 +19,27 @@ import java.util.ArrayList;
  * User: deong
  * Date: 9/28/14
  */
-public class LearningAgent extends Agent {
+public class LearningAgent extends Agent implements ModelAgent {
 	private int m_noThisAgent;     // Index of our agent (0 or 1).
 	private int m_noOpponentAgent; // Index of opponent's agent.
 	private Classifier classifier_;
-	private Instances dataset;
+	private TrainedModel m_model;  // Shared, read-only model (null until learned).
+	private FeaturePipeline m_pipeline;  // Features the model was trained on.
+	private MoveHistory m_history;       // Our own moves this game.
+	private ModelStore m_store;          // Where models are loaded from and saved to.
 
 	public LearningAgent( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
+		this(deck, msConstruct, msPerMove, msLearn, ModelStore.NONE);
+	}
+
+	public LearningAgent( CardDeck deck, int msConstruct, int msPerMove, int msLearn, ModelStore store ) {
 		super(deck, msConstruct, msPerMove, msLearn);
 		classifier_ = new J48();
+		m_store = store;
+		TrainedModel snapshot = m_store.load(m_deck, classifier_);
+		if (snapshot != null) {
+			setModel(snapshot);
+		}
 	}
 
 	@Override
@@ -32,6 +47,9 @@ public class LearningAgent extends Agent {
 		// Remember the indicies of the agents in the StateBattle.
 		m_noThisAgent = noThisAgent;
 		m_noOpponentAgent  = (noThisAgent == 0 ) ? 1 : 0; // can assume only 2 agents battling.
+		if (m_history != null) {
+			m_history.clear();
+		}
 	}
 
 	@Override
@@ -41,23 +59,15 @@ public class LearningAgent extends Agent {
 
 	@Override
 	public Card act(StateBattle stateBattle) {
-		double[] values = new double[8];
-		StateAgent a = stateBattle.getAgentState(0);
-		StateAgent o = stateBattle.getAgentState(1);
-		values[0] = a.getCol();
-		values[1] = a.getRow();
-		values[2] = a.getHealthPoints();
-		values[3] = a.getStaminaPoints();
-		values[4] = o.getCol();
-		values[5] = o.getRow();
-		values[6] = o.getHealthPoints();
-		values[7] = o.getStaminaPoints();
+		// Play what the modelled agent would do in our position.
+		StateAgent a = stateBattle.getAgentState(m_noThisAgent);
 		try {
+			m_history.observe(stateBattle, m_noThisAgent, m_deck);
+			int[] values = new int[m_pipeline.numFeatures()];
+			m_pipeline.extract(stateBattle, m_noThisAgent, m_noOpponentAgent, m_history, values);
 			ArrayList<Card> allCards = m_deck.getCards();
 			ArrayList<Card> cards = m_deck.getCards(a.getStaminaPoints());
-			Instance i = new Instance(1.0, values.clone());
-			i.setDataset(dataset);
-			int out = (int)classifier_.classifyInstance(i);
+			int out = m_model.classify(values);
 			Card selected = allCards.get(out);
 			if(cards.contains(selected)) {
 				return selected;
@@ -65,17 +75,35 @@ public class LearningAgent extends Agent {
 		} catch (Exception e) {
 			System.out.println("Error classifying new instance: " + e.toString());
 		}
-		return new CardRest();  //To change body of implemented methods use File | Settings | File Templates.
+		return StandardCard.REST.getCard();  //To change body of implemented methods use File | Settings | File Templates.
 	}
 
 	@Override
 	public Classifier learn(Instances instances) {
-		this.dataset = instances;
 		try {
-			classifier_.buildClassifier(instances);
+			setModel(TrainedModel.build(classifier_, instances));
+			m_store.save(m_model, m_deck, classifier_);
 		} catch(Exception e) {
 			System.out.println("Error training classifier: " + e.toString());
 		}
 		return null;  //To change body of implemented methods use File | Settings | File Templates.
 	}
+
+	@Override
+	public boolean isDeterministic() {
+		// The model is a fixed function of the features, so without history features the move only depends on the position.
+		return m_pipeline != null && m_pipeline.getHistoryLength() == 0;
+	}
+
+	@Override
+	public TrainedModel getModel() {
+		return m_model;
+	}
+
+	@Override
+	public void setModel(TrainedModel model) {
+		m_pipeline = FeaturePipeline.fromHeader(model.getHeader(), m_deck);
+		m_history = m_pipeline.createHistory();
+		m_model = model;
+	}
 }
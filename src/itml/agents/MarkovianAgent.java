@@ -0,0 +1,31 @@
+package itml.agents;
+
+import itml.simulator.StateBattle;
+
+/**
+ *
+ *  This interface is implemented by agents whose moves follow a fixed probability distribution for each
+ *  state: once <code>startGame</code> has been called, the chance of playing each card only depends on
+ *  the locations, stamina and health of the agents (not on the step number, the last moves, earlier
+ *  states, the start state, or anything the agent learns during the game), and on the agent's own index.
+ *
+ *  Games between such agents are Markov chains, so their expected outcome can be computed exactly
+ *  instead of sampled (see <code>ExactEvaluator</code>).
+ *
+ * @version     %I%, %G%
+ *
+ */
+public interface MarkovianAgent {
+
+    /**
+     * Get the probability of each card being played in a state.
+     *
+     * @param  stateBattle   The state (as it would be passed to <code>act</code>).
+     *
+     * @return  Probability of each card of the deck, by its index in the deck, followed by the probability of
+     *          playing a card that is not in the deck, which is played as resting (e.g. <code>StandardCard.REST</code>
+     *          with a deck that has no rest card); see <code>CardDeck.slotOf</code>. The probabilities add up to 1.
+     *
+     */
+    double[] getActionDistribution( StateBattle stateBattle );
+}
@@ -0,0 +1,34 @@
+package itml.agents;
+
+import itml.learning.TrainedModel;
+
+/**
+ *
+ *  This interface is implemented by agents that play from a trained opponent model. The model is
+ *  separate from the agent's per-game state, so one model can be shared by many agent instances.
+ *  An agent that saves and reloads its model should have a constructor that takes the
+ *  <code>ModelStore</code> to use, as well as the usual arguments (see <code>AgentFactory</code>).
+ *
+ * @version     %I%, %G%
+ *
+ */
+public interface ModelAgent {
+
+    /**
+     *
+     * Get the model the agent plays from.
+     *
+     * @return  The trained model, or <code>null</code> if the agent has not learned yet.
+     *
+     */
+    TrainedModel getModel();
+
+    /**
+     *
+     * Set the model the agent plays from (instead of learning one).
+     *
+     * @param  model   A trained model, possibly shared with other agents.
+     *
+     */
+    void setModel( TrainedModel model );
+}
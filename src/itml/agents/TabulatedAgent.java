@@ -0,0 +1,97 @@
+package itml.agents;
+
+import itml.cards.Card;
+import itml.cards.StandardCard;
+import itml.simulator.CardDeck;
+import itml.simulator.PolicyTable;
+import itml.simulator.StateBattle;
+import weka.classifiers.Classifier;
+import weka.core.Instances;
+
+/**
+ *
+ *  This agent plays the moves of another agent from a table made by <code>PolicyCompiler</code>, so each
+ *  move is a single lookup however expensive the original agent is.
+ *
+ *  Agents created by an <code>AgentFactory</code> get their table from a <code>policy.&lt;alias&gt;</code>
+ *  configuration key (see <code>AgentFactory.registerPolicy</code>). In positions that are not in the
+ *  table, which are not reachable from the start states it was made for, the agent rests.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class TabulatedAgent extends Agent implements MarkovianAgent {
+
+    private PolicyTable m_table;        // Shared, read-only table (null if none is set).
+    private int         m_noThisAgent;  // Index of our agent (0 or 1).
+    private int         m_numMisses;    // Moves asked for in positions not in the table.
+
+    public TabulatedAgent( CardDeck deck, int msConstruct, int msPerMove, int msLearn ) {
+        super( deck, msConstruct, msPerMove, msLearn );
+    }
+
+    /**
+     *
+     * Set the table the agent plays from.
+     *
+     * @param  table   The table (made with the same deck).
+     *
+     * @throws IllegalArgumentException  if the table was made with another deck.
+     *
+     */
+    public void setTable( PolicyTable table ) {
+        if ( !table.getDeckFingerprint().equals( m_deck.fingerprint() ) ) {
+            throw new IllegalArgumentException( "The policy table was made with another deck" );
+        }
+        m_table = table;
+    }
+
+    /**
+     *
+     * Get the number of moves asked for in positions that are not in the table (played as resting).
+     *
+     * @return  Number of moves.
+     *
+     */
+    public int getNumMisses() {
+        return m_numMisses;
+    }
+
+    public void startGame( int noThisAgent, StateBattle stateBattle ) {
+        m_noThisAgent = noThisAgent;
+    }
+
+    public void endGame( StateBattle stateBattle, double[] results ) {
+        // Nothing to do.
+    }
+
+    public Card act( StateBattle stateBattle ) {
+        Card card = lookup( stateBattle );
+        if ( card == null ) {
+            m_numMisses++;
+            return StandardCard.REST.getCard();
+        }
+        return card;
+    }
+
+    // The card of the table for a state, or null if the state is not in it.
+    private Card lookup( StateBattle stateBattle ) {
+        return (m_table != null) ? m_table.lookup( m_deck, m_noThisAgent, stateBattle ) : null;
+    }
+
+    public boolean isDeterministic() {
+        return true;   // The move only depends on the position of the agents.
+    }
+
+    public double[] getActionDistribution( StateBattle stateBattle ) {
+        double[] distribution = new double[m_deck.getCards().size() + 1];
+        Card card = lookup( stateBattle );   // Not act, so probing does not count as misses.
+        distribution[m_deck.slotOf( (card != null) ? card : StandardCard.REST.getCard() )] = 1.0;
+        return distribution;
+    }
+
+    public Classifier learn( Instances instances ) {
+        // No learning; the table is made offline.
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package itml.cards;
 
 import itml.simulator.Coordinate;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
@@ -30,6 +31,10 @@ public class Card {
 
     public enum CardActionType { ctMove, ctDefend, ctAttack }
 
+    public static final int RANGE_RADIUS = 3;   // Offsets up to this far are looked up in a bitmask.
+
+    private static final int RANGE_WIDTH = 2 * RANGE_RADIUS + 1;
+
     private String m_name;
     private CardActionType m_type;
     private int m_col;
@@ -38,6 +43,8 @@ public class Card {
     private int m_hitPoints;
     private int m_defencePoints;
     private Coordinate [] m_range;
+    private long m_rangeMask;           // Bit per offset within RANGE_RADIUS, set if the attack affects it.
+    private boolean m_isRangeInMask;    // False if some offset is beyond RANGE_RADIUS.
 
      /**
      *
@@ -50,7 +57,7 @@ public class Card {
      * @param  staminaPoints  Change in staminaPoints
      * @param  hitPoints      Change to health.
      * @param  defencePoints  Defence against opponent's hitpoints.
-     * @param  range          Relative coordinate the card's attack affects.
+     * @param  range          Relative coordinate the card's attack affects (a coordinate listed twice is kept once).
      *
      */
     protected Card( String name, CardActionType type,
@@ -62,7 +69,42 @@ public class Card {
         m_staminaPoints = staminaPoints;
         m_hitPoints = hitPoints;
         m_defencePoints = defencePoints;
-        m_range = range;
+        m_range = distinct( range );
+        m_isRangeInMask = true;
+        if ( m_range != null ) {
+            for ( Coordinate co : m_range ) {
+                if ( Math.abs( co.getX() ) > RANGE_RADIUS || Math.abs( co.getY() ) > RANGE_RADIUS ) {
+                    m_isRangeInMask = false;
+                    break;
+                }
+                m_rangeMask |= 1L << rangeBit( co.getX(), co.getY() );
+            }
+        }
+    }
+
+    // The coordinates of a range, each once: an attack hits a square once, however often it is listed.
+    private static Coordinate[] distinct( Coordinate[] range ) {
+        if ( range == null ) {
+            return null;
+        }
+        ArrayList<Coordinate> coordinates = new ArrayList<Coordinate>();
+        for ( Coordinate co : range ) {
+            boolean isListed = false;
+            for ( Coordinate other : coordinates ) {
+                if ( other.getX() == co.getX() && other.getY() == co.getY() ) {
+                    isListed = true;
+                    break;
+                }
+            }
+            if ( !isListed ) {
+                coordinates.add( co );
+            }
+        }
+        return (coordinates.size() == range.length) ? range : coordinates.toArray( new Coordinate[coordinates.size()] );
+    }
+
+    private static int rangeBit( int dx, int dy ) {
+        return (dy + RANGE_RADIUS) * RANGE_WIDTH + (dx + RANGE_RADIUS);
     }
 
     @Override
@@ -156,6 +198,18 @@ public class Card {
         return m_defencePoints;
     }
 
+    /**
+     *
+     * Get the relative coordinates the card's attack affects.
+     * The array is shared and must not be modified.
+     *
+     * @return  Array of <code>Coordinate</code>, or <code>null</code> if the card does not attack.
+     *
+     */
+    public Coordinate[] getRange() {
+        return m_range;
+    }
+
     /**
      *
      * Check whether a particular square is within the attack range of the card.
@@ -170,6 +224,12 @@ public class Card {
      */
     public boolean inAttackRange( int colA, int rowA, int colOA, int rowOA ) {
 
+        if ( m_isRangeInMask ) {
+            int dx = colOA - colA;
+            int dy = rowOA - rowA;
+            return Math.abs( dx ) <= RANGE_RADIUS && Math.abs( dy ) <= RANGE_RADIUS
+                && (m_rangeMask & (1L << rangeBit( dx, dy ))) != 0;
+        }
         for ( Coordinate co : m_range ) {
             if ( ((colA + co.getX()) == colOA) && (( rowA + co.getY()) == rowOA) ) {
                 return true;
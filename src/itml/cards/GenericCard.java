@@ -0,0 +1,33 @@
+package itml.cards;
+
+import itml.simulator.Coordinate;
+
+/**
+ *
+ *  This class implements a Card defined by data rather than by a subclass of its own, e.g. a card
+ *  read from a deck specification (see <code>CardDeckLoader</code>).
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class GenericCard extends Card {
+
+    /**
+     *
+     * Constructor, create a card.
+     *
+     * @param  name           Name of card.
+     * @param  type           Type of card.
+     * @param  col            Relative column movement
+     * @param  row            Relative row movement
+     * @param  staminaPoints  Change in staminaPoints
+     * @param  hitPoints      Change to health.
+     * @param  defencePoints  Defence against opponent's hitpoints.
+     * @param  range          Relative coordinate the card's attack affects (<code>null</code> if none).
+     *
+     */
+    public GenericCard( String name, CardActionType type,
+                        int col, int row, int staminaPoints, int hitPoints, int defencePoints, Coordinate[] range ) {
+        super( name, type, col, row, staminaPoints, hitPoints, defencePoints, range );
+    }
+}
@@ -0,0 +1,67 @@
+package itml.cards;
+
+import java.util.HashMap;
+
+/**
+ *
+ *  This enum provides the standard cards, each as a single shared instance.
+ *
+ *  Cards are immutable, so there is no need for more than one instance of each. Decks built from
+ *  these instances (see <code>BattleSim</code>) let agents and the simulator compare cards with
+ *  <code>==</code>, and return a card without allocating one, e.g. <code>StandardCard.REST.getCard()</code>.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public enum StandardCard {
+
+    REST            ( new CardRest() ),
+    MOVE_UP         ( new CardMoveUp() ),
+    MOVE_DOWN       ( new CardMoveDown() ),
+    MOVE_LEFT       ( new CardMoveLeft() ),
+    MOVE_RIGHT      ( new CardMoveRight() ),
+    LEAP_LEFT       ( new CardLeapLeft() ),
+    LEAP_RIGHT      ( new CardLeapRight() ),
+    DEFEND          ( new CardDefend() ),
+    ATTACK_CARDINAL ( new CardAttackCardinal() ),
+    ATTACK_DIAGONAL ( new CardAttackDiagonal() ),
+    ATTACK_LONG     ( new CardAttackLong() );
+
+    private static final HashMap<String, StandardCard> s_byName = new HashMap<String, StandardCard>();
+
+    static {
+        for ( StandardCard standard : values() ) {
+            s_byName.put( standard.m_card.getName(), standard );
+        }
+    }
+
+    private final Card m_card;
+
+    StandardCard( Card card ) {
+        m_card = card;
+    }
+
+    /**
+     *
+     * Get the card.
+     *
+     * @return  The shared instance of the card.
+     *
+     */
+    public Card getCard() {
+        return m_card;
+    }
+
+    /**
+     *
+     * Find a standard card by the name of its card, e.g. "cRest".
+     *
+     * @param  name   Name of the card.
+     *
+     * @return  The standard card, or <code>null</code> if there is none with that name.
+     *
+     */
+    public static StandardCard forName( String name ) {
+        return s_byName.get( name );
+    }
+}
@@ -0,0 +1,243 @@
+package itml.learning;
+
+import itml.simulator.CardDeck;
+import itml.simulator.GameLog;
+import itml.simulator.StateBattle;
+import itml.util.BoundedQueue;
+import weka.core.Instances;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ *  This class provides the type AsyncArffWriter, which writes ARFF files on a thread of its own, so
+ *  that playing games never waits for the disk.
+ *
+ *  Threads playing games hand over each finished <code>GameLog</code> (or a whole dataset) through a
+ *  bounded lock-free queue. The writer thread computes the feature rows of a log with the pipeline,
+ *  encodes them into a large buffer, and writes the buffer out with a single channel write when it is
+ *  full or when the queue runs dry. If the writer falls behind, the queue fills up and submitting
+ *  waits, so memory use is bounded by the capacity of the queue.
+ *
+ *  A log (or dataset) belongs to the writer once submitted, and must not be used or modified afterwards.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class AsyncArffWriter {
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private static final int  BUFFER_SIZE = 1 << 20;
+    private static final long IDLE_NANOS  = 1000000L;   // How long the writer waits for an empty queue to fill.
+
+    private final FeaturePipeline          m_pipeline;
+    private final Instances                m_header;
+    private final BoundedQueue<Batch>      m_queue;
+    private final FileChannel              m_channel;
+    private final ByteBuffer               m_buffer = ByteBuffer.allocateDirect( BUFFER_SIZE );
+    private final Thread                   m_thread;
+    private volatile boolean               m_isClosed;
+    private volatile IOException           m_error;
+
+    /**
+     *
+     * Constructor, create the file, write the ARFF header, and start the writer thread.
+     *
+     * @param  file       The ARFF file.
+     * @param  pipeline   The features to compute for each logged state.
+     * @param  capacity   The maximum number of logs waiting to be written.
+     *
+     * @throws IOException  if the file cannot be created.
+     *
+     */
+    public AsyncArffWriter( File file, FeaturePipeline pipeline, int capacity ) throws IOException {
+        m_pipeline = pipeline;
+        m_header = pipeline.createInstances();
+        m_queue = new BoundedQueue<Batch>( capacity );
+        m_channel = new FileOutputStream( file ).getChannel();
+        encode( m_header.toString() );   // The header, ending with the @data line.
+        m_thread = new Thread( new Runnable() {
+            public void run() {
+                drain();
+            }
+        }, "arff-writer-" + file.getName() );
+        m_thread.start();
+    }
+
+    /**
+     *
+     * Hand over a finished game, to be written as one row per move of an agent.
+     * Waits while the queue is full.
+     *
+     * @param  log       The game log (must not be used afterwards).
+     * @param  subject   Index of the agent whose moves are the class.
+     * @param  other     Index of the agent it played against.
+     *
+     */
+    public void submit( GameLog log, int subject, int other ) {
+        put( new Batch( log, subject, other, null ) );
+    }
+
+    /**
+     *
+     * Hand over a dataset with the attributes of the pipeline, to be written row by row.
+     * Waits while the queue is full.
+     *
+     * @param  dataset   The dataset (must not be modified afterwards).
+     *
+     */
+    public void submit( ColumnarDataset dataset ) {
+        put( new Batch( null, 0, 0, dataset ) );
+    }
+
+    /**
+     *
+     * Write everything submitted so far, stop the writer thread and close the file.
+     *
+     * @throws IOException  if any write failed.
+     *
+     */
+    public void close() throws IOException {
+        m_isClosed = true;
+        LockSupport.unpark( m_thread );
+        boolean isInterrupted = false;
+        while ( m_thread.isAlive() ) {
+            try {
+                m_thread.join();
+            }
+            catch ( InterruptedException e ) {
+                isInterrupted = true;
+            }
+        }
+        if ( isInterrupted ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( m_error != null ) {
+            throw m_error;
+        }
+    }
+
+    private void put( Batch batch ) {
+        if ( m_isClosed ) {
+            throw new IllegalStateException( "Writer is closed" );
+        }
+        m_queue.put( batch );
+    }
+
+    // The writer thread: encode batches as they arrive, flush whenever there is nothing to do.
+    private void drain() {
+        MoveHistory history = m_pipeline.createHistory();
+        int[] values = new int[m_header.numAttributes()];
+        StringBuilder line = new StringBuilder();
+        try {
+            while ( true ) {
+                Batch batch = m_queue.poll();
+                if ( batch == null ) {
+                    flush();
+                    if ( m_isClosed && m_queue.size() == 0 ) {
+                        break;
+                    }
+                    LockSupport.parkNanos( IDLE_NANOS );
+                }
+                else if ( batch.m_log != null ) {
+                    writeLog( batch, history, values, line );
+                }
+                else {
+                    for ( int r=0; r<batch.m_dataset.numRows(); ++r ) {
+                        batch.m_dataset.getRow( r, values );
+                        writeRow( values, batch.m_dataset.getWeight( r ), line );
+                    }
+                }
+            }
+        }
+        catch ( IOException e ) {
+            m_error = e;
+            // Keep taking batches, so that submitting threads are not blocked forever.
+            while ( !m_isClosed || m_queue.size() > 0 ) {
+                if ( m_queue.poll() == null ) {
+                    LockSupport.parkNanos( IDLE_NANOS );
+                }
+            }
+        }
+        finally {
+            try {
+                m_channel.close();
+            }
+            catch ( IOException e ) {
+                if ( m_error == null ) {
+                    m_error = e;
+                }
+            }
+        }
+    }
+
+    private void writeLog( Batch batch, MoveHistory history, int[] values, StringBuilder line ) throws IOException {
+        // The move played in a state is found in the next state of the log.
+        CardDeck deck = m_pipeline.getDeck();
+        int classIndex = m_pipeline.numFeatures();
+        StateBattle prev = null;
+        history.clear();
+        for ( StateBattle bs : batch.m_log.getLog() ) {
+            if ( prev != null ) {
+                m_pipeline.extract( prev, batch.m_subject, batch.m_other, history, values );
+                values[classIndex] = deck.indexOf( bs.getLastMoves()[batch.m_subject] );
+                writeRow( values, 1, line );
+            }
+            history.observe( bs, batch.m_subject, deck );
+            prev = bs;
+        }
+    }
+
+    private void writeRow( int[] values, int weight, StringBuilder line ) throws IOException {
+        line.setLength( 0 );
+        ColumnarDataset.appendRow( line, m_header, values, ',' );
+        if ( weight != 1 ) {
+            line.insert( line.length() - 1, " {" + weight + "}" );   // ARFF instance weight.
+        }
+        encode( line );
+    }
+
+    // ARFF rows and headers written here are plain ASCII, so each char is one byte.
+    private void encode( CharSequence text ) throws IOException {
+        for ( int i=0; i<text.length(); ++i ) {
+            if ( !m_buffer.hasRemaining() ) {
+                flush();
+            }
+            m_buffer.put( (byte) text.charAt( i ) );
+        }
+    }
+
+    private void flush() throws IOException {
+        m_buffer.flip();
+        while ( m_buffer.hasRemaining() ) {
+            m_channel.write( m_buffer );
+        }
+        m_buffer.clear();
+    }
+
+    /**
+     *
+     *  A unit of work for the writer thread: a game log, or a dataset.
+     *
+     */
+    private static class Batch {
+
+        final GameLog         m_log;
+        final int             m_subject;
+        final int             m_other;
+        final ColumnarDataset m_dataset;
+
+        Batch( GameLog log, int subject, int other, ColumnarDataset dataset ) {
+            m_log = log;
+            m_subject = subject;
+            m_other = other;
+            m_dataset = dataset;
+        }
+    }
+}
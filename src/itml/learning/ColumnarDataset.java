@@ -0,0 +1,502 @@
+package itml.learning;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ *
+ *  This class provides the type ColumnarDataset, a compact in-memory store for generated training data.
+ *
+ *  Values are kept column by column in growable primitive arrays, one per attribute. All attributes
+ *  are small integers (locations, health, stamina, card index), so a column starts out as a
+ *  <code>byte[]</code>, and is only widened to an <code>int[]</code> if a value does not fit.
+ *  A row of the default nine attributes thus takes nine bytes, instead of a WEKA <code>Instance</code>
+ *  with its own <code>double[]</code>. Nominal attributes store the index of the value.
+ *
+ *  The data is converted to WEKA <code>Instances</code> only when a learner asks for it, and can be
+ *  exported straight to ARFF or CSV, or saved and read back in a compact binary form.
+ *
+ *  Rows can be grouped into games (see <code>endGame</code>), so that a dataset can later be cut back to
+ *  its first games, or extended with more.
+ *
+ *  Rows can have integer weights, e.g. the number of identical rows a row stands for after
+ *  deduplication (see <code>InstanceDeduplicator</code>). They become the weights of the WEKA instances.
+ *  The weights are only stored once a row has a weight other than 1.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class ColumnarDataset {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Instances m_header;      // Attribute structure (no data).
+    private final Column[]  m_columns;
+    private int             m_numRows;
+    private int[]           m_gameEnds = new int[16];   // Row after the last row of each game.
+    private int             m_numGames;
+    private Instances       m_instances;   // Cached conversion, dropped whenever rows are added.
+    private int[]           m_weights;     // Weight of each row, or null while every row has weight 1.
+
+    /**
+     *
+     * Constructor, create an empty dataset.
+     *
+     * @param  header   Instances defining the attributes (any data in it is ignored).
+     *
+     */
+    public ColumnarDataset( Instances header ) {
+        m_header = new Instances( header, 0 );
+        m_columns = new Column[m_header.numAttributes()];
+        for ( int i=0; i<m_columns.length; ++i ) {
+            m_columns[i] = new Column();
+        }
+    }
+
+    /**
+     *
+     * Get the attribute structure of the dataset.
+     *
+     * @return  <code>Instances</code> without data.
+     *
+     */
+    public Instances getHeader() {
+        return m_header;
+    }
+
+    /**
+     *
+     * Get the number of rows.
+     *
+     * @return  An integer representing the number of rows.
+     *
+     */
+    public int numRows() {
+        return m_numRows;
+    }
+
+    /**
+     *
+     * Get the number of attributes (columns).
+     *
+     * @return  An integer representing the number of attributes.
+     *
+     */
+    public int numAttributes() {
+        return m_columns.length;
+    }
+
+    /**
+     *
+     * Add a row.
+     *
+     * @param  values   One integer value per attribute (index of value for nominal attributes).
+     *
+     */
+    public void add( int[] values ) {
+        add( values, 1 );
+    }
+
+    /**
+     *
+     * Add a row with a weight.
+     *
+     * @param  values   One integer value per attribute (index of value for nominal attributes).
+     * @param  weight   Weight of the row (e.g. the number of identical rows it stands for).
+     *
+     */
+    public void add( int[] values, int weight ) {
+        for ( int i=0; i<m_columns.length; ++i ) {
+            m_columns[i].set( m_numRows, values[i] );
+        }
+        if ( weight != 1 && m_weights == null ) {
+            m_weights = new int[Math.max( INITIAL_CAPACITY, 2 * m_numRows )];
+            Arrays.fill( m_weights, 0, m_numRows, 1 );
+        }
+        if ( m_weights != null ) {
+            if ( m_numRows == m_weights.length ) {
+                m_weights = Arrays.copyOf( m_weights, 2 * m_numRows );
+            }
+            m_weights[m_numRows] = weight;
+        }
+        m_numRows++;
+        m_instances = null;
+    }
+
+    /**
+     *
+     * Add all rows of another dataset with the same attributes, together with its games.
+     *
+     * @param  other   The dataset to append.
+     *
+     */
+    public void addAll( ColumnarDataset other ) {
+        int offset = m_numRows;
+        int[] values = new int[m_columns.length];
+        for ( int r=0; r<other.numRows(); ++r ) {
+            other.getRow( r, values );
+            add( values, other.getWeight( r ) );
+        }
+        for ( int g=0; g<other.m_numGames; ++g ) {
+            addGameEnd( offset + other.m_gameEnds[g] );
+        }
+    }
+
+    /**
+     *
+     * Mark the end of a game: the rows added since the previous call belong to one game.
+     *
+     */
+    public void endGame() {
+        addGameEnd( m_numRows );
+    }
+
+    /**
+     *
+     * Get the number of games.
+     *
+     * @return  An integer representing the number of games ended with <code>endGame</code>.
+     *
+     */
+    public int numGames() {
+        return m_numGames;
+    }
+
+    /**
+     *
+     * Remove all games (and their rows) except the first ones.
+     *
+     * @param  numGames   The number of games to keep.
+     *
+     */
+    public void keepGames( int numGames ) {
+        if ( numGames < m_numGames ) {
+            m_numGames = numGames;
+            m_numRows = (numGames == 0) ? 0 : m_gameEnds[numGames - 1];
+            m_instances = null;
+        }
+    }
+
+    private void addGameEnd( int row ) {
+        if ( m_numGames == m_gameEnds.length ) {
+            m_gameEnds = Arrays.copyOf( m_gameEnds, 2 * m_numGames );
+        }
+        m_gameEnds[m_numGames++] = row;
+    }
+
+    /**
+     *
+     * Get a single value.
+     *
+     * @param  row         Row index.
+     * @param  attribute   Attribute (column) index.
+     *
+     * @return  The value.
+     *
+     */
+    public int get( int row, int attribute ) {
+        return m_columns[attribute].get( row );
+    }
+
+    /**
+     *
+     * Get all values of a row.
+     *
+     * @param  row      Row index.
+     * @param  values   Array the values are copied into.
+     *
+     */
+    public void getRow( int row, int[] values ) {
+        for ( int i=0; i<m_columns.length; ++i ) {
+            values[i] = m_columns[i].get( row );
+        }
+    }
+
+    /**
+     *
+     * Get the weight of a row.
+     *
+     * @param  row   Index of the row.
+     *
+     * @return  The weight (1 unless given when the row was added).
+     *
+     */
+    public int getWeight( int row ) {
+        return (m_weights == null) ? 1 : m_weights[row];
+    }
+
+    /**
+     *
+     * Check whether any row has a weight other than 1.
+     *
+     * @return  <code>true</code> if rows are weighted.
+     *
+     */
+    public boolean isWeighted() {
+        return m_weights != null;
+    }
+
+    /**
+     *
+     * Get the sum of the weights of all rows, i.e. the number of rows the data stands for.
+     *
+     * @return  The total weight.
+     *
+     */
+    public long totalWeight() {
+        if ( m_weights == null ) {
+            return m_numRows;
+        }
+        long total = 0;
+        for ( int r=0; r<m_numRows; ++r ) {
+            total += m_weights[r];
+        }
+        return total;
+    }
+
+    /**
+     *
+     * Remove all rows.
+     *
+     */
+    public void clear() {
+        m_numRows = 0;
+        m_numGames = 0;
+        m_instances = null;
+        m_weights = null;
+    }
+
+    /**
+     *
+     * Convert to WEKA instances. The conversion is done once, and reused until rows are added.
+     *
+     * @return  <code>Instances</code> with all rows.
+     *
+     */
+    public Instances toInstances() {
+        if ( m_instances == null ) {
+            Instances instances = new Instances( m_header, m_numRows );
+            for ( int r=0; r<m_numRows; ++r ) {
+                double[] values = new double[m_columns.length];
+                for ( int i=0; i<m_columns.length; ++i ) {
+                    values[i] = m_columns[i].get( r );
+                }
+                instances.add( new Instance( getWeight( r ), values ) );
+            }
+            m_instances = instances;
+        }
+        return m_instances;
+    }
+
+    /**
+     *
+     * Write the dataset in ARFF format. Rows with a weight other than 1 end with the weight in braces.
+     *
+     * @param  writer   Where to write to.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public void writeArff( Writer writer ) throws IOException {
+        writer.write( m_header.toString() );   // The header, ending with the @data line.
+        writeRows( writer, ',', false );
+    }
+
+    /**
+     *
+     * Write the dataset in CSV format, with a first line of attribute names. If rows are weighted, the
+     * weight is written as an extra last column.
+     *
+     * @param  writer   Where to write to.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public void writeCsv( Writer writer ) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for ( int i=0; i<m_columns.length; ++i ) {
+            if ( i > 0 ) {
+                line.append( ',' );
+            }
+            line.append( m_header.attribute( i ).name() );
+        }
+        if ( isWeighted() ) {
+            line.append( ",weight" );
+        }
+        line.append( '\n' );
+        writer.write( line.toString() );
+        writeRows( writer, ',', true );
+    }
+
+    /**
+     *
+     * Write the rows and games in binary form. The attributes are not written, only their number,
+     * the reader must know them.
+     *
+     * @param  out   Where to write to.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public void write( DataOutput out ) throws IOException {
+        out.writeInt( m_columns.length );
+        out.writeInt( m_numRows );
+        out.writeInt( m_numGames );
+        for ( int g=0; g<m_numGames; ++g ) {
+            out.writeInt( m_gameEnds[g] );
+        }
+        for ( Column column : m_columns ) {
+            column.write( out, m_numRows );
+        }
+        out.writeBoolean( m_weights != null );
+        if ( m_weights != null ) {
+            for ( int r=0; r<m_numRows; ++r ) {
+                out.writeInt( m_weights[r] );
+            }
+        }
+    }
+
+    /**
+     *
+     * Read a dataset written with <code>write</code>.
+     *
+     * @param  in       Where to read from.
+     * @param  header   Instances defining the attributes the dataset was written with.
+     *
+     * @return  The dataset.
+     *
+     * @throws IOException  if reading fails, or the data does not have the attributes of <code>header</code>.
+     *
+     */
+    public static ColumnarDataset read( DataInput in, Instances header ) throws IOException {
+        ColumnarDataset dataset = new ColumnarDataset( header );
+        if ( in.readInt() != dataset.m_columns.length ) {
+            throw new IOException( "Dataset has a different number of attributes" );
+        }
+        int numRows = in.readInt();
+        int numGames = in.readInt();
+        if ( numRows < 0 || numGames < 0 ) {
+            throw new IOException( "Corrupt dataset" );
+        }
+        for ( int g=0; g<numGames; ++g ) {
+            dataset.addGameEnd( in.readInt() );
+        }
+        for ( Column column : dataset.m_columns ) {
+            column.read( in, numRows );
+        }
+        if ( in.readBoolean() ) {
+            dataset.m_weights = new int[Math.max( INITIAL_CAPACITY, numRows )];
+            for ( int r=0; r<numRows; ++r ) {
+                dataset.m_weights[r] = in.readInt();
+            }
+        }
+        dataset.m_numRows = numRows;
+        return dataset;
+    }
+
+    private void writeRows( Writer writer, char separator, boolean isWeightColumn ) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int[] values = new int[m_columns.length];
+        for ( int r=0; r<m_numRows; ++r ) {
+            line.setLength( 0 );
+            getRow( r, values );
+            appendRow( line, m_header, values, separator );
+            if ( isWeightColumn && isWeighted() ) {
+                line.insert( line.length() - 1, separator ).insert( line.length() - 1, getWeight( r ) );
+            }
+            else if ( getWeight( r ) != 1 ) {
+                line.insert( line.length() - 1, " {" + getWeight( r ) + "}" );
+            }
+            writer.write( line.toString() );
+        }
+    }
+
+    // Append a row as text (nominal values by name), ending with a newline.
+    static void appendRow( StringBuilder line, Instances header, int[] values, char separator ) {
+        for ( int i=0; i<header.numAttributes(); ++i ) {
+            if ( i > 0 ) {
+                line.append( separator );
+            }
+            Attribute attribute = header.attribute( i );
+            if ( attribute.isNominal() ) {
+                line.append( attribute.value( values[i] ) );
+            }
+            else {
+                line.append( values[i] );
+            }
+        }
+        line.append( '\n' );
+    }
+
+    /**
+     *
+     *  A growable column of integers, stored as bytes as long as all values fit.
+     *
+     */
+    private static class Column {
+
+        private byte[] m_bytes = new byte[INITIAL_CAPACITY];
+        private int[]  m_ints;   // Used instead of m_bytes once a value does not fit in a byte.
+
+        int get( int row ) {
+            return (m_ints != null) ? m_ints[row] : m_bytes[row];
+        }
+
+        void set( int row, int value ) {
+            if ( m_ints == null && value != (byte) value ) {
+                m_ints = new int[m_bytes.length];
+                for ( int r=0; r<row; ++r ) {
+                    m_ints[r] = m_bytes[r];
+                }
+                m_bytes = null;
+            }
+            if ( m_ints != null ) {
+                if ( row >= m_ints.length ) {
+                    m_ints = Arrays.copyOf( m_ints, 2 * m_ints.length );
+                }
+                m_ints[row] = value;
+            }
+            else {
+                if ( row >= m_bytes.length ) {
+                    m_bytes = Arrays.copyOf( m_bytes, 2 * m_bytes.length );
+                }
+                m_bytes[row] = (byte) value;
+            }
+        }
+
+        void write( DataOutput out, int numRows ) throws IOException {
+            out.writeBoolean( m_ints != null );
+            if ( m_ints != null ) {
+                for ( int r=0; r<numRows; ++r ) {
+                    out.writeInt( m_ints[r] );
+                }
+            }
+            else {
+                out.write( m_bytes, 0, numRows );
+            }
+        }
+
+        void read( DataInput in, int numRows ) throws IOException {
+            int capacity = Math.max( INITIAL_CAPACITY, numRows );
+            if ( in.readBoolean() ) {
+                m_bytes = null;
+                m_ints = new int[capacity];
+                for ( int r=0; r<numRows; ++r ) {
+                    m_ints[r] = in.readInt();
+                }
+            }
+            else {
+                m_ints = null;
+                m_bytes = new byte[capacity];
+                in.readFully( m_bytes, 0, numRows );
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package itml.learning;
+
+import weka.core.Instances;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ *
+ *  This class provides the type DatasetCache, a directory of generated training datasets, addressed by
+ *  a key describing how the data was generated (typically a <code>Fingerprint</code> of the agents,
+ *  seed, game parameters, deck and features).
+ *
+ *  Datasets are stored in the binary form of <code>ColumnarDataset</code>, so loading one costs little
+ *  more than reading the file. The number of games is not part of the key: a cached dataset with more
+ *  games than needed is cut back to its first games, and one with fewer can be extended by playing
+ *  only the missing games and storing the result again.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class DatasetCache {
+
+    private static final String MAGIC = "itml.DatasetCache/2";
+
+    private final File m_directory;
+
+    /**
+     *
+     * Constructor, use a directory for the cache (created when the first dataset is stored).
+     *
+     * @param  directory   The directory.
+     *
+     */
+    public DatasetCache( File directory ) {
+        m_directory = directory;
+    }
+
+    /**
+     *
+     * Get the file a dataset is stored in.
+     *
+     * @param  key   The key of the dataset.
+     *
+     * @return  <code>File</code> (that may not exist).
+     *
+     */
+    public File fileFor( String key ) {
+        return new File( m_directory, "data-" + key + ".bin" );
+    }
+
+    /**
+     *
+     * Load a cached dataset. An unreadable entry only gives a warning, and is treated as missing.
+     *
+     * @param  key      The key of the dataset.
+     * @param  header   Instances defining the attributes of the dataset.
+     *
+     * @return  The dataset, or <code>null</code> if there is none for the key.
+     *
+     */
+    public ColumnarDataset load( String key, Instances header ) {
+        File file = fileFor( key );
+        if ( !file.exists() ) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+            try {
+                if ( !MAGIC.equals( in.readUTF() ) || !key.equals( in.readUTF() ) ) {
+                    throw new IOException( "Not a dataset for this key" );
+                }
+                return ColumnarDataset.read( in, header );
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: could not read cached dataset " + file + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     *
+     * Store a dataset, replacing any earlier entry for the key. The file is written under a temporary
+     * name first and then renamed, so other processes never see a partly written dataset.
+     *
+     * @param  key       The key of the dataset.
+     * @param  dataset   The dataset.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public void store( String key, ColumnarDataset dataset ) throws IOException {
+        if ( !m_directory.isDirectory() && !m_directory.mkdirs() ) {
+            throw new IOException( "Could not create directory " + m_directory );
+        }
+        File file = fileFor( key );
+        File temp = File.createTempFile( file.getName(), ".tmp", m_directory );
+        try {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), 1 << 16 ) );
+            try {
+                out.writeUTF( MAGIC );
+                out.writeUTF( key );
+                dataset.write( out );
+            }
+            finally {
+                out.close();
+            }
+            Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally {
+            temp.delete();
+        }
+    }
+}
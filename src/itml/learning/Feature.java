@@ -0,0 +1,199 @@
+package itml.learning;
+
+import itml.cards.Card;
+import itml.simulator.CardDeck;
+import itml.simulator.StateAgent;
+import itml.simulator.StateBattle;
+
+import java.util.ArrayList;
+
+/**
+ *
+ *  This class provides the type Feature, a single attribute computed from a battle state, used for
+ *  predicting the move of one agent (the subject, "a_") as seen against another agent (the other, "o_").
+ *
+ *  A feature is identified by its name, which is also the name of its WEKA attribute, so the
+ *  features of a trained model can be recovered from the model's header:
+ *
+ *      a_x, a_y, a_health, a_stamina      location, health and stamina of the subject
+ *      o_x, o_y, o_health, o_stamina      ... and of the other agent
+ *      dx, dy, distance                   location of the other agent relative to the subject, Manhattan distance
+ *      a_inRange_&lt;card&gt;               1 if the subject's attack card would hit the other agent, else 0
+ *      o_inRange_&lt;card&gt;               1 if the other agent's attack card would hit the subject, else 0
+ *      a_move_&lt;k&gt;                     the subject's k-th last move (nominal)
+ *      a_staminaDelta_&lt;k&gt;             change in the subject's stamina over the last k steps
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class Feature {
+
+    public static final String NO_MOVE = "none";
+
+    private enum Kind { COL, ROW, HEALTH, STAMINA, DX, DY, DISTANCE, IN_RANGE, MOVE, STAMINA_DELTA }
+
+    private final String  m_name;
+    private final Kind    m_kind;
+    private final boolean m_ofSubject;   // Feature of the subject (a_) or of the other agent (o_).
+    private final Card    m_card;        // Attack card, for IN_RANGE.
+    private final int     m_k;           // Steps back, for MOVE and STAMINA_DELTA.
+    private final ArrayList<String> m_values;  // Nominal values, or null if numeric.
+
+    private Feature( String name, Kind kind, boolean ofSubject, Card card, int k, ArrayList<String> values ) {
+        m_name = name;
+        m_kind = kind;
+        m_ofSubject = ofSubject;
+        m_card = card;
+        m_k = k;
+        m_values = values;
+    }
+
+    /**
+     *
+     * Create a feature from its name.
+     *
+     * @param  name   Name of the feature (see class description).
+     * @param  deck   The deck of cards (for card related features).
+     *
+     * @return  The feature.
+     *
+     * @throws IllegalArgumentException  if the name is not a known feature.
+     *
+     */
+    public static Feature forName( String name, CardDeck deck ) {
+        if ( name.equals( "dx" ) )       return new Feature( name, Kind.DX, true, null, 0, null );
+        if ( name.equals( "dy" ) )       return new Feature( name, Kind.DY, true, null, 0, null );
+        if ( name.equals( "distance" ) ) return new Feature( name, Kind.DISTANCE, true, null, 0, null );
+
+        boolean ofSubject = name.startsWith( "a_" );
+        if ( !ofSubject && !name.startsWith( "o_" ) ) {
+            throw new IllegalArgumentException( "Unknown feature: " + name );
+        }
+        String rest = name.substring( 2 );
+        if ( rest.equals( "x" ) )       return new Feature( name, Kind.COL, ofSubject, null, 0, null );
+        if ( rest.equals( "y" ) )       return new Feature( name, Kind.ROW, ofSubject, null, 0, null );
+        if ( rest.equals( "health" ) )  return new Feature( name, Kind.HEALTH, ofSubject, null, 0, null );
+        if ( rest.equals( "stamina" ) ) return new Feature( name, Kind.STAMINA, ofSubject, null, 0, null );
+        if ( rest.startsWith( "inRange_" ) ) {
+            String cardName = rest.substring( "inRange_".length() );
+            for ( Card card : deck.getCards() ) {
+                if ( card.getName().equals( cardName ) && card.getType() == Card.CardActionType.ctAttack ) {
+                    return new Feature( name, Kind.IN_RANGE, ofSubject, card, 0, null );
+                }
+            }
+            throw new IllegalArgumentException( "No attack card " + cardName + " in deck, for feature " + name );
+        }
+        if ( ofSubject && rest.startsWith( "move_" ) ) {
+            ArrayList<String> values = new ArrayList<String>();
+            values.add( NO_MOVE );
+            for ( Card card : deck.getCards() ) {
+                values.add( card.getName() );
+            }
+            return new Feature( name, Kind.MOVE, true, null, parseSteps( rest.substring( "move_".length() ), name ), values );
+        }
+        if ( ofSubject && rest.startsWith( "staminaDelta_" ) ) {
+            return new Feature( name, Kind.STAMINA_DELTA, true, null, parseSteps( rest.substring( "staminaDelta_".length() ), name ), null );
+        }
+        throw new IllegalArgumentException( "Unknown feature: " + name );
+    }
+
+    private static int parseSteps( String text, String name ) {
+        try {
+            int k = Integer.parseInt( text );
+            if ( k >= 1 ) {
+                return k;
+            }
+        }
+        catch ( NumberFormatException e ) {
+            // Fall through.
+        }
+        throw new IllegalArgumentException( "Number of steps must be a positive integer, in feature " + name );
+    }
+
+    /**
+     *
+     * Get the name of the feature.
+     *
+     * @return  Name of the feature (and of its attribute).
+     *
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     *
+     * Get the values of a nominal feature.
+     *
+     * @return  Value names (a value is stored as its index in this list), or <code>null</code> if numeric.
+     *
+     */
+    public ArrayList<String> getValues() {
+        return m_values;
+    }
+
+    /**
+     *
+     * Check whether the feature depends on the move history, rather than on the state alone.
+     *
+     * @return  <code>true</code> if the feature needs a <code>MoveHistory</code>.
+     *
+     */
+    public boolean usesHistory() {
+        return m_kind == Kind.MOVE || m_kind == Kind.STAMINA_DELTA;
+    }
+
+    /**
+     *
+     * Get how many past steps of history the feature needs.
+     *
+     * @return  An integer representing a number of steps (0 if no history is needed).
+     *
+     */
+    public int getHistoryLength() {
+        return usesHistory() ? m_k : 0;
+    }
+
+    /**
+     *
+     * Compute the feature.
+     *
+     * @param  bs        The battle state.
+     * @param  subject   Index of the agent whose move is predicted.
+     * @param  other     Index of the agent it is playing against.
+     * @param  history   History of the subject (only used by history-based features).
+     *
+     * @return  The feature value (index of value for nominal features).
+     *
+     */
+    public int compute( StateBattle bs, int subject, int other, MoveHistory history ) {
+        StateAgent a = bs.getAgentState( subject );
+        StateAgent o = bs.getAgentState( other );
+        StateAgent s = m_ofSubject ? a : o;
+        switch ( m_kind ) {
+        case COL:
+            return s.getCol();
+        case ROW:
+            return s.getRow();
+        case HEALTH:
+            return s.getHealthPoints();
+        case STAMINA:
+            return s.getStaminaPoints();
+        case DX:
+            return o.getCol() - a.getCol();
+        case DY:
+            return o.getRow() - a.getRow();
+        case DISTANCE:
+            return Math.abs( o.getCol() - a.getCol() ) + Math.abs( o.getRow() - a.getRow() );
+        case IN_RANGE:
+            StateAgent t = m_ofSubject ? o : a;
+            return m_card.inAttackRange( s.getCol(), s.getRow(), t.getCol(), t.getRow() ) ? 1 : 0;
+        case MOVE:
+            return history.getMove( m_k ) + 1;   // Value 0 is NO_MOVE.
+        case STAMINA_DELTA:
+            return history.getStamina( 0 ) - history.getStamina( m_k );
+        default:
+            throw new IllegalStateException( "Unknown feature kind " + m_kind );
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package itml.learning;
+
+import itml.cards.Card;
+import itml.simulator.CardDeck;
+import itml.simulator.StateBattle;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ *
+ *  This class provides the type FeaturePipeline, the list of features used for predicting an agent's
+ *  move. The same pipeline is used for generating training data and by the agents when they predict,
+ *  so both always build identical feature vectors.
+ *
+ *  A pipeline is specified as a comma separated list of feature groups:
+ *
+ *      raw              a_x, a_y, a_health, a_stamina, o_x, o_y, o_health, o_stamina
+ *      relative         dx, dy
+ *      distance         distance
+ *      inRange          a_inRange_&lt;card&gt; and o_inRange_&lt;card&gt; for each attack card in the deck
+ *      moves:N          a_move_1 ... a_move_N
+ *      staminaDelta:N   a_staminaDelta_N
+ *
+ *  or any single feature name (see <code>Feature</code>). The features a state has, as seen by a given
+ *  subject, are computed once and cached on the state itself.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class FeaturePipeline {
+
+    public static final String DEFAULT_SPEC = "raw";
+    public static final String RELATION_NAME = "AgentBattleHistory";
+
+    private final CardDeck           m_deck;
+    private final ArrayList<Feature> m_features = new ArrayList<Feature>();
+    private int                      m_historyLength = 0;
+    private final Object             m_cacheKey = new Object();   // Key of this pipeline's values in state caches.
+
+    /**
+     *
+     * Constructor, create an empty pipeline.
+     *
+     * @param  deck   The deck of cards (determines card related features and the class values).
+     *
+     */
+    public FeaturePipeline( CardDeck deck ) {
+        m_deck = deck;
+    }
+
+    /**
+     *
+     * Create a pipeline from a specification.
+     *
+     * @param  spec   Comma separated list of feature groups or feature names.
+     * @param  deck   The deck of cards.
+     *
+     * @return  The pipeline.
+     *
+     * @throws IllegalArgumentException  if the specification contains an unknown feature.
+     *
+     */
+    public static FeaturePipeline parse( String spec, CardDeck deck ) {
+        FeaturePipeline pipeline = new FeaturePipeline( deck );
+        for ( String item : spec.split( "," ) ) {
+            item = item.trim();
+            if ( item.isEmpty() ) continue;
+            int colon = item.indexOf( ':' );
+            String group = (colon < 0) ? item : item.substring( 0, colon );
+            int n = (colon < 0) ? 1 : Integer.parseInt( item.substring( colon+1 ) );
+            if ( group.equals( "raw" ) ) {
+                for ( String name : new String[] { "a_x", "a_y", "a_health", "a_stamina",
+                                                   "o_x", "o_y", "o_health", "o_stamina" } ) {
+                    pipeline.addFeature( Feature.forName( name, deck ) );
+                }
+            }
+            else if ( group.equals( "relative" ) ) {
+                pipeline.addFeature( Feature.forName( "dx", deck ) );
+                pipeline.addFeature( Feature.forName( "dy", deck ) );
+            }
+            else if ( group.equals( "inRange" ) ) {
+                for ( String prefix : new String[] { "a_", "o_" } ) {
+                    for ( Card card : deck.getCards() ) {
+                        if ( card.getType() == Card.CardActionType.ctAttack ) {
+                            pipeline.addFeature( Feature.forName( prefix + "inRange_" + card.getName(), deck ) );
+                        }
+                    }
+                }
+            }
+            else if ( group.equals( "moves" ) ) {
+                for ( int k=1; k<=n; ++k ) {
+                    pipeline.addFeature( Feature.forName( "a_move_" + k, deck ) );
+                }
+            }
+            else if ( group.equals( "staminaDelta" ) ) {
+                pipeline.addFeature( Feature.forName( "a_staminaDelta_" + n, deck ) );
+            }
+            else {
+                pipeline.addFeature( Feature.forName( item, deck ) );
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     *
+     * Recover the pipeline that produced a set of instances, from the names of its attributes.
+     *
+     * @param  header   Instances whose attributes (except the class) are feature names.
+     * @param  deck     The deck of cards.
+     *
+     * @return  The pipeline.
+     *
+     */
+    public static FeaturePipeline fromHeader( Instances header, CardDeck deck ) {
+        FeaturePipeline pipeline = new FeaturePipeline( deck );
+        for ( int i=0; i<header.numAttributes(); ++i ) {
+            if ( i != header.classIndex() ) {
+                pipeline.addFeature( Feature.forName( header.attribute( i ).name(), deck ) );
+            }
+        }
+        return pipeline;
+    }
+
+    /**
+     *
+     * Add a feature to the end of the pipeline.
+     *
+     * @param  feature   The feature.
+     *
+     */
+    public void addFeature( Feature feature ) {
+        m_features.add( feature );
+        m_historyLength = Math.max( m_historyLength, feature.getHistoryLength() );
+    }
+
+    /**
+     *
+     * Get the deck of cards the pipeline refers to.
+     *
+     * @return  <code>CardDeck</code>
+     *
+     */
+    public CardDeck getDeck() {
+        return m_deck;
+    }
+
+    /**
+     *
+     * Get the features.
+     *
+     * @return  <code>ArrayList</code> of features.
+     *
+     */
+    public ArrayList<Feature> getFeatures() {
+        return m_features;
+    }
+
+    /**
+     *
+     * Get the number of features.
+     *
+     * @return  An integer representing the number of features (the class attribute not included).
+     *
+     */
+    public int numFeatures() {
+        return m_features.size();
+    }
+
+    /**
+     *
+     * Get the specification of the pipeline, listing every feature by name.
+     *
+     * @return  Comma separated feature names.
+     *
+     */
+    public String getSpec() {
+        StringBuilder spec = new StringBuilder();
+        for ( Feature feature : m_features ) {
+            if ( spec.length() > 0 ) {
+                spec.append( ',' );
+            }
+            spec.append( feature.getName() );
+        }
+        return spec.toString();
+    }
+
+    /**
+     *
+     * Get how many past steps the move history must remember for this pipeline.
+     *
+     * @return  An integer representing a number of steps.
+     *
+     */
+    public int getHistoryLength() {
+        return m_historyLength;
+    }
+
+    /**
+     *
+     * Create a move history suitable for this pipeline.
+     *
+     * @return  An empty <code>MoveHistory</code>.
+     *
+     */
+    public MoveHistory createHistory() {
+        return new MoveHistory( m_historyLength );
+    }
+
+    /**
+     *
+     * Create the structure of the Instances, that is, one attribute per feature followed by the class,
+     * the card played (nominal).
+     *
+     * @return  WEKA Instances object.
+     *
+     */
+    public Instances createInstances() {
+        FastVector attributes = new FastVector(); // Attributes
+        FastVector actions = new FastVector();    // Class
+
+        // Domain of class are all possible cards.
+        for ( Card c : m_deck.getCards() ) {
+            actions.addElement( c.getName() );
+        }
+        for ( Feature feature : m_features ) {
+            if ( feature.getValues() == null ) {
+                attributes.addElement( new Attribute( feature.getName() ) );
+            }
+            else {
+                FastVector values = new FastVector();
+                for ( String value : feature.getValues() ) {
+                    values.addElement( value );
+                }
+                attributes.addElement( new Attribute( feature.getName(), values ) );
+            }
+        }
+        attributes.addElement( new Attribute( "class", actions ) );
+
+        Instances instances = new Instances( RELATION_NAME, attributes, 0 );
+        instances.setClassIndex( m_features.size() );
+        return instances;
+    }
+
+    /**
+     *
+     * Compute the features of a state. The features that depend only on the state are cached on it,
+     * so asking again for the same state and subject costs only the history-based features.
+     *
+     * @param  bs        The battle state.
+     * @param  subject   Index of the agent whose move is predicted.
+     * @param  other     Index of the agent it is playing against.
+     * @param  history   History of the subject, up to and including <code>bs</code>
+     *                   (may be <code>null</code> if the pipeline has no history-based features).
+     * @param  values    Array (of at least <code>numFeatures()</code>) the values are written into.
+     *
+     */
+    public void extract( StateBattle bs, int subject, int other, MoveHistory history, int[] values ) {
+        // Cached entries hold subject and other, followed by the state-only feature values.
+        int[][] cached = (int[][]) bs.getCached( m_cacheKey );
+        int[] entry = null;
+        int n = 0;
+        if ( cached != null ) {
+            for ( ; n<cached.length && cached[n] != null; ++n ) {
+                if ( cached[n][0] == subject && cached[n][1] == other ) {
+                    entry = cached[n];
+                    break;
+                }
+            }
+        }
+        if ( entry == null ) {
+            entry = new int[m_features.size() + 2];
+            entry[0] = subject;
+            entry[1] = other;
+            for ( int i=0; i<m_features.size(); ++i ) {
+                Feature feature = m_features.get( i );
+                if ( !feature.usesHistory() ) {
+                    entry[i+2] = feature.compute( bs, subject, other, null );
+                }
+            }
+            if ( cached == null || n == cached.length ) {
+                cached = (cached == null) ? new int[2][] : Arrays.copyOf( cached, 2 * n );
+                bs.setCached( m_cacheKey, cached );
+            }
+            cached[n] = entry;
+        }
+        for ( int i=0; i<m_features.size(); ++i ) {
+            Feature feature = m_features.get( i );
+            values[i] = feature.usesHistory() ? feature.compute( bs, subject, other, history ) : entry[i+2];
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package itml.learning;
+
+import itml.util.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ *
+ *  This class merges identical rows of a dataset into single rows, weighted by how often they occur.
+ *
+ *  Generated training data repeats itself a lot: the agents are mostly deterministic and the arena is
+ *  small, so the same (state, move) rows come up game after game. Learners that take instance weights
+ *  into account (such as J48 and NaiveBayes) learn the same model from the weighted unique rows as
+ *  from all rows, in time that depends on the number of distinct rows rather than on the number of games.
+ *
+ *  Rows are streamed through once. Each row is hashed to a 64-bit key, which is looked up in a primitive
+ *  hash map giving the index of the unique row with that key; the values are then compared, so a hash
+ *  collision only costs another probe with a rehashed key, and never merges different rows.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class InstanceDeduplicator {
+
+    private InstanceDeduplicator() {
+    }
+
+    /**
+     *
+     * Merge the identical rows of a dataset. The unique rows are kept in the order they first occur,
+     * each weighted by the total weight of the rows it stands for. The result has no game boundaries.
+     *
+     * @param  data   The dataset (not modified).
+     *
+     * @return  A new dataset with the same attributes and total weight.
+     *
+     */
+    public static ColumnarDataset deduplicate( ColumnarDataset data ) {
+        int numAttributes = data.numAttributes();
+        ColumnarDataset unique = new ColumnarDataset( data.getHeader() );
+        LongIntHashMap index = new LongIntHashMap( Math.min( data.numRows(), 1 << 16 ) );
+        int[] weights = new int[64];
+        int[] values = new int[numAttributes];
+        int[] other = new int[numAttributes];
+
+        for ( int r=0; r<data.numRows(); ++r ) {
+            data.getRow( r, values );
+            long key = hash( values );
+            while ( true ) {
+                int u = index.get( key, -1 );
+                if ( u < 0 ) {
+                    u = unique.numRows();
+                    index.put( key, u );
+                    unique.add( values );
+                    if ( u == weights.length ) {
+                        weights = Arrays.copyOf( weights, 2 * u );
+                    }
+                    weights[u] = data.getWeight( r );
+                    break;
+                }
+                unique.getRow( u, other );
+                if ( Arrays.equals( values, other ) ) {
+                    weights[u] += data.getWeight( r );
+                    break;
+                }
+                key = rehash( key );   // A different row with the same key; try the next key.
+            }
+        }
+
+        ColumnarDataset result = new ColumnarDataset( data.getHeader() );
+        for ( int u=0; u<unique.numRows(); ++u ) {
+            unique.getRow( u, values );
+            result.add( values, weights[u] );
+        }
+        return result;
+    }
+
+    private static long hash( int[] values ) {
+        long h = 0x84222325CBF29CE4L;
+        for ( int value : values ) {
+            h = (h ^ value) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return fix( h );
+    }
+
+    private static long rehash( long key ) {
+        long h = (key + 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        return fix( h ^ (h >>> 31) );
+    }
+
+    // The map reserves one key value for empty slots.
+    private static long fix( long key ) {
+        return (key == LongIntHashMap.EMPTY) ? ~key : key;
+    }
+}
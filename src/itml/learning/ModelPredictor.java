@@ -0,0 +1,83 @@
+package itml.learning;
+
+import itml.simulator.CardDeck;
+import itml.simulator.StateBattle;
+
+/**
+ *
+ *  This class provides the type ModelPredictor, which predicts an opponent's moves with a trained
+ *  (WEKA) model, computing the model's features with the pipeline it was trained on.
+ *
+ *  The model itself is shared and read-only; the predictor only holds the per-game move history,
+ *  so each agent needs its own predictor.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class ModelPredictor implements OpponentPredictor {
+
+    private final TrainedModel    m_model;
+    private final FeaturePipeline m_pipeline;
+    private final MoveHistory     m_history;
+    private final int[]           m_values;
+    private int                   m_opponent;
+    private int                   m_me;
+
+    /**
+     *
+     * Constructor, create a predictor for a trained model.
+     *
+     * @param  model   The trained model.
+     * @param  deck    The deck of cards.
+     *
+     */
+    public ModelPredictor( TrainedModel model, CardDeck deck ) {
+        m_model = model;
+        m_pipeline = FeaturePipeline.fromHeader( model.getHeader(), deck );
+        m_history = m_pipeline.createHistory();
+        m_values = new int[m_pipeline.numFeatures()];
+    }
+
+    /**
+     *
+     * Get the model the predictor uses.
+     *
+     * @return  The trained model.
+     *
+     */
+    public TrainedModel getModel() {
+        return m_model;
+    }
+
+    public void startGame( int opponent, int me ) {
+        m_opponent = opponent;
+        m_me = me;
+        m_history.clear();
+    }
+
+    public void observe( StateBattle bs ) {
+        m_history.observe( bs, m_opponent, m_pipeline.getDeck() );
+    }
+
+    public void distribution( StateBattle bs, double[] probabilities ) {
+        double[] distribution;
+        try {
+            m_pipeline.extract( bs, m_opponent, m_me, m_history, m_values );
+            distribution = m_model.distribution( m_values );
+        }
+        catch ( Exception e ) {
+            throw new IllegalStateException( "Error classifying instance: " + e, e );
+        }
+        System.arraycopy( distribution, 0, probabilities, 0, distribution.length );
+    }
+
+    public int predict( StateBattle bs ) {
+        try {
+            m_pipeline.extract( bs, m_opponent, m_me, m_history, m_values );
+            return m_model.classify( m_values );
+        }
+        catch ( Exception e ) {
+            throw new IllegalStateException( "Error classifying instance: " + e, e );
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package itml.learning;
+
+import itml.simulator.CardDeck;
+import itml.util.Fingerprint;
+import weka.classifiers.Classifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ *  This class provides the type ModelStore, which saves trained models to disk so that an agent does
+ *  not have to learn again every time the program is started.
+ *
+ *  A snapshot holds the <code>TrainedModel</code> (the classifier and its header) together with a
+ *  fingerprint of everything the model depends on: the deck of cards, the feature pipeline, the
+ *  classifier and its options, and a tag describing how the training data was generated. A snapshot is
+ *  only loaded if its fingerprint matches the current configuration, so a stale model is never used;
+ *  it is simply relearned and saved again.
+ *
+ *  A store is created for a directory, feature specification and training tag, and passed to the
+ *  agents that use it (see <code>AgentFactory</code>); stores for different configurations can be used
+ *  side by side. The store <code>NONE</code> neither loads nor saves snapshots. A store remembers the
+ *  models it has loaded or saved, so the agents sharing it read each snapshot only once.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class ModelStore {
+
+    public static final ModelStore NONE = new ModelStore( null, FeaturePipeline.DEFAULT_SPEC, "" );
+
+    private static final String MAGIC = "itml.ModelStore/1";
+
+    private final File   m_directory;     // null if snapshots are off.
+    private final String m_featureSpec;
+    private final String m_trainingTag;
+    private final Map<String, TrainedModel> m_models = new ConcurrentHashMap<String, TrainedModel>();  // By fingerprint.
+
+    /**
+     *
+     * Constructor, create a store.
+     *
+     * @param  directory     Directory of the snapshot files, or <code>null</code> to turn snapshots off.
+     * @param  featureSpec   Feature specification the models are trained with (see <code>FeaturePipeline</code>).
+     * @param  trainingTag   Description of how the training data is generated (agents, number of games, ...).
+     *
+     */
+    public ModelStore( File directory, String featureSpec, String trainingTag ) {
+        m_directory = directory;
+        m_featureSpec = featureSpec;
+        m_trainingTag = trainingTag;
+    }
+
+    /**
+     *
+     * Get the directory of the snapshot files.
+     *
+     * @return  The directory, or <code>null</code> if snapshots are off.
+     *
+     */
+    public File getDirectory() {
+        return m_directory;
+    }
+
+    /**
+     *
+     * Get the fingerprint a model trained in the configuration of this store has.
+     *
+     * @param  deck        The deck of cards.
+     * @param  prototype   The (untrained) classifier the model is built from.
+     *
+     * @return  Fingerprint as a hexadecimal string.
+     *
+     * @throws IllegalArgumentException  if the feature specification is not valid.
+     *
+     */
+    public String fingerprint( CardDeck deck, Classifier prototype ) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add( deck.fingerprint() );
+        fingerprint.add( FeaturePipeline.parse( m_featureSpec, deck ).getSpec() );
+        fingerprint.add( prototype.getClass().getName() );
+        String[] options = prototype.getOptions();
+        fingerprint.add( options.length );
+        for ( String option : options ) {
+            fingerprint.add( option );
+        }
+        fingerprint.add( m_trainingTag );
+        return fingerprint.toString();
+    }
+
+    /**
+     *
+     * Load the snapshot of a model trained in the configuration of this store, if there is one.
+     *
+     * @param  deck        The deck of cards.
+     * @param  prototype   The (untrained) classifier the model is built from.
+     *
+     * @return  The model, or <code>null</code> if snapshots are off, or there is no matching snapshot.
+     *
+     */
+    public TrainedModel load( CardDeck deck, Classifier prototype ) {
+        if ( m_directory == null ) {
+            return null;
+        }
+        String fingerprint = fingerprint( deck, prototype );
+        TrainedModel model = m_models.get( fingerprint );
+        if ( model != null ) {
+            return model;
+        }
+        File file = new File( m_directory, "model-" + fingerprint + ".ser" );
+        if ( !file.exists() ) {
+            return null;
+        }
+        try {
+            model = read( file, fingerprint );
+            if ( model != null ) {
+                m_models.put( fingerprint, model );
+            }
+            return model;
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: could not read model snapshot " + file + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     *
+     * Save a model trained in the configuration of this store. Failures only give a warning, the model
+     * is then simply learned again next time.
+     *
+     * @param  model       The trained model.
+     * @param  deck        The deck of cards.
+     * @param  prototype   The (untrained) classifier the model was built from.
+     *
+     */
+    public void save( TrainedModel model, CardDeck deck, Classifier prototype ) {
+        if ( m_directory == null || model == null ) {
+            return;
+        }
+        String fingerprint = fingerprint( deck, prototype );
+        m_models.put( fingerprint, model );
+        File file = new File( m_directory, "model-" + fingerprint + ".ser" );
+        try {
+            write( file, fingerprint, model );
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: could not write model snapshot " + file + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     *
+     * Write a snapshot. The file is written under a temporary name first and then renamed, so other
+     * processes never see a partly written snapshot.
+     *
+     * @param  file          The snapshot file.
+     * @param  fingerprint   Fingerprint of the configuration the model was trained in.
+     * @param  model         The trained model.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public static void write( File file, String fingerprint, TrainedModel model ) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if ( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException( "Could not create directory " + directory );
+        }
+        File temp = File.createTempFile( file.getName(), ".tmp", directory );
+        try {
+            ObjectOutputStream out = new ObjectOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) );
+            try {
+                out.writeUTF( MAGIC );
+                out.writeUTF( fingerprint );
+                out.writeObject( model );
+            }
+            finally {
+                out.close();
+            }
+            Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     *
+     * Read a snapshot.
+     *
+     * @param  file          The snapshot file.
+     * @param  fingerprint   Fingerprint of the current configuration.
+     *
+     * @return  The model, or <code>null</code> if it was trained in a different configuration.
+     *
+     * @throws IOException  if the file cannot be read, or is not a snapshot.
+     *
+     */
+    public static TrainedModel read( File file, String fingerprint ) throws IOException {
+        ObjectInputStream in = new ObjectInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try {
+            if ( !MAGIC.equals( in.readUTF() ) ) {
+                throw new IOException( "Not a model snapshot" );
+            }
+            if ( !fingerprint.equals( in.readUTF() ) ) {
+                return null;
+            }
+            return (TrainedModel) in.readObject();
+        }
+        catch ( ClassNotFoundException e ) {
+            throw new IOException( "Snapshot of unknown class: " + e.getMessage() );
+        }
+        catch ( ClassCastException e ) {
+            throw new IOException( "Snapshot does not hold a model" );
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package itml.learning;
+
+import itml.simulator.CardDeck;
+import itml.simulator.StateBattle;
+
+/**
+ *
+ *  This class provides the type MoveHistory, which remembers the most recent moves and stamina levels
+ *  of one agent over the course of a game, as needed by history-based features.
+ *
+ *  The history is fed one battle state per step, in game order, with <code>observe</code>. Both the
+ *  training data generation and the agents must feed it the same way, so that the features computed
+ *  from it mean the same thing in both places.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class MoveHistory {
+
+    private final int[] m_moves;     // Ring buffer of card indices (-1 for no move).
+    private final int[] m_stamina;   // Ring buffer of stamina levels.
+    private int         m_count;     // Number of states observed.
+
+    /**
+     *
+     * Constructor, create an empty history.
+     *
+     * @param  length   The number of past moves to remember.
+     *
+     */
+    public MoveHistory( int length ) {
+        m_moves = new int[length + 1];
+        m_stamina = new int[length + 1];
+    }
+
+    /**
+     *
+     * Forget everything (start of a new game).
+     *
+     */
+    public void clear() {
+        m_count = 0;
+    }
+
+    /**
+     *
+     * Record a battle state: the move the agent made to get there, and its stamina level.
+     *
+     * @param  bs        The battle state.
+     * @param  subject   Index of the agent whose history is kept.
+     * @param  deck      The deck the card indices refer to.
+     *
+     */
+    public void observe( StateBattle bs, int subject, CardDeck deck ) {
+        int i = m_count % m_moves.length;
+        m_moves[i] = deck.indexOf( bs.getLastMoves()[subject] );
+        m_stamina[i] = bs.getAgentState( subject ).getStaminaPoints();
+        m_count++;
+    }
+
+    /**
+     *
+     * Get a past move.
+     *
+     * @param  k   How far back to look (1 = the move leading to the last observed state).
+     *
+     * @return  Index of card in deck, or -1 if there was no such move.
+     *
+     */
+    public int getMove( int k ) {
+        if ( k > m_count || k > m_moves.length ) {
+            return -1;
+        }
+        return m_moves[(m_count - k) % m_moves.length];
+    }
+
+    /**
+     *
+     * Get a past stamina level.
+     *
+     * @param  k   How far back to look (0 = the last observed state).
+     *
+     * @return  Stamina points, or those of the earliest observed state if the history is shorter.
+     *
+     */
+    public int getStamina( int k ) {
+        if ( m_count == 0 ) {
+            return 0;
+        }
+        k = Math.min( k, Math.min( m_count, m_stamina.length ) - 1 );
+        return m_stamina[(m_count - 1 - k) % m_stamina.length];
+    }
+}
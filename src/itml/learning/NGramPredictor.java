@@ -0,0 +1,176 @@
+package itml.learning;
+
+import itml.simulator.CardDeck;
+import itml.simulator.GameLog;
+import itml.simulator.StateAgent;
+import itml.simulator.StateBattle;
+import itml.util.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ *
+ *  This class provides the type NGramPredictor, a Markov model of an opponent's move sequence.
+ *
+ *  It counts which card the opponent plays, conditioned on its last k moves and on a coarse bucket of
+ *  the state (distance between the agents and the opponent's stamina). Counts are kept for every
+ *  order 0 ... k in primitive hash tables, and predictions back off (Katz style, with absolute
+ *  discounting) from the longest context seen before to shorter ones, and finally to uniform.
+ *  Updating and querying only touch a fixed number of table entries per card, independent of how many
+ *  moves have been seen, so this is much cheaper per move than a classifier, while still picking up
+ *  opponents that follow patterns.
+ *
+ *  Counts are kept across games, so a predictor can be trained on logged games before playing.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class NGramPredictor implements OpponentPredictor {
+
+    public static final int    MAX_ORDER = 7;
+    public static final double DISCOUNT  = 0.5;
+
+    private static final int MOVE_BITS = 6;    // Bits per move in a key (so at most 62 cards).
+
+    private final CardDeck       m_deck;
+    private final int            m_numCards;
+    private final int            m_order;
+    private final LongIntHashMap m_counts   = new LongIntHashMap( 1024 );  // (context, card) -> count
+    private final LongIntHashMap m_totals   = new LongIntHashMap( 256 );   // context -> count
+    private final LongIntHashMap m_distinct = new LongIntHashMap( 256 );   // context -> number of distinct cards
+
+    private final int[]    m_moves;            // Last moves of the opponent, most recent first (-1 if none).
+    private int            m_bucket = -1;      // State bucket of the last observed state (-1 if none).
+    private int            m_opponent;
+    private int            m_me;
+    private final double[] m_lower;            // Scratch, distribution of the next lower order.
+
+    /**
+     *
+     * Constructor, create a predictor that has seen nothing.
+     *
+     * @param  deck    The deck of cards.
+     * @param  order   The number of past moves to condition on (0 ... MAX_ORDER).
+     *
+     */
+    public NGramPredictor( CardDeck deck, int order ) {
+        if ( order < 0 || order > MAX_ORDER ) {
+            throw new IllegalArgumentException( "Order must be between 0 and " + MAX_ORDER );
+        }
+        if ( deck.getCards().size() >= (1 << MOVE_BITS) - 1 ) {
+            throw new IllegalArgumentException( "Too many cards in deck" );
+        }
+        m_deck = deck;
+        m_numCards = deck.getCards().size();
+        m_order = order;
+        m_moves = new int[order];
+        m_lower = new double[m_numCards];
+    }
+
+    public void startGame( int opponent, int me ) {
+        m_opponent = opponent;
+        m_me = me;
+        m_bucket = -1;
+        Arrays.fill( m_moves, -1 );
+    }
+
+    public void observe( StateBattle bs ) {
+        int card = m_deck.indexOf( bs.getLastMoves()[m_opponent] );
+        if ( card >= 0 && m_bucket >= 0 ) {
+            // Count the move in the context it was made in, for every order.
+            for ( int j=0; j<=m_order; ++j ) {
+                long context = context( j );
+                if ( m_counts.add( (context << MOVE_BITS) | card, 1 ) == 1 ) {
+                    m_distinct.add( context, 1 );
+                }
+                m_totals.add( context, 1 );
+            }
+        }
+        if ( m_order > 0 ) {
+            System.arraycopy( m_moves, 0, m_moves, 1, m_order - 1 );
+            m_moves[0] = card;
+        }
+        m_bucket = bucket( bs );
+    }
+
+    public void distribution( StateBattle bs, double[] probabilities ) {
+        int bucket = bucket( bs );
+        int saved = m_bucket;
+        m_bucket = bucket;
+        Arrays.fill( probabilities, 0, m_numCards, 1.0 / m_numCards );
+        for ( int j=0; j<=m_order; ++j ) {
+            long context = context( j );
+            int total = m_totals.get( context, 0 );
+            if ( total == 0 ) {
+                break;   // Longer contexts have not been seen either.
+            }
+            System.arraycopy( probabilities, 0, m_lower, 0, m_numCards );
+            double seenLower = 0.0;
+            for ( int c=0; c<m_numCards; ++c ) {
+                int count = m_counts.get( (context << MOVE_BITS) | c, 0 );
+                if ( count > 0 ) {
+                    probabilities[c] = (count - DISCOUNT) / total;
+                    seenLower += m_lower[c];
+                }
+                else {
+                    probabilities[c] = -1.0;
+                }
+            }
+            // The discounted mass goes to unseen cards, in proportion to the lower order distribution.
+            double leftover = DISCOUNT * m_distinct.get( context, 0 ) / total;
+            double unseenLower = 1.0 - seenLower;
+            for ( int c=0; c<m_numCards; ++c ) {
+                if ( probabilities[c] < 0.0 ) {
+                    probabilities[c] = (unseenLower > 0.0) ? leftover * m_lower[c] / unseenLower : 0.0;
+                }
+            }
+        }
+        m_bucket = saved;
+    }
+
+    public int predict( StateBattle bs ) {
+        double[] probabilities = new double[m_numCards];
+        distribution( bs, probabilities );
+        int best = 0;
+        for ( int c=1; c<m_numCards; ++c ) {
+            if ( probabilities[c] > probabilities[best] ) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     *
+     * Learn from a logged game.
+     *
+     * @param  log        The game log.
+     * @param  opponent   Index of the agent whose moves are modelled.
+     * @param  me         Index of the agent it played against.
+     *
+     */
+    public void observeGame( GameLog log, int opponent, int me ) {
+        startGame( opponent, me );
+        for ( StateBattle bs : log.getLog() ) {
+            observe( bs );
+        }
+    }
+
+    // Key of the context of order j: order, state bucket and the last j moves.
+    private long context( int j ) {
+        long key = ((long) j << 5) | m_bucket;
+        for ( int i=0; i<j; ++i ) {
+            key = (key << MOVE_BITS) | (m_moves[i] + 1);
+        }
+        return key;
+    }
+
+    // Coarse description of the state, as seen by the opponent: distance (0 ... 3+) and stamina (4 levels).
+    private int bucket( StateBattle bs ) {
+        StateAgent o = bs.getAgentState( m_opponent );
+        StateAgent a = bs.getAgentState( m_me );
+        int distance = Math.abs( o.getCol() - a.getCol() ) + Math.abs( o.getRow() - a.getRow() );
+        int stamina = o.getStaminaPoints() * 4 / (StateAgent.MAX_STAMINA + 1);
+        return Math.min( distance, 3 ) * 4 + stamina;
+    }
+}
@@ -0,0 +1,58 @@
+package itml.learning;
+
+import itml.simulator.StateBattle;
+
+/**
+ *
+ *  This interface is implemented by models that predict an opponent's next move, so that any agent can
+ *  use (and switch between) them.
+ *
+ *  A predictor is fed every battle state of a game, in order, with <code>observe</code>; it can learn
+ *  from the opponent's last move found in each state. Predictions are a probability distribution
+ *  over the cards of the deck (by their index in the deck).
+ *
+ * @version     %I%, %G%
+ *
+ */
+public interface OpponentPredictor {
+
+    /**
+     *
+     * Start a new game. Anything learned about the opponent so far is kept.
+     *
+     * @param  opponent   Index of the opponent in the battle states.
+     * @param  me         Index of the agent using the predictor.
+     *
+     */
+    void startGame( int opponent, int me );
+
+    /**
+     *
+     * Observe the next state of the game.
+     *
+     * @param  bs   The battle state.
+     *
+     */
+    void observe( StateBattle bs );
+
+    /**
+     *
+     * Predict the opponent's next move in the (last observed) state.
+     *
+     * @param  bs              The battle state.
+     * @param  probabilities   Array (one entry per card in deck) the probabilities are written into.
+     *
+     */
+    void distribution( StateBattle bs, double[] probabilities );
+
+    /**
+     *
+     * Predict the opponent's most likely next move in the (last observed) state.
+     *
+     * @param  bs   The battle state.
+     *
+     * @return  Index of card in deck.
+     *
+     */
+    int predict( StateBattle bs );
+}
@@ -0,0 +1,151 @@
+package itml.learning;
+
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.Serializable;
+
+/**
+ *
+ *  This class provides the type TrainedModel, an immutable opponent model: a trained WEKA classifier
+ *  together with the header (attribute structure, no data) of the instances it was trained on.
+ *
+ *  A model is built once and can then be shared by any number of agents, in any number of threads.
+ *  Predictions only read the classifier and the header, so no locking is needed. The model owns its
+ *  classifier; it is never retrained after construction.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class TrainedModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Classifier m_classifier;
+    private final Instances  m_header;
+
+    /**
+     *
+     * Constructor, wrap an already trained classifier.
+     *
+     * @param  classifier   A trained classifier (must not be modified afterwards).
+     * @param  header       Instances with the attribute structure the classifier was trained on.
+     *
+     */
+    public TrainedModel( Classifier classifier, Instances header ) {
+        m_classifier = classifier;
+        m_header = new Instances( header, 0 );
+    }
+
+    /**
+     *
+     * Build a model by training a fresh copy of a classifier on a set of instances.
+     *
+     * @param  prototype   The (untrained) classifier to copy, the prototype itself is left untouched.
+     * @param  instances   WEKA instances to train on.
+     *
+     * @return  The trained model.
+     *
+     * @throws Exception  if the classifier cannot be trained.
+     *
+     */
+    public static TrainedModel build( Classifier prototype, Instances instances ) throws Exception {
+        Classifier classifier = Classifier.makeCopy( prototype );
+        classifier.buildClassifier( instances );
+        return new TrainedModel( classifier, instances );
+    }
+
+    /**
+     *
+     * Get the header of the instances the model was trained on.
+     * The header is shared, and must not be modified.
+     *
+     * @return  <code>Instances</code> without data.
+     *
+     */
+    public Instances getHeader() {
+        return m_header;
+    }
+
+    /**
+     *
+     * Predict the class (index of card in deck) of a feature vector.
+     *
+     * @param  values   Attribute values (the class attribute value is ignored).
+     *
+     * @return  Index of predicted class value.
+     *
+     * @throws Exception  if the classifier fails.
+     *
+     */
+    public int classify( double[] values ) throws Exception {
+        return (int) m_classifier.classifyInstance( instance( values ) );
+    }
+
+    /**
+     *
+     * Predict the class probability distribution of a feature vector.
+     *
+     * @param  values   Attribute values (the class attribute value is ignored).
+     *
+     * @return  Array with a probability for each class value.
+     *
+     * @throws Exception  if the classifier fails.
+     *
+     */
+    public double[] distribution( double[] values ) throws Exception {
+        return m_classifier.distributionForInstance( instance( values ) );
+    }
+
+    /**
+     *
+     * Predict the class (index of card in deck) of a feature vector, as computed by a <code>FeaturePipeline</code>.
+     *
+     * @param  features   Feature values, one per (non-class) attribute.
+     *
+     * @return  Index of predicted class value.
+     *
+     * @throws Exception  if the classifier fails.
+     *
+     */
+    public int classify( int[] features ) throws Exception {
+        return classify( toValues( features ) );
+    }
+
+    /**
+     *
+     * Predict the class probability distribution of a feature vector, as computed by a <code>FeaturePipeline</code>.
+     *
+     * @param  features   Feature values, one per (non-class) attribute.
+     *
+     * @return  Array with a probability for each class value.
+     *
+     * @throws Exception  if the classifier fails.
+     *
+     */
+    public double[] distribution( int[] features ) throws Exception {
+        return distribution( toValues( features ) );
+    }
+
+    private double[] toValues( int[] features ) {
+        double[] values = new double[m_header.numAttributes()];
+        for ( int i=0, f=0; i<values.length; ++i ) {
+            if ( i != m_header.classIndex() ) {
+                values[i] = features[f++];
+            }
+        }
+        return values;
+    }
+
+    private Instance instance( double[] values ) {
+        double[] v = values;
+        if ( v.length < m_header.numAttributes() ) {   // Missing class value.
+            v = new double[m_header.numAttributes()];
+            System.arraycopy( values, 0, v, 0, values.length );
+        }
+        Instance instance = new Instance( 1.0, v );
+        instance.setDataset( m_header );
+        return instance;
+    }
+}
@@ -1,9 +1,21 @@
 package itml.simulator;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import itml.agents.Agent;
 import itml.cards.Card;
-import itml.cards.CardRest;
+import itml.cards.StandardCard;
+import itml.util.LongIntHashMap;
 
 /**
  *
@@ -17,10 +29,35 @@ import itml.cards.CardRest;
 
 public class Battle {
 
+    public static final int CANCEL_GRACE_MS = 10;   // Time an agent has to return after being cancelled (anytime mode).
+
+    /** The clock time limits are enforced on: elapsed (wall) time, or CPU time of the thread the agent runs on. */
+    public enum Clock { WALL, CPU }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    // Runs act calls in anytime mode, for all battles. Threads are created as needed (a thread stuck in an
+    // abandoned call is not reused until the call ends), are daemons, and end after a minute of idling.
+    private static final ExecutorService ACT_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+        public Thread newThread( Runnable runnable ) {
+            Thread thread = new Thread( runnable, "battle-act" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
     private int m_numColumns = 0;
     private int m_numRows = 0;
     private CardDeck m_deck;
     private StateAgent[] m_stateAgents;
+    private boolean m_isAnytime = false;      // Give agents a deadline, and play their best move so far when it passes.
+    private boolean m_isQuiet = false;        // Suppress warnings about agents (time limits, illegal actions).
+    private boolean m_isCycleDetection = false;   // End games of deterministic agents when a state repeats.
+    private LongIntHashMap m_seen;            // Keys of the states of the current game, with their step.
+    private int m_stepsSaved;                 // Steps not played in the last game, because it was a cycle.
+    private TimingStats m_timingStats;        // Where the time of act calls is recorded (null if nowhere).
+    private Clock m_clock = Clock.WALL;       // The clock time limits are enforced on.
+    private long m_anytimeCpuNanos;           // CPU time of the last act call in anytime mode.
 
 
     /**
@@ -76,6 +113,186 @@ public class Battle {
         return m_deck;
     }
 
+    /**
+     *
+     * Set whether agents act in anytime mode. In anytime mode each <code>act</code> call gets the full
+     * time per move as a deadline, and runs on a separate thread; if it has not returned when the
+     * deadline passes, the agent is cancelled and its best move so far is played (resting if it
+     * offered none). The agent must then return within <code>CANCEL_GRACE_MS</code>; an agent that does
+     * not forfeits the move (it rests), and its call is abandoned to finish on its own, on a copy of the
+     * state. Until the call returns the agent rests, and is not told about games starting or ending
+     * (see <code>Agent.isActing</code>). The calls run on a pool of daemon threads shared by all
+     * battles, so battles need not be closed.
+     *
+     * @param  isAnytime   <code>true</code> for anytime mode.
+     *
+     */
+    public void setAnytime( boolean isAnytime )
+    {
+        m_isAnytime = isAnytime;
+    }
+
+    /**
+     *
+     * Set whether warnings about agents (exceeded time limits, illegal actions) are printed.
+     *
+     * @param  isQuiet   <code>true</code> to print nothing.
+     *
+     */
+    public void setQuiet( boolean isQuiet )
+    {
+        m_isQuiet = isQuiet;
+    }
+
+    /**
+     *
+     * Set whether games are ended early when they are caught in a cycle. If every agent of a game is
+     * deterministic (see <code>Agent.isDeterministic</code>), a state that repeats (ignoring the step
+     * number) will repeat forever; as no agent was hit since it was last seen, the same agents will
+     * still be standing after the last step, and the game is ended with that result straight away.
+     *
+     * @param  isCycleDetection   <code>true</code> to detect cycles.
+     *
+     */
+    public void setCycleDetection( boolean isCycleDetection )
+    {
+        m_isCycleDetection = isCycleDetection;
+    }
+
+    /**
+     *
+     * Set the statistics the time of every act call is recorded in, by agent class.
+     *
+     * @param  timingStats   The statistics, or <code>null</code> to record nothing.
+     *
+     */
+    public void setTimingStats( TimingStats timingStats )
+    {
+        m_timingStats = timingStats;
+    }
+
+    /**
+     *
+     * Set the clock time limits are enforced on. Wall time includes anything else that happens meanwhile,
+     * such as garbage collection and other threads taking the processors, so with games running in
+     * parallel it charges agents for time they did not use; the CPU time of the agent's thread does not.
+     * The deadline of anytime mode is always in wall time, as the game cannot wait any longer than that.
+     *
+     * @param  clock   The clock.
+     *
+     * @throws IllegalArgumentException  if the CPU clock is chosen, but the JVM cannot measure thread CPU time.
+     *
+     */
+    public void setClock( Clock clock )
+    {
+        if ( clock == Clock.CPU && !isCpuTimeSupported() ) {
+            throw new IllegalArgumentException( "This JVM cannot measure the CPU time of threads" );
+        }
+        m_clock = clock;
+    }
+
+    /**
+     *
+     * Check whether the CPU time of threads can be measured (which is then switched on).
+     *
+     * @return  <code>true</code> if the CPU clock can be used.
+     *
+     */
+    public static boolean isCpuTimeSupported()
+    {
+        if ( !THREADS.isCurrentThreadCpuTimeSupported() ) {
+            return false;
+        }
+        if ( !THREADS.isThreadCpuTimeEnabled() ) {
+            THREADS.setThreadCpuTimeEnabled( true );
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Get the statistics the time of act calls is recorded in.
+     *
+     * @return  The statistics, or <code>null</code> if none are set.
+     *
+     */
+    public TimingStats getTimingStats()
+    {
+        return m_timingStats;
+    }
+
+    /**
+     *
+     * Get the number of steps the last game was ended before its maximum, because it was a cycle.
+     *
+     * @return  Number of steps saved (0 if the game was played out, or cycle detection is off).
+     *
+     */
+    public int getStepsSaved()
+    {
+        return m_stepsSaved;
+    }
+
+    /**
+     *
+     * Set the states the agents start the following games in.
+     *
+     * @param  stateAgents    Information about the initial state of the agents that will battle.
+     *
+     */
+    public void setStateAgents( StateAgent[] stateAgents )
+    {
+        m_stateAgents = stateAgents;
+    }
+
+    /**
+     *
+     * Get the states the agents start every game in.
+     * The array is shared and must not be modified.
+     *
+     * @return  Array of <code>StateAgent</code>.
+     *
+     */
+    public StateAgent[] getStateAgents()
+    {
+        return m_stateAgents;
+    }
+
+
+    /**
+     *
+     * Create initial agent states for a free-for-all battle, with agents placed on distinct random squares
+     * (as long as there are enough squares).
+     *
+     * @param  numColumns     An integer representing the number of columns of the battle arena.
+     * @param  numRows        An integer representing the number of rows of the battle arena.
+     * @param  numAgents      An integer representing the number of agents.
+     * @param  staminaPoints  Initial stamina points of each agent.
+     * @param  healthPoints   Initial health points of each agent.
+     * @param  random         Random number generator used for placing the agents.
+     *
+     * @return  Array of <code>StateAgent</code>.
+     *
+     */
+    public static StateAgent[] createStateAgents( int numColumns, int numRows, int numAgents,
+                                                  int staminaPoints, int healthPoints, Random random ) {
+        int numCells = numColumns * numRows;
+        int[] cells = new int[numCells];
+        for ( int i=0; i<numCells; ++i ) {
+            cells[i] = i;
+        }
+        StateAgent[] stateAgents = new StateAgent[numAgents];
+        for ( int a=0; a<numAgents; ++a ) {
+            // Partial Fisher-Yates shuffle, which starts over once every square is taken.
+            int k = a % numCells;
+            int j = k + random.nextInt( numCells - k );
+            int cell = cells[j];
+            cells[j] = cells[k];
+            cells[k] = cell;
+            stateAgents[a] = new StateAgent( cell % numColumns, cell / numColumns, staminaPoints, healthPoints );
+        }
+        return stateAgents;
+    }
 
     /**
     *
@@ -96,19 +313,37 @@ public class Battle {
         log.clear();
         log.add( (StateBattle) bs.clone() );
 
+        // Agents get a read-only view of the live state, instead of a copy; it is only copied if they play on it.
+        StateBattleView view = new StateBattleView( bs );
+
+        // CPU time is measured for the CPU clock, and for the statistics if it can be.
+        boolean isCpuMeasured = m_clock == Clock.CPU || (m_timingStats != null && isCpuTimeSupported());
+
+        // An agent still in a call abandoned in anytime mode is started once the call returns, and rests until then.
+        boolean[] isStarted = new boolean[agents.length];
         for ( int a=0; a < agents.length; a++ ) {
-            long msStart = System.currentTimeMillis();
-            agents[a].startGame( a, (StateBattle) bs.clone() );
-            long msDuration = System.currentTimeMillis() - msStart;
-            if ( msDuration > msPerMove ) {
-                System.out.println("WARNING: Agent " + a +
-                        " exceeded time limit in startGame("+msDuration+">"+ msPerMove+")");
+            if ( !agents[a].isActing() ) {
+                startGame( agents[a], a, view, msPerMove, isCpuMeasured );
+                isStarted[a] = true;
             }
             score[a] = 0.0;
         }
 
         Card[] actions = new Card[agents.length];
 
+        m_stepsSaved = 0;
+        boolean isCycleDetection = m_isCycleDetection;
+        for ( int a=0; a < agents.length && isCycleDetection; a++ ) {
+            isCycleDetection = agents[a].isDeterministic();
+        }
+        if ( isCycleDetection ) {
+            if ( m_seen == null ) {
+                m_seen = new LongIntHashMap( 2 * maxSteps );
+            }
+            m_seen.clear();
+            m_seen.put( cycleKey( bs ), 0 );
+        }
+
         boolean isGameOver = false;
         for ( int step=0; step<maxSteps && !isGameOver; ++step ) {
 
@@ -116,16 +351,37 @@ public class Battle {
                    System.out.println( bs.toString() );
             }
             for ( int a=0; a < agents.length; a++ ) {
-                if ( bs.getAgentState( a ).getHealthPoints() > 0 ) {
-                    long msStart = System.currentTimeMillis();
-                    Card cardAgent = agents[a].act( (StateBattle) bs.clone() );
-                    long msDuration = System.currentTimeMillis() - msStart;
-                    if ( msDuration > msPerMove ) {
+                if ( bs.getAgentState( a ).getHealthPoints() > 0 && agents[a].isActing() ) {
+                    if ( !m_isQuiet ) {
+                        System.out.println( "Agent " + a + " has not returned from an abandoned act call, resting" );
+                    }
+                    actions[a] = StandardCard.REST.getCard();
+                }
+                else if ( bs.getAgentState( a ).getHealthPoints() > 0 ) {
+                    if ( !isStarted[a] ) {
+                        startGame( agents[a], a, view, msPerMove, isCpuMeasured );
+                        isStarted[a] = true;
+                    }
+                    long nsStart = System.nanoTime();
+                    long cpuStart = cpuTime( isCpuMeasured && !m_isAnytime );
+                    Card cardAgent = m_isAnytime ? actAnytime( agents[a], bs, msPerMove, isCpuMeasured )
+                                                 : act( agents[a], view.reset() );
+                    long nsDuration = System.nanoTime() - nsStart;
+                    long cpuDuration = m_isAnytime ? m_anytimeCpuNanos : cpuTime( isCpuMeasured ) - cpuStart;
+                    long msDuration = charged( nsDuration, cpuDuration ) / 1000000;
+                    boolean isOverLimit = msDuration > msPerMove + (m_isAnytime ? CANCEL_GRACE_MS : 0);
+                    if ( m_timingStats != null ) {
+                        m_timingStats.record( agents[a].getClass().getSimpleName(), nsDuration,
+                                              isCpuMeasured ? cpuDuration : -1, isOverLimit );
+                    }
+                    if ( isOverLimit && !m_isQuiet ) {
                        System.out.println("WARNING: Agent " + a +
                                 " exceeded time limit in act ("+msDuration+">"+ msPerMove+")");
                     }
                     if ( cardAgent == null ) {
-                        System.out.println( "Quitting ..." );
+                        if ( !m_isQuiet ) {
+                            System.out.println( "Quitting ..." );
+                        }
                         return;
                     }
                     // Check if action is legal.
@@ -133,15 +389,17 @@ public class Battle {
                     StateAgent stateAgent = bs.getAgentState( a );
                     ArrayList<Card> cards = m_deck.getCards( stateAgent.getStaminaPoints() );
                     for ( Card card : cards ) {
-                        if ( card.getName().equals(cardAgent.getName()) ) {
+                        if ( card == cardAgent || card.getName().equals(cardAgent.getName()) ) {
                             actions[a] = card;
                             isLegal = true;
                             break;
                         }
                     }
                     if ( !isLegal ) {
-                        System.out.println( "Illegitimate action ..." );                        
-                        actions[a] = new CardRest();
+                        if ( !m_isQuiet ) {
+                            System.out.println( "Illegitimate action ..." );
+                        }
+                        actions[a] = StandardCard.REST.getCard();
                     }
 
                 }
@@ -151,6 +409,14 @@ public class Battle {
             }
             isGameOver = bs.play( actions );
             log.add( (StateBattle) bs.clone() );
+            if ( isCycleDetection && !isGameOver ) {
+                long key = cycleKey( bs );
+                if ( m_seen.containsKey( key ) ) {
+                    m_stepsSaved = maxSteps - (step + 1);
+                    break;
+                }
+                m_seen.put( key, step + 1 );
+            }
         }
 
         int numAgentsStillStanding = 0;
@@ -172,14 +438,126 @@ public class Battle {
         }
 
         for ( int a=0; a < agents.length; a++ ) {
-            long msStart = System.currentTimeMillis();
-            agents[a].endGame( (StateBattle) bs.clone(), score );
-            long msDuration = System.currentTimeMillis() - msStart;
-            if ( msDuration > msPerMove ) {
+            if ( !isStarted[a] || agents[a].isActing() ) {
+                continue;   // The agent has not played this game, or is still in an abandoned call.
+            }
+            long nsStart = System.nanoTime();
+            long cpuStart = cpuTime( isCpuMeasured );
+            agents[a].endGame( view.reset(), score );
+            long msDuration = charged( System.nanoTime() - nsStart, cpuTime( isCpuMeasured ) - cpuStart ) / 1000000;
+            if ( msDuration > msPerMove && !m_isQuiet ) {
                 System.out.println("WARNING: Agent " + a +
                         " exceeded time limit in endGame("+msDuration+">"+ msPerMove+")");
             }
         }
     }
 
+    // CPU time of the current thread (in nanoseconds), or 0 if it is not measured.
+    private static long cpuTime( boolean isCpuMeasured ) {
+        return isCpuMeasured ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    // The time a call is charged, on the clock limits are enforced on (in nanoseconds).
+    private long charged( long nsWall, long nsCpu ) {
+        return (m_clock == Clock.CPU) ? nsCpu : nsWall;
+    }
+
+    // Key of a state for cycle detection: the agent states and last moves, but not the step number.
+    private long cycleKey( StateBattle bs ) {
+        long key = bs.getPositionKey();
+        Card[] lastMoves = bs.getLastMoves();
+        for ( int a=0; a<lastMoves.length; ++a ) {
+            key ^= Long.rotateLeft( 0x9E3779B97F4A7C15L * (m_deck.indexOf( lastMoves[a] ) + 2), 7 * a );
+        }
+        return (key == LongIntHashMap.EMPTY) ? ~key : key;
+    }
+
+    // Tell an agent the game starts, and warn if it took too long.
+    private void startGame( Agent agent, int a, StateBattleView view, int msPerMove, boolean isCpuMeasured ) {
+        long nsStart = System.nanoTime();
+        long cpuStart = cpuTime( isCpuMeasured );
+        agent.startGame( a, view.reset() );
+        long msDuration = charged( System.nanoTime() - nsStart, cpuTime( isCpuMeasured ) - cpuStart ) / 1000000;
+        if ( msDuration > msPerMove && !m_isQuiet ) {
+            System.out.println("WARNING: Agent " + a +
+                    " exceeded time limit in startGame("+msDuration+">"+ msPerMove+")");
+        }
+    }
+
+    // Let an agent act, on the calling thread.
+    private static Card act( Agent agent, StateBattle stateBattle ) {
+        agent.beginMove();
+        try {
+            return agent.act( stateBattle );
+        }
+        finally {
+            agent.endMove();
+        }
+    }
+
+    // Let an agent act until the deadline, then take its best move so far. The call gets a view of a copy of
+    // the state, as it may outlive the move if the agent does not stop when cancelled.
+    private Card actAnytime( final Agent agent, StateBattle bs, int msPerMove, final boolean isCpuMeasured ) {
+        final StateBattle stateBattle = new StateBattle( bs ).readOnlyView();
+        final long nsStart = System.nanoTime();
+        final long deadlineNanos = nsStart + msPerMove * 1000000L;
+        final long[] cpuNanos = { -1 };   // Set by the call once it returns.
+        agent.beginMove();
+        Future<Card> future = ACT_EXECUTOR.submit( new Callable<Card>() {
+            public Card call() {
+                long cpuStart = cpuTime( isCpuMeasured );
+                try {
+                    return agent.act( stateBattle, deadlineNanos );
+                }
+                finally {
+                    cpuNanos[0] = cpuTime( isCpuMeasured ) - cpuStart;
+                    agent.endMove();
+                }
+            }
+        } );
+        boolean isInterrupted = false;
+        Card card = null;
+        try {
+            card = future.get( deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS );
+            m_anytimeCpuNanos = cpuNanos[0];
+            return card;
+        }
+        catch ( TimeoutException e ) {
+            // Fall through to the best move so far.
+        }
+        catch ( ExecutionException e ) {
+            if ( !m_isQuiet ) {
+                System.out.println( "Agent failed in act: " + e.getCause() );
+            }
+        }
+        catch ( InterruptedException e ) {
+            isInterrupted = true;
+        }
+        agent.cancel();
+        card = agent.getBestMoveSoFar();
+        // The agent must stop within the grace period; if it does not, the move is forfeit, and the agent
+        // rests until the call returns (see run).
+        try {
+            future.get( CANCEL_GRACE_MS, TimeUnit.MILLISECONDS );
+        }
+        catch ( TimeoutException e ) {
+            if ( !m_isQuiet ) {
+                System.out.println( "Agent did not stop within " + CANCEL_GRACE_MS + " ms of being cancelled, resting" );
+            }
+            card = null;
+        }
+        catch ( ExecutionException e ) {
+            // Already cancelled; its best move so far is used.
+        }
+        catch ( InterruptedException e ) {
+            isInterrupted = true;
+        }
+        // An abandoned call has not measured its CPU time yet; it is charged the wall time so far.
+        m_anytimeCpuNanos = future.isDone() ? cpuNanos[0] : System.nanoTime() - nsStart;
+        if ( isInterrupted ) {
+            Thread.currentThread().interrupt();
+        }
+        return (card != null) ? card : StandardCard.REST.getCard();
+    }
+
 }
@@ -2,6 +2,7 @@ package itml.simulator;
 
 import java.util.ArrayList;
 import itml.cards.Card;
+import itml.util.Fingerprint;
 
 /**
  *
@@ -16,6 +17,7 @@ import itml.cards.Card;
 public class CardDeck {
 
     private ArrayList<Card> m_deck;
+    private volatile ArrayList<Card>[] m_legalCards;   // Cards playable at each stamina level (built when first needed).
 
     /**
      *
@@ -35,6 +37,7 @@ public class CardDeck {
      */
     public void addCard( Card card ) {
         m_deck.add( card );
+        m_legalCards = null;
     }
 
     /**
@@ -63,6 +66,72 @@ public class CardDeck {
         return m_deck;
     }
 
+    /**
+     *
+     * Get the position of a card in the deck (a card matches itself, or a card with the same name).
+     *
+     * @param  card   The card to look for (may be <code>null</code>).
+     *
+     * @return  Index of the card, or -1 if it is not in the deck.
+     *
+     */
+    public int indexOf( Card card ) {
+        if ( card == null ) {
+            return -1;
+        }
+        for ( int i=0; i<m_deck.size(); ++i ) {
+            if ( m_deck.get( i ) == card ) {
+                return i;
+            }
+        }
+        for ( int i=0; i<m_deck.size(); ++i ) {
+            if ( m_deck.get( i ).getName().equals( card.getName() ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * Get the slot of a card in a distribution over the cards (see <code>MarkovianAgent</code>): its
+     * position in the deck, or the size of the deck for a card that is not in it (played as resting).
+     *
+     * @param  card   The card.
+     *
+     * @return  Index of the slot.
+     *
+     */
+    public int slotOf( Card card ) {
+        int index = indexOf( card );
+        return (index >= 0) ? index : m_deck.size();
+    }
+
+    /**
+     *
+     * Get a fingerprint of the deck. Two decks have the same fingerprint if they hold the same cards,
+     * with the same parameters, in the same order, so anything learned with one is valid for the other.
+     *
+     * @return  Fingerprint as a hexadecimal string.
+     *
+     */
+    public String fingerprint() {
+        Fingerprint fingerprint = new Fingerprint();
+        for ( Card c : m_deck ) {
+            fingerprint.add( c.getName() ).add( c.getType().ordinal() )
+                       .add( c.getCol() ).add( c.getRow() ).add( c.getStaminaPoints() )
+                       .add( c.getHitPoints() ).add( c.getDefencePoints() );
+            Coordinate[] range = c.getRange();
+            fingerprint.add( (range == null) ? -1 : range.length );
+            if ( range != null ) {
+                for ( Coordinate co : range ) {
+                    fingerprint.add( co.getX() ).add( co.getY() );
+                }
+            }
+        }
+        return fingerprint.toString();
+    }
+
     /**
      *
      * Get cards in deck
@@ -70,9 +139,36 @@ public class CardDeck {
      * @param  staminaPointsLevel  An integer indicating the stamina point level
      *
      * @return  Cards in deck the agent can play given that its stamina level is <code>staminaPointsLevel</code>.
+     *          The list is shared and must not be modified.
      *
      */
     public ArrayList<Card> getCards( int staminaPointsLevel ) {
+        ArrayList<Card>[] legalCards = m_legalCards;
+        if ( legalCards == null ) {
+            legalCards = buildLegalCards();
+            m_legalCards = legalCards;
+        }
+        if ( staminaPointsLevel < 0 ) {
+            return legalCards( staminaPointsLevel );   // Not a level agents get to.
+        }
+        // From the cost of the most expensive card on, every card can be played.
+        return legalCards[Math.min( staminaPointsLevel, legalCards.length - 1 )];
+    }
+
+    @SuppressWarnings( { "unchecked", "rawtypes" } )   // Arrays of a generic type can only be created raw.
+    private ArrayList<Card>[] buildLegalCards() {
+        int maxCost = 0;
+        for ( Card c : m_deck ) {
+            maxCost = Math.max( maxCost, -c.getStaminaPoints() );
+        }
+        ArrayList<Card>[] legalCards = new ArrayList[maxCost + 1];
+        for ( int level=0; level<=maxCost; ++level ) {
+            legalCards[level] = legalCards( level );
+        }
+        return legalCards;
+    }
+
+    private ArrayList<Card> legalCards( int staminaPointsLevel ) {
         ArrayList<Card> actions = new ArrayList<Card>();
         for ( Card c : m_deck ) {
             if ( staminaPointsLevel + c.getStaminaPoints() >= 0 ) {
@@ -0,0 +1,171 @@
+package itml.simulator;
+
+import itml.cards.Card;
+import itml.cards.GenericCard;
+import itml.cards.StandardCard;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Properties;
+
+/**
+ *
+ *  This class builds decks of cards from a specification, so that decks can be varied without writing
+ *  a card class for each card. The specification is a properties file:
+ *
+ *      # The cards of the deck, in order.
+ *      deck = cRest, cMoveUp, cMoveDown, cAttackLong, cAttackWide
+ *
+ *      # card.&lt;name&gt; = &lt;type&gt; &lt;col&gt; &lt;row&gt; &lt;stamina&gt; &lt;hit&gt; &lt;defence&gt; [&lt;x&gt;,&lt;y&gt; ...]
+ *      card.cAttackWide = attack 0 0 -3 1 0  -1,1 0,1 1,1
+ *
+ *  The type is move, defend or attack, and the optional coordinates are the squares, relative to the
+ *  agent, an attack affects. A card of the deck that has no definition is the standard card of that
+ *  name (see <code>StandardCard</code>), so a variant of the standard deck only has to define the cards
+ *  it changes or adds. Loaded cards are ordinary cards, with the same precomputed attack ranges, and
+ *  the deck the same tables of playable cards per stamina level, as the built-in ones.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class CardDeckLoader {
+
+    /**
+     *
+     * Create the standard deck, of the shared standard card instances.
+     *
+     * @return  <code>CardDeck</code>
+     *
+     */
+    public static CardDeck standardDeck() {
+        CardDeck deck = new CardDeck();
+        for ( StandardCard card : StandardCard.values() ) {
+            deck.addCard( card.getCard() );
+        }
+        return deck;
+    }
+
+    /**
+     *
+     * Load a deck from a specification file.
+     *
+     * @param  file   The file.
+     *
+     * @return  <code>CardDeck</code>
+     *
+     * @throws IOException               if the file cannot be read.
+     * @throws IllegalArgumentException  if the specification is not valid.
+     *
+     */
+    public static CardDeck load( File file ) throws IOException {
+        Properties spec = new Properties();
+        Reader reader = new FileReader( file );
+        try {
+            spec.load( reader );
+        }
+        finally {
+            reader.close();
+        }
+        return parse( spec );
+    }
+
+    /**
+     *
+     * Build a deck from a specification.
+     *
+     * @param  spec   The specification (see class description).
+     *
+     * @return  <code>CardDeck</code>
+     *
+     * @throws IllegalArgumentException  if the specification is not valid.
+     *
+     */
+    public static CardDeck parse( Properties spec ) {
+        String names = spec.getProperty( "deck" );
+        if ( names == null ) {
+            throw new IllegalArgumentException( "Deck specification has no 'deck' list" );
+        }
+        CardDeck deck = new CardDeck();
+        HashSet<String> seen = new HashSet<String>();
+        for ( String name : names.split( "," ) ) {
+            name = name.trim();
+            if ( name.isEmpty() ) continue;
+            if ( !seen.add( name ) ) {
+                throw new IllegalArgumentException( "Card " + name + " is in the deck twice" );
+            }
+            String definition = spec.getProperty( "card." + name );
+            if ( definition != null ) {
+                deck.addCard( parseCard( name, definition ) );
+            }
+            else if ( StandardCard.forName( name ) != null ) {
+                deck.addCard( StandardCard.forName( name ).getCard() );
+            }
+            else {
+                throw new IllegalArgumentException( "Card " + name + " is neither defined nor a standard card" );
+            }
+        }
+        return deck;
+    }
+
+    /**
+     *
+     * Create a card from its definition.
+     *
+     * @param  name         Name of the card.
+     * @param  definition   &lt;type&gt; &lt;col&gt; &lt;row&gt; &lt;stamina&gt; &lt;hit&gt; &lt;defence&gt; [&lt;x&gt;,&lt;y&gt; ...]
+     *
+     * @return  The card.
+     *
+     * @throws IllegalArgumentException  if the definition is not valid.
+     *
+     */
+    public static Card parseCard( String name, String definition ) {
+        String[] fields = definition.trim().split( "\\s+" );
+        if ( fields.length < 6 ) {
+            throw new IllegalArgumentException( "Card " + name + " needs a type and five numbers: " + definition );
+        }
+        Card.CardActionType type = parseType( name, fields[0] );
+        int[] numbers = new int[5];
+        for ( int i=0; i<numbers.length; ++i ) {
+            numbers[i] = parseInt( name, fields[i+1] );
+        }
+        ArrayList<Coordinate> range = new ArrayList<Coordinate>();
+        for ( int i=6; i<fields.length; ++i ) {
+            int comma = fields[i].indexOf( ',' );
+            if ( comma < 0 ) {
+                throw new IllegalArgumentException( "Card " + name + " has a bad coordinate: " + fields[i] );
+            }
+            range.add( new Coordinate( parseInt( name, fields[i].substring( 0, comma ) ),
+                                       parseInt( name, fields[i].substring( comma+1 ) ) ) );
+        }
+        if ( type == Card.CardActionType.ctAttack && range.isEmpty() ) {
+            throw new IllegalArgumentException( "Attack card " + name + " has no range" );
+        }
+        Card card = new GenericCard( name, type, numbers[0], numbers[1], numbers[2], numbers[3], numbers[4],
+                                     range.isEmpty() ? null : range.toArray( new Coordinate[range.size()] ) );
+        if ( !range.isEmpty() && card.getRange().length != range.size() ) {   // The card keeps each coordinate once.
+            throw new IllegalArgumentException( "Card " + name + " lists a coordinate of its range twice" );
+        }
+        return card;
+    }
+
+    private static Card.CardActionType parseType( String name, String type ) {
+        if ( type.equals( "move" ) )   return Card.CardActionType.ctMove;
+        if ( type.equals( "defend" ) ) return Card.CardActionType.ctDefend;
+        if ( type.equals( "attack" ) ) return Card.CardActionType.ctAttack;
+        throw new IllegalArgumentException( "Card " + name + " has unknown type " + type );
+    }
+
+    private static int parseInt( String name, String text ) {
+        try {
+            return Integer.parseInt( text );
+        }
+        catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "Card " + name + " has a bad number: " + text );
+        }
+    }
+}
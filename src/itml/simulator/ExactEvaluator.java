@@ -0,0 +1,246 @@
+package itml.simulator;
+
+import itml.agents.Agent;
+import itml.agents.MarkovianAgent;
+import itml.cards.Card;
+import itml.cards.StandardCard;
+import itml.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *
+ *  This class computes the exact expected score of a game between agents whose moves only depend on
+ *  the current state (see <code>MarkovianAgent</code>), instead of estimating it by playing games.
+ *
+ *  The expected score of a state is the average, over the joint moves of the agents weighted by their
+ *  probabilities, of the expected score of the state the moves lead to; after the last step, or once at
+ *  most one agent is standing, it is the score <code>Battle.run</code> would give. States are compared by
+ *  value (see <code>StateBattle.equals</code>), so each reachable (state, step) pair is evaluated once,
+ *  however many ways it is reached. The rules of <code>Battle.run</code> are followed: agents that are
+ *  down do not move, and a card the agent does not have the stamina for is played as resting.
+ *
+ *  With deterministic agents this takes one game's worth of <code>act</code> calls; with random agents
+ *  it visits every reachable state, but still gives the exact expectation rather than a noisy estimate.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class ExactEvaluator {
+
+    private final CardDeck                   m_deck;
+    private final int                        m_maxSteps;
+    private final HashMap<StateBattle, double[]> m_values = new HashMap<StateBattle, double[]>();
+    private Agent[]                          m_agents;
+    private final LongIntHashMap             m_positions = new LongIntHashMap();   // Packed position to index of its moves.
+    private final ArrayList<Card[][]>        m_positionCards = new ArrayList<Card[][]>();
+    private final ArrayList<double[][]>      m_positionProbabilities = new ArrayList<double[][]>();
+
+    /**
+     *
+     * Constructor, create an evaluator.
+     *
+     * @param  deck       The deck of cards the agents play with.
+     * @param  maxSteps   Maximum number of steps of a game.
+     *
+     */
+    public ExactEvaluator( CardDeck deck, int maxSteps ) {
+        m_deck = deck;
+        m_maxSteps = maxSteps;
+    }
+
+    /**
+     *
+     * Check whether games between agents can be evaluated exactly, i.e. all of them are Markovian.
+     *
+     * @param  agents   The agents.
+     *
+     * @return  <code>true</code> if every agent implements <code>MarkovianAgent</code>.
+     *
+     */
+    public static boolean canEvaluate( Agent[] agents ) {
+        for ( Agent agent : agents ) {
+            if ( !(agent instanceof MarkovianAgent) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * Compute the expected score of a game.
+     *
+     * @param  numColumns    Number of columns of the arena.
+     * @param  numRows       Number of rows of the arena.
+     * @param  stateAgents   Start state of each agent.
+     * @param  agents        The agents, in seat order (see <code>canEvaluate</code>).
+     *
+     * @return  Expected score of each agent.
+     *
+     */
+    public double[] evaluate( int numColumns, int numRows, StateAgent[] stateAgents, Agent[] agents ) {
+        List<StateAgent[]> starts = new ArrayList<StateAgent[]>();
+        starts.add( stateAgents );
+        return evaluate( numColumns, numRows, starts, agents );
+    }
+
+    /**
+     *
+     * Compute the expected score of a game that starts in one of several start states, each as likely.
+     * States reached from more than one start state are only evaluated once.
+     *
+     * @param  numColumns    Number of columns of the arena.
+     * @param  numRows       Number of rows of the arena.
+     * @param  starts        Start states, each with the start state of each agent.
+     * @param  agents        The agents, in seat order (see <code>canEvaluate</code>).
+     *
+     * @return  Expected score of each agent.
+     *
+     */
+    public double[] evaluate( int numColumns, int numRows, List<StateAgent[]> starts, Agent[] agents ) {
+        if ( !canEvaluate( agents ) ) {
+            throw new IllegalArgumentException( "Only games between Markovian agents can be evaluated exactly" );
+        }
+        m_agents = agents;
+        m_values.clear();
+        m_positions.clear();
+        m_positionCards.clear();
+        m_positionProbabilities.clear();
+        double[] total = new double[agents.length];
+        for ( StateAgent[] stateAgents : starts ) {
+            StateBattle bs = new StateBattle( numColumns, numRows, m_maxSteps, stateAgents );
+            StateBattle view = bs.readOnlyView();
+            for ( int a=0; a<agents.length; ++a ) {
+                agents[a].startGame( a, view );
+            }
+            double[] value = value( bs );
+            for ( int a=0; a<agents.length; ++a ) {
+                total[a] += value[a] / starts.size();
+            }
+        }
+        return total;
+    }
+
+    /**
+     *
+     * Get the number of distinct states evaluated by the last call to <code>evaluate</code>.
+     *
+     * @return  Number of states.
+     *
+     */
+    public int getNumStates() {
+        return m_values.size();
+    }
+
+    // Expected score from a state that is not over yet; the state is kept as a key and must not change.
+    private double[] value( StateBattle bs ) {
+        if ( bs.getStepNumber() >= m_maxSteps ) {
+            return score( bs );
+        }
+        double[] value = m_values.get( bs );
+        if ( value == null ) {
+            // The moves do not depend on the step number, so with two agents they are kept per position.
+            int numAgents = m_agents.length;
+            Card[][] cards = null;
+            double[][] probabilities = null;
+            long position = StateKey.canPack( bs ) ? StateKey.packPosition( bs ) : LongIntHashMap.EMPTY;
+            int index = (position != LongIntHashMap.EMPTY) ? m_positions.get( position, -1 ) : -1;
+            if ( index >= 0 ) {
+                cards = m_positionCards.get( index );
+                probabilities = m_positionProbabilities.get( index );
+            }
+            else {
+                cards = new Card[numAgents][];
+                probabilities = new double[numAgents][];
+                StateBattle view = bs.readOnlyView();
+                for ( int a=0; a<numAgents; ++a ) {
+                    if ( bs.getAgentState( a ).getHealthPoints() > 0 ) {
+                        moves( a, view, cards, probabilities );
+                    }
+                    else {
+                        cards[a] = new Card[] { null };
+                        probabilities[a] = new double[] { 1.0 };
+                    }
+                }
+                if ( position != LongIntHashMap.EMPTY ) {
+                    m_positions.put( position, m_positionCards.size() );
+                    m_positionCards.add( cards );
+                    m_positionProbabilities.add( probabilities );
+                }
+            }
+            value = new double[numAgents];
+            expand( bs, 0, 1.0, new Card[numAgents], cards, probabilities, value );
+            m_values.put( bs, value );
+        }
+        return value;
+    }
+
+    // Go through the joint moves of agents a, a+1, ..., adding the weighted value of the state each leads to.
+    private void expand( StateBattle bs, int a, double probability, Card[] move,
+                         Card[][] cards, double[][] probabilities, double[] value ) {
+        if ( a == move.length ) {
+            StateBattle next = new StateBattle( bs );
+            double[] nextValue = next.play( move ) ? score( next ) : value( next );
+            for ( int i=0; i<value.length; ++i ) {
+                value[i] += probability * nextValue[i];
+            }
+            return;
+        }
+        for ( int i=0; i<cards[a].length; ++i ) {
+            move[a] = cards[a][i];
+            expand( bs, a+1, probability * probabilities[a][i], move, cards, probabilities, value );
+        }
+    }
+
+    // The cards an agent may play in a state, with their probabilities (unplayable cards become resting).
+    private void moves( int a, StateBattle view, Card[][] cards, double[][] probabilities ) {
+        double[] distribution = ((MarkovianAgent) m_agents[a]).getActionDistribution( view );
+        ArrayList<Card> legal = m_deck.getCards( view.getAgentState( a ).getStaminaPoints() );
+        ArrayList<Card> deck = m_deck.getCards();
+        Card rest = StandardCard.REST.getCard();
+        int restSlot = m_deck.slotOf( rest );   // The slot after the deck, unless the deck has a rest card.
+        double[] p = new double[deck.size() + 1];
+        for ( int i=0; i<distribution.length; ++i ) {
+            if ( distribution[i] > 0.0 ) {
+                p[(i < deck.size() && legal.contains( deck.get( i ) )) ? i : restSlot] += distribution[i];
+            }
+        }
+        int n = 0;
+        for ( double probability : p ) {
+            if ( probability > 0.0 ) {
+                n++;
+            }
+        }
+        cards[a] = new Card[n];
+        probabilities[a] = new double[n];
+        for ( int i=0, j=0; i<p.length; ++i ) {
+            if ( p[i] > 0.0 ) {
+                cards[a][j] = (i < deck.size()) ? deck.get( i ) : rest;
+                probabilities[a][j++] = p[i];
+            }
+        }
+    }
+
+    // The score Battle.run gives for a final state.
+    private static double[] score( StateBattle bs ) {
+        double[] score = new double[bs.getNumAgents()];
+        int numAgentsStillStanding = 0;
+        for ( int a=0; a<score.length; ++a ) {
+            if ( bs.getAgentState( a ).getHealthPoints() > 0 ) {
+                numAgentsStillStanding++;
+            }
+        }
+        for ( int a=0; a<score.length; ++a ) {
+            if ( numAgentsStillStanding == 0 ) {
+                score[a] = 0.5;
+            }
+            else if ( bs.getAgentState( a ).getHealthPoints() > 0 ) {
+                score[a] = 1.0 / numAgentsStillStanding;
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,262 @@
+package itml.simulator;
+
+import itml.cards.Card;
+import itml.cards.StandardCard;
+
+import java.util.ArrayList;
+
+/**
+ *
+ *  This class provides the outcome of every joint move of two agents in a state: for each card one agent
+ *  can play (rows) and each card the other can play (columns), the key of the state the moves lead to,
+ *  how the health of both agents changes, and the distance between them afterwards. Only cards the
+ *  agents have the stamina for are included; any other agents rest.
+ *
+ *  Agents that look one move ahead would otherwise clone the state and play it for every pair of cards
+ *  they consider. The matrix plays every pair once, keeps the outcomes in primitive arrays, and is cached
+ *  with the state (see <code>StateBattle.setCached</code>), so every later question about the same state
+ *  is a table lookup.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class PayoffMatrix {
+
+    private static final Object CACHE_KEY = new Object();   // Key of the matrices cached with a state.
+
+    private final CardDeck  m_deck;
+    private final Card[]    m_myCards;
+    private final Card[]    m_opponentCards;
+    private final long[]    m_nextKeys;            // Zobrist key of the next state, by row * columns + column.
+    private final int[]     m_myHealthDeltas;
+    private final int[]     m_opponentHealthDeltas;
+    private final int[]     m_distances;           // Manhattan distance between the two agents in the next state.
+    private final boolean[] m_isGameOver;
+
+    /**
+     *
+     * Get the matrix of a state, computing it unless it is cached with the state.
+     *
+     * @param  bs         The battle state.
+     * @param  deck       The deck of cards.
+     * @param  me         Index of the agent whose cards are the rows.
+     * @param  opponent   Index of the agent whose cards are the columns.
+     *
+     * @return  The matrix (shared, read-only).
+     *
+     */
+    public static PayoffMatrix of( StateBattle bs, CardDeck deck, int me, int opponent ) {
+        int numAgents = bs.getNumAgents();
+        PayoffMatrix[] matrices = (PayoffMatrix[]) bs.getCached( CACHE_KEY );
+        if ( matrices == null ) {
+            matrices = new PayoffMatrix[numAgents * numAgents];
+            bs.setCached( CACHE_KEY, matrices );
+        }
+        PayoffMatrix matrix = matrices[me * numAgents + opponent];
+        if ( matrix == null || matrix.m_deck != deck ) {
+            matrix = new PayoffMatrix( bs, deck, me, opponent );
+            matrices[me * numAgents + opponent] = matrix;
+        }
+        return matrix;
+    }
+
+    private PayoffMatrix( StateBattle bs, CardDeck deck, int me, int opponent ) {
+        m_deck = deck;
+        m_myCards = toArray( deck.getCards( bs.getAgentState( me ).getStaminaPoints() ) );
+        m_opponentCards = toArray( deck.getCards( bs.getAgentState( opponent ).getStaminaPoints() ) );
+        int size = m_myCards.length * m_opponentCards.length;
+        m_nextKeys = new long[size];
+        m_myHealthDeltas = new int[size];
+        m_opponentHealthDeltas = new int[size];
+        m_distances = new int[size];
+        m_isGameOver = new boolean[size];
+
+        int myHealth = bs.getAgentState( me ).getHealthPoints();
+        int opponentHealth = bs.getAgentState( opponent ).getHealthPoints();
+        Card[] move = new Card[bs.getNumAgents()];
+        for ( int a=0; a<move.length; ++a ) {
+            move[a] = (bs.getAgentState( a ).getHealthPoints() > 0) ? StandardCard.REST.getCard() : null;
+        }
+        StateBattle next = new StateBattle( bs );   // Scratch state, reset before every joint move.
+        for ( int i=0; i<m_myCards.length; ++i ) {
+            for ( int j=0; j<m_opponentCards.length; ++j ) {
+                int k = i * m_opponentCards.length + j;
+                if ( k > 0 ) {
+                    next.copyFrom( bs );
+                }
+                move[me] = m_myCards[i];
+                move[opponent] = m_opponentCards[j];
+                m_isGameOver[k] = next.play( move );
+                StateAgent as = next.getAgentState( me );
+                StateAgent os = next.getAgentState( opponent );
+                m_nextKeys[k] = next.getZobristKey();
+                m_myHealthDeltas[k] = as.getHealthPoints() - myHealth;
+                m_opponentHealthDeltas[k] = os.getHealthPoints() - opponentHealth;
+                m_distances[k] = Math.abs( as.getCol() - os.getCol() ) + Math.abs( as.getRow() - os.getRow() );
+            }
+        }
+    }
+
+    private static Card[] toArray( ArrayList<Card> cards ) {
+        return cards.toArray( new Card[cards.size()] );
+    }
+
+    /**
+     *
+     * Get the number of rows, i.e. the cards the first agent can play.
+     *
+     * @return  Number of rows.
+     *
+     */
+    public int numRows() {
+        return m_myCards.length;
+    }
+
+    /**
+     *
+     * Get the number of columns, i.e. the cards the opponent can play.
+     *
+     * @return  Number of columns.
+     *
+     */
+    public int numColumns() {
+        return m_opponentCards.length;
+    }
+
+    /**
+     *
+     * Get the card of a row.
+     *
+     * @param  row   The row.
+     *
+     * @return  The card.
+     *
+     */
+    public Card getMyCard( int row ) {
+        return m_myCards[row];
+    }
+
+    /**
+     *
+     * Get the card of a column.
+     *
+     * @param  column   The column.
+     *
+     * @return  The card.
+     *
+     */
+    public Card getOpponentCard( int column ) {
+        return m_opponentCards[column];
+    }
+
+    /**
+     *
+     * Find the row of a card.
+     *
+     * @param  card   The card (matched by identity, or else by name).
+     *
+     * @return  The row, or -1 if the agent cannot play the card.
+     *
+     */
+    public int rowOf( Card card ) {
+        return indexOf( m_myCards, card );
+    }
+
+    /**
+     *
+     * Find the column of a card. A card the opponent cannot play is played as resting by the battle, so
+     * callers predicting the opponent's move may want to use the column of resting instead.
+     *
+     * @param  card   The card (matched by identity, or else by name).
+     *
+     * @return  The column, or -1 if the opponent cannot play the card.
+     *
+     */
+    public int columnOf( Card card ) {
+        return indexOf( m_opponentCards, card );
+    }
+
+    private static int indexOf( Card[] cards, Card card ) {
+        for ( int i=0; i<cards.length; ++i ) {
+            if ( cards[i] == card ) {
+                return i;
+            }
+        }
+        for ( int i=0; card != null && i<cards.length; ++i ) {
+            if ( cards[i].getName().equals( card.getName() ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * Get the Zobrist key of the state a joint move leads to (see <code>StateBattle.getZobristKey</code>).
+     *
+     * @param  row      Row of the first agent's card.
+     * @param  column   Column of the opponent's card.
+     *
+     * @return  The key.
+     *
+     */
+    public long getNextKey( int row, int column ) {
+        return m_nextKeys[row * m_opponentCards.length + column];
+    }
+
+    /**
+     *
+     * Get the change in health of the first agent after a joint move.
+     *
+     * @param  row      Row of the first agent's card.
+     * @param  column   Column of the opponent's card.
+     *
+     * @return  The change (0, or negative if the agent is hit).
+     *
+     */
+    public int getMyHealthDelta( int row, int column ) {
+        return m_myHealthDeltas[row * m_opponentCards.length + column];
+    }
+
+    /**
+     *
+     * Get the change in health of the opponent after a joint move.
+     *
+     * @param  row      Row of the first agent's card.
+     * @param  column   Column of the opponent's card.
+     *
+     * @return  The change (0, or negative if the opponent is hit).
+     *
+     */
+    public int getOpponentHealthDelta( int row, int column ) {
+        return m_opponentHealthDeltas[row * m_opponentCards.length + column];
+    }
+
+    /**
+     *
+     * Get the Manhattan distance between the two agents after a joint move.
+     *
+     * @param  row      Row of the first agent's card.
+     * @param  column   Column of the opponent's card.
+     *
+     * @return  The distance.
+     *
+     */
+    public int getDistance( int row, int column ) {
+        return m_distances[row * m_opponentCards.length + column];
+    }
+
+    /**
+     *
+     * Check whether a joint move ends the game (at most one agent left standing).
+     *
+     * @param  row      Row of the first agent's card.
+     * @param  column   Column of the opponent's card.
+     *
+     * @return  <code>true</code> if the game is over.
+     *
+     */
+    public boolean isGameOver( int row, int column ) {
+        return m_isGameOver[row * m_opponentCards.length + column];
+    }
+}
@@ -0,0 +1,334 @@
+package itml.simulator;
+
+import itml.agents.Agent;
+import itml.agents.AgentFactory;
+import itml.agents.ModelAgent;
+import itml.cards.Card;
+import itml.cards.StandardCard;
+import itml.learning.FeaturePipeline;
+import itml.learning.ModelStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ *  This class tabulates the moves of an agent into a <code>PolicyTable</code>, so that the agent can be
+ *  replaced by a table lookup (see <code>TabulatedAgent</code>).
+ *
+ *      java itml.simulator.PolicyCompiler --agent AgentTerminator --out terminator.policy [--board 5x5]
+ *                                         [--stamina 10] [--health 3] [--steps 30] [--threads 4]
+ *                                         [--deck deck.properties] [--config agents.properties]
+ *                                         [--ms-per-move 50] [--model-dir models] [--features raw]
+ *                                         [--training-tag tag] [--force]
+ *
+ *  Only agents that choose their move from the current position alone can be tabulated: the locations,
+ *  stamina and health of the two agents, and the agent's own index. Agents that do not say they are
+ *  deterministic (see <code>Agent.isDeterministic</code>) are refused, unless the compiler is forced;
+ *  learning agents are deterministic if their features do not include the history of moves. Agents that
+ *  play from a model (<code>ModelAgent</code>) load it from --model-dir, as in the headless batch mode,
+ *  and are refused if they find none. The agent is asked once for each position, as its first move of a
+ *  game (<code>startGame</code>, then <code>act</code>), with step number 0.
+ *
+ *  The positions asked about are those reachable, in either seat, from any two distinct start squares with
+ *  the given stamina and health: the agent plays its own move, and the opponent any card it can play.
+ *  They are visited breadth first; the positions of each level are split between threads, each of which
+ *  asks an agent leased from the factory, and the agent's moves lead to the next level. What is stored
+ *  is the card the battle would play, so an agent that returns a card it cannot play is stored as resting.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class PolicyCompiler {
+
+    private static final int MIN_CHUNK = 256;   // Fewest positions given to a thread at a time.
+
+    private final AgentFactory m_factory;
+    private final CardDeck     m_deck;
+    private final int          m_numColumns;
+    private final int          m_numRows;
+    private final int          m_numSteps;
+    private final int          m_numThreads;
+    private boolean            m_isForced = false;   // Tabulate agents that are not deterministic.
+
+    /**
+     *
+     * Constructor, create a compiler.
+     *
+     * @param  factory      The factory to lease agents from (its deck is the deck of the table).
+     * @param  numColumns   Number of columns of the arena.
+     * @param  numRows      Number of rows of the arena.
+     * @param  numSteps     Maximum number of steps of a game (as shown to the agent).
+     * @param  numThreads   Number of threads asking agents.
+     *
+     */
+    public PolicyCompiler( AgentFactory factory, int numColumns, int numRows, int numSteps, int numThreads ) {
+        m_factory = factory;
+        m_deck = factory.getDeck();
+        m_numColumns = numColumns;
+        m_numRows = numRows;
+        m_numSteps = numSteps;
+        m_numThreads = Math.max( 1, numThreads );
+        if ( m_deck.getCards().size() >= PolicyTable.REST ) {
+            throw new IllegalArgumentException( "The deck has too many cards to tabulate" );
+        }
+    }
+
+    /**
+     *
+     * Set whether agents that do not say they are deterministic are tabulated anyway, e.g. an agent whose
+     * moves are known to depend only on the position. A table of any other agent is wrong.
+     *
+     * @param  isForced   <code>true</code> to tabulate any agent.
+     *
+     */
+    public void setForced( boolean isForced ) {
+        m_isForced = isForced;
+    }
+
+    /**
+     *
+     * Tabulate an agent.
+     *
+     * @param  name       Alias or class name of the agent (see <code>AgentFactory</code>).
+     * @param  stamina    Stamina of the agents at the start of a game.
+     * @param  health     Health of the agents at the start of a game.
+     *
+     * @return  The table, with a move for every reachable position.
+     *
+     * @throws IllegalArgumentException  if the agent is not deterministic (and the compiler is not forced),
+     *                                   or plays from a model but has none.
+     * @throws ExecutionException        if asking the agent fails.
+     * @throws InterruptedException      if the thread is interrupted.
+     *
+     */
+    public PolicyTable compile( final String name, int stamina, int health )
+            throws ExecutionException, InterruptedException {
+        Agent agent = m_factory.lease( name );
+        try {
+            if ( agent instanceof ModelAgent && ((ModelAgent) agent).getModel() == null ) {
+                throw new IllegalArgumentException( "Agent " + name + " plays from a trained model, but none was found" );
+            }
+            if ( !agent.isDeterministic() && !m_isForced ) {
+                throw new IllegalArgumentException( "Agent " + name + " is not deterministic, so its moves cannot be tabulated" );
+            }
+        }
+        finally {
+            m_factory.release( agent );
+        }
+        final PolicyTable table = new PolicyTable( m_numColumns, m_numRows, m_deck.fingerprint() );
+        BitSet visited = new BitSet( table.size() );
+        int[] frontier = new int[64];
+        int size = 0;
+        int numCells = m_numColumns * m_numRows;
+        for ( int seat=0; seat<2; ++seat ) {
+            for ( int first=0; first<numCells; ++first ) {
+                for ( int second=0; second<numCells; ++second ) {
+                    if ( first == second && numCells > 1 ) {
+                        continue;
+                    }
+                    StateAgent[] stateAgents = {
+                        new StateAgent( first % m_numColumns, first / m_numColumns, stamina, health ),
+                        new StateAgent( second % m_numColumns, second / m_numColumns, stamina, health ) };
+                    int index = table.indexOf( seat, new StateBattle( m_numColumns, m_numRows, m_numSteps, stateAgents ) );
+                    if ( index >= 0 && !visited.get( index ) ) {
+                        visited.set( index );
+                        if ( size == frontier.length ) {
+                            frontier = Arrays.copyOf( frontier, 2 * size );
+                        }
+                        frontier[size++] = index;
+                    }
+                }
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool( m_numThreads );
+        try {
+            while ( size > 0 ) {
+                // Ask for the moves of this level, and collect the positions they lead to.
+                int chunk = Math.max( MIN_CHUNK, (size + m_numThreads - 1) / m_numThreads );
+                List<Future<int[]>> futures = new ArrayList<Future<int[]>>();
+                for ( int from=0; from<size; from+=chunk ) {
+                    final int[] indices = Arrays.copyOfRange( frontier, from, Math.min( size, from + chunk ) );
+                    futures.add( executor.submit( new Callable<int[]>() {
+                        public int[] call() {
+                            return tabulate( name, table, indices );
+                        }
+                    } ) );
+                }
+                size = 0;
+                for ( Future<int[]> future : futures ) {
+                    for ( int index : future.get() ) {
+                        if ( !visited.get( index ) ) {
+                            visited.set( index );
+                            if ( size == frontier.length ) {
+                                frontier = Arrays.copyOf( frontier, 2 * size );
+                            }
+                            frontier[size++] = index;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        return table;
+    }
+
+    // Ask a leased agent for its move in each position, and return the positions the moves lead to.
+    private int[] tabulate( String name, PolicyTable table, int[] indices ) {
+        Agent agent = m_factory.lease( name );
+        try {
+            int[] next = new int[4 * indices.length];
+            int size = 0;
+            Card[] move = new Card[2];
+            for ( int index : indices ) {
+                int seat = table.seatOf( index );
+                int opponent = 1 - seat;
+                StateBattle bs = table.stateOf( index, m_numSteps );
+                StateBattle view = bs.readOnlyView();
+                agent.startGame( seat, view );
+                Card card = legalCard( bs.getAgentState( seat ), agent.act( view ) );
+                table.set( index, PolicyTable.codeOf( m_deck, card ) );
+
+                move[seat] = card;
+                for ( Card opponentCard : m_deck.getCards( bs.getAgentState( opponent ).getStaminaPoints() ) ) {
+                    move[opponent] = opponentCard;
+                    StateBattle after = new StateBattle( bs );
+                    if ( !after.play( move ) ) {
+                        int nextIndex = table.indexOf( seat, after );
+                        if ( nextIndex >= 0 ) {
+                            if ( size == next.length ) {
+                                next = Arrays.copyOf( next, 2 * size );
+                            }
+                            next[size++] = nextIndex;
+                        }
+                    }
+                }
+            }
+            return Arrays.copyOf( next, size );
+        }
+        finally {
+            m_factory.release( agent );
+        }
+    }
+
+    // The card the battle plays for the one the agent returns (see Battle.run).
+    private Card legalCard( StateAgent as, Card card ) {
+        if ( card != null ) {
+            for ( Card legal : m_deck.getCards( as.getStaminaPoints() ) ) {
+                if ( legal == card || legal.getName().equals( card.getName() ) ) {
+                    return legal;
+                }
+            }
+        }
+        return StandardCard.REST.getCard();
+    }
+
+    /**
+     *  Tabulate an agent and write the table to a file.
+     *
+     * @param  args  Command line arguments (see class description).
+     */
+    public static void main( String[] args )
+    {
+        String agent = null;
+        String outFile = null;
+        String deckFile = null;
+        String configFile = null;
+        String modelDir = null;
+        String featureSpec = FeaturePipeline.DEFAULT_SPEC;
+        String trainingTag = "";
+        boolean isForced = false;
+        int numColumns = 5;
+        int numRows = 5;
+        int stamina = 10;
+        int health = 3;
+        int numSteps = 30;
+        int msPerMove = 50;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        try {
+            for ( int i=0; i<args.length; ++i ) {
+                String name = args[i];
+                String value;
+                int eq = name.indexOf( '=' );
+                if ( eq > 0 ) {
+                    value = name.substring( eq+1 );
+                    name = name.substring( 0, eq );
+                }
+                else if ( name.equals( "--force" ) ) {
+                    isForced = true;
+                    continue;
+                }
+                else if ( i+1 < args.length ) {
+                    value = args[++i];
+                }
+                else {
+                    throw new IllegalArgumentException( "Option " + name + " needs a value" );
+                }
+                if ( name.equals( "--agent" ) )             { agent = value; }
+                else if ( name.equals( "--out" ) )          { outFile = value; }
+                else if ( name.equals( "--deck" ) )         { deckFile = value; }
+                else if ( name.equals( "--config" ) )       { configFile = value; }
+                else if ( name.equals( "--stamina" ) )      { stamina = Integer.parseInt( value ); }
+                else if ( name.equals( "--health" ) )       { health = Integer.parseInt( value ); }
+                else if ( name.equals( "--steps" ) )        { numSteps = Integer.parseInt( value ); }
+                else if ( name.equals( "--threads" ) )      { numThreads = Integer.parseInt( value ); }
+                else if ( name.equals( "--ms-per-move" ) )  { msPerMove = Integer.parseInt( value ); }
+                else if ( name.equals( "--model-dir" ) )    { modelDir = value; }
+                else if ( name.equals( "--features" ) )     { featureSpec = value; }
+                else if ( name.equals( "--training-tag" ) ) { trainingTag = value; }
+                else if ( name.equals( "--force" ) )        { isForced = Boolean.parseBoolean( value ); }
+                else if ( name.equals( "--board" ) ) {
+                    int x = value.indexOf( 'x' );
+                    if ( x < 0 ) {
+                        throw new IllegalArgumentException( "Board must be given as <columns>x<rows>: " + value );
+                    }
+                    numColumns = Integer.parseInt( value.substring( 0, x ) );
+                    numRows = Integer.parseInt( value.substring( x+1 ) );
+                }
+                else {
+                    throw new IllegalArgumentException( "Unknown option " + name );
+                }
+            }
+            if ( agent == null || outFile == null ) {
+                throw new IllegalArgumentException( "Both --agent and --out must be given" );
+            }
+        } catch (IllegalArgumentException e) {   // Includes NumberFormatException.
+            System.err.println( e.getMessage() );
+            System.exit(2);
+        }
+        try {
+            CardDeck deck = (deckFile == null) ? CardDeckLoader.standardDeck() : CardDeckLoader.load( new File( deckFile ) );
+            FeaturePipeline.parse( featureSpec, deck );   // Only to check the specification.
+            ModelStore modelStore = new ModelStore( (modelDir == null) ? null : new File( modelDir ), featureSpec, trainingTag );
+            AgentFactory factory = new AgentFactory( deck, 0, msPerMove, 0, modelStore );
+            factory.setQuiet( true );
+            if ( configFile != null ) {
+                factory.configure( AgentFactory.loadConfig( new File( configFile ) ) );
+            }
+            long msStart = System.currentTimeMillis();
+            PolicyCompiler compiler = new PolicyCompiler( factory, numColumns, numRows, numSteps, numThreads );
+            compiler.setForced( isForced );
+            PolicyTable table = compiler.compile( agent, stamina, health );
+            table.write( new File( outFile ) );
+            System.out.println( "Tabulated " + table.numKnown() + " positions of " + agent + " in "
+                                + (System.currentTimeMillis() - msStart) + " ms" );
+        } catch (IllegalArgumentException e) {   // The agent cannot be tabulated, or the setup does not fit.
+            System.err.println( e.getMessage() );
+            System.exit(2);
+        } catch (Exception e) {
+            System.err.println( "Error: " + e );
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package itml.simulator;
+
+import itml.cards.Card;
+import itml.cards.StandardCard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ *
+ *  This class provides the type PolicyTable, the moves of an agent in a two-agent game stored as a flat
+ *  lookup table (see <code>PolicyCompiler</code>).
+ *
+ *  The table holds one byte for each seat of the agent and each position of the two agents (column, row,
+ *  stamina, and health of at least 1): the index in the deck of the card the agent plays, <code>REST</code>
+ *  for resting on a card that is not in the deck, or <code>UNKNOWN</code> for positions the agent was not
+ *  asked about. Looking up a move costs a few multiplications and one array access.
+ *
+ *  Tables are stored gzipped, so the (mostly unknown) entries of unreachable positions cost little space
+ *  on disk.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class PolicyTable {
+
+    public static final byte UNKNOWN = -1;   // The position was not tabulated.
+    public static final byte REST    = 127;  // The agent rests, with a card that is not in the deck.
+
+    public static final long MAX_ENTRIES = 1L << 30;
+
+    private static final String MAGIC = "itml.PolicyTable/1";
+
+    private final int    m_numColumns;
+    private final int    m_numRows;
+    private final int    m_numStamina;       // Stamina levels 0 ... m_numStamina-1.
+    private final int    m_numHealth;        // Health levels 1 ... m_numHealth.
+    private final int    m_numAgentPositions;
+    private final String m_deckFingerprint;
+    private final byte[] m_table;            // By (seat * positions + position of agent 0) * positions + position of agent 1.
+
+    /**
+     *
+     * Constructor, create a table with every position unknown.
+     *
+     * @param  numColumns        Number of columns of the arena.
+     * @param  numRows           Number of rows of the arena.
+     * @param  deckFingerprint   Fingerprint of the deck the card indices refer to.
+     *
+     * @throws IllegalArgumentException  if the arena is too large to be tabulated.
+     *
+     */
+    PolicyTable( int numColumns, int numRows, String deckFingerprint ) {
+        this( numColumns, numRows, StateAgent.MAX_STAMINA + 1, StateAgent.MAX_HEALTH, deckFingerprint );
+    }
+
+    private PolicyTable( int numColumns, int numRows, int numStamina, int numHealth, String deckFingerprint ) {
+        m_numColumns = numColumns;
+        m_numRows = numRows;
+        m_numStamina = numStamina;
+        m_numHealth = numHealth;
+        m_numAgentPositions = numColumns * numRows * numStamina * numHealth;
+        m_deckFingerprint = deckFingerprint;
+        long numEntries = 2L * m_numAgentPositions * m_numAgentPositions;
+        if ( numEntries > MAX_ENTRIES ) {
+            throw new IllegalArgumentException( "A " + numColumns + "x" + numRows + " arena is too large to tabulate" );
+        }
+        m_table = new byte[(int) numEntries];
+        Arrays.fill( m_table, UNKNOWN );
+    }
+
+    /**
+     *
+     * Get the number of columns of the arena.
+     *
+     * @return  Number of columns.
+     *
+     */
+    public int getNumColumns() {
+        return m_numColumns;
+    }
+
+    /**
+     *
+     * Get the number of rows of the arena.
+     *
+     * @return  Number of rows.
+     *
+     */
+    public int getNumRows() {
+        return m_numRows;
+    }
+
+    /**
+     *
+     * Get the fingerprint of the deck the table was made with (see <code>CardDeck.fingerprint</code>).
+     *
+     * @return  Fingerprint as a hexadecimal string.
+     *
+     */
+    public String getDeckFingerprint() {
+        return m_deckFingerprint;
+    }
+
+    /**
+     *
+     * Get the number of entries of the table, known or not.
+     *
+     * @return  Number of entries.
+     *
+     */
+    public int size() {
+        return m_table.length;
+    }
+
+    /**
+     *
+     * Count the positions with a known move.
+     *
+     * @return  Number of known entries.
+     *
+     */
+    public int numKnown() {
+        int n = 0;
+        for ( byte code : m_table ) {
+            if ( code != UNKNOWN ) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     *
+     * Get the entry of a state.
+     *
+     * @param  seat   Index of the agent (0 or 1).
+     * @param  bs     The battle state.
+     *
+     * @return  Index of the entry, or -1 if the state cannot be in the table (it has another arena, more
+     *          agents, or an agent that is down).
+     *
+     */
+    public int indexOf( int seat, StateBattle bs ) {
+        if ( bs.getNumAgents() != 2 || bs.getNumColumns() != m_numColumns || bs.getNumRows() != m_numRows
+          || seat < 0 || seat > 1 ) {
+            return -1;
+        }
+        int first = agentPosition( bs.getAgentState( 0 ) );
+        int second = agentPosition( bs.getAgentState( 1 ) );
+        if ( first < 0 || second < 0 ) {
+            return -1;
+        }
+        return (seat * m_numAgentPositions + first) * m_numAgentPositions + second;
+    }
+
+    private int agentPosition( StateAgent as ) {
+        int health = as.getHealthPoints() - 1;
+        int stamina = as.getStaminaPoints();
+        if ( health < 0 || health >= m_numHealth || stamina >= m_numStamina ) {
+            return -1;
+        }
+        return ((as.getRow() * m_numColumns + as.getCol()) * m_numStamina + stamina) * m_numHealth + health;
+    }
+
+    /**
+     *
+     * Get the state of an entry, with the step number 0 and no last moves.
+     *
+     * @param  index      Index of the entry.
+     * @param  numSteps   Maximum number of steps of the state.
+     *
+     * @return  A new battle state.
+     *
+     */
+    public StateBattle stateOf( int index, int numSteps ) {
+        int second = index % m_numAgentPositions;
+        int first = (index / m_numAgentPositions) % m_numAgentPositions;
+        return new StateBattle( m_numColumns, m_numRows, numSteps,
+                                new StateAgent[] { agentState( first ), agentState( second ) } );
+    }
+
+    private StateAgent agentState( int position ) {
+        int health = position % m_numHealth + 1;
+        position /= m_numHealth;
+        int stamina = position % m_numStamina;
+        int cell = position / m_numStamina;
+        return new StateAgent( cell % m_numColumns, cell / m_numColumns, stamina, health );
+    }
+
+    /**
+     *
+     * Get the seat of an entry.
+     *
+     * @param  index   Index of the entry.
+     *
+     * @return  Index of the agent (0 or 1).
+     *
+     */
+    public int seatOf( int index ) {
+        return index / m_numAgentPositions / m_numAgentPositions;
+    }
+
+    /**
+     *
+     * Get the code stored in an entry.
+     *
+     * @param  index   Index of the entry.
+     *
+     * @return  Index of the card in the deck, <code>REST</code>, or <code>UNKNOWN</code>.
+     *
+     */
+    public byte get( int index ) {
+        return m_table[index];
+    }
+
+    void set( int index, byte code ) {
+        m_table[index] = code;
+    }
+
+    /**
+     *
+     * Look up the card an agent plays in a state.
+     *
+     * @param  deck   The deck of the agent (with the fingerprint of the table).
+     * @param  seat   Index of the agent (0 or 1).
+     * @param  bs     The battle state.
+     *
+     * @return  The card, or <code>null</code> if the state is not in the table.
+     *
+     */
+    public Card lookup( CardDeck deck, int seat, StateBattle bs ) {
+        int index = indexOf( seat, bs );
+        byte code = (index >= 0) ? m_table[index] : UNKNOWN;
+        if ( code == UNKNOWN ) {
+            return null;
+        }
+        return (code == REST) ? StandardCard.REST.getCard() : deck.getCards().get( code );
+    }
+
+    /**
+     *
+     * Get the code of a card.
+     *
+     * @param  deck   The deck of the table.
+     * @param  card   The card.
+     *
+     * @return  Index of the card in the deck, or <code>REST</code> if it is not in the deck.
+     *
+     */
+    static byte codeOf( CardDeck deck, Card card ) {
+        int i = deck.indexOf( card );
+        return (i < 0) ? REST : (byte) i;
+    }
+
+    /**
+     *
+     * Write the table to a file. The file is written under a temporary name first and then renamed.
+     *
+     * @param  file   The file.
+     *
+     * @throws IOException  if writing fails.
+     *
+     */
+    public void write( File file ) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile( file.getName(), ".tmp", directory );
+        try {
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+                    new GZIPOutputStream( new FileOutputStream( temp ), 1 << 16 ), 1 << 16 ) );
+            try {
+                out.writeUTF( MAGIC );
+                out.writeUTF( m_deckFingerprint );
+                out.writeInt( m_numColumns );
+                out.writeInt( m_numRows );
+                out.writeInt( m_numStamina );
+                out.writeInt( m_numHealth );
+                out.write( m_table );
+            }
+            finally {
+                out.close();
+            }
+            Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     *
+     * Read a table from a file.
+     *
+     * @param  file   The file, as written by <code>write</code>.
+     *
+     * @return  The table.
+     *
+     * @throws IOException  if the file cannot be read or is not a policy table.
+     *
+     */
+    public static PolicyTable read( File file ) throws IOException {
+        DataInputStream in = new DataInputStream( new BufferedInputStream(
+                new GZIPInputStream( new FileInputStream( file ), 1 << 16 ), 1 << 16 ) );
+        try {
+            if ( !MAGIC.equals( in.readUTF() ) ) {
+                throw new IOException( file + " is not a policy table" );
+            }
+            String fingerprint = in.readUTF();
+            int numColumns = in.readInt();
+            int numRows = in.readInt();
+            int numStamina = in.readInt();
+            int numHealth = in.readInt();
+            if ( numColumns < 1 || numRows < 1 || numStamina < 1 || numHealth < 1 ) {
+                throw new IOException( file + " has a bad header" );
+            }
+            PolicyTable table;
+            try {
+                table = new PolicyTable( numColumns, numRows, numStamina, numHealth, fingerprint );
+            }
+            catch ( IllegalArgumentException e ) {
+                throw new IOException( file + ": " + e.getMessage() );
+            }
+            in.readFully( table.m_table );
+            return table;
+        }
+        finally {
+            in.close();
+        }
+    }
+}
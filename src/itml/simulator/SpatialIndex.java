@@ -0,0 +1,103 @@
+package itml.simulator;
+
+import java.util.Arrays;
+
+/**
+ *
+ *  This class implements the type SpatialIndex, a grid of occupancy lists that maps each square of the
+ *  arena to the agents standing on it. It lets attack resolution look only at the squares within an
+ *  attack's range, instead of checking every agent against every other agent.
+ *
+ *  Each square holds the head of a singly linked list of agent indices; the links are kept in flat
+ *  <code>int</code> arrays, so (re)building the index does not allocate. Agents located outside the
+ *  arena are kept in one extra overflow list, which is returned for any query outside the arena;
+ *  callers must therefore always compare the actual agent location with the square they asked for.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class SpatialIndex {
+
+    private final int   m_numColumns;
+    private final int   m_numRows;
+    private final int[] m_head;   // First agent on each square (last slot is the overflow list), -1 if none.
+    private final int[] m_next;   // Next agent on the same square, -1 if none.
+    private final int[] m_cell;   // Square each agent is listed on, -1 if not listed.
+
+    /**
+     *
+     * Constructor, create an empty index.
+     *
+     * @param  numColumns   An integer representing the number of columns of the arena.
+     * @param  numRows      An integer representing the number of rows of the arena.
+     * @param  numAgents    An integer representing the number of agents that can be indexed.
+     *
+     */
+    public SpatialIndex( int numColumns, int numRows, int numAgents ) {
+        m_numColumns = numColumns;
+        m_numRows = numRows;
+        m_head = new int[numColumns * numRows + 1];
+        m_next = new int[numAgents];
+        m_cell = new int[numAgents];
+        Arrays.fill( m_head, -1 );
+        Arrays.fill( m_cell, -1 );
+    }
+
+    /**
+     *
+     * (Re)build the index from the current location of the agents.
+     * Only the squares occupied before are reset, so this takes time proportional to the number of agents.
+     *
+     * @param  stateAgents  The agents to index.
+     *
+     */
+    public void build( StateAgent[] stateAgents ) {
+        for ( int a=0; a<m_cell.length; ++a ) {
+            if ( m_cell[a] >= 0 ) {
+                m_head[m_cell[a]] = -1;
+                m_cell[a] = -1;
+            }
+        }
+        // Insert in reverse order, so each list is in increasing agent order.
+        for ( int a=stateAgents.length-1; a>=0; --a ) {
+            int cell = cell( stateAgents[a].getCol(), stateAgents[a].getRow() );
+            m_next[a] = m_head[cell];
+            m_head[cell] = a;
+            m_cell[a] = cell;
+        }
+    }
+
+    /**
+     *
+     * Get the first agent listed on a square.
+     *
+     * @param  col   column of square
+     * @param  row   row of square
+     *
+     * @return  Agent index, or -1 if no agent is listed.
+     *
+     */
+    public int first( int col, int row ) {
+        return m_head[cell( col, row )];
+    }
+
+    /**
+     *
+     * Get the next agent listed on the same square as a given agent.
+     *
+     * @param  a   Agent index.
+     *
+     * @return  Agent index, or -1 if there are no more agents.
+     *
+     */
+    public int next( int a ) {
+        return m_next[a];
+    }
+
+    private int cell( int col, int row ) {
+        if ( col < 0 || col >= m_numColumns || row < 0 || row >= m_numRows ) {
+            return m_head.length - 1;
+        }
+        return row * m_numColumns + col;
+    }
+}
@@ -21,6 +21,8 @@ public class StateAgent {
      private int m_row;
      private int m_staminaPoints;
      private int m_healthPoints;
+     private StateBattle m_owner;   // Battle state whose hash must follow changes (see StateBattle.getZobristKey).
+     private int m_index;           // Index of this agent in the owner.
 
     /**
      *
@@ -118,6 +120,9 @@ public class StateAgent {
       *
       */
     public void setCol( int col ) {
+        if ( m_owner != null ) {
+            m_owner.agentChanged( m_index, Zobrist.COL, m_col, col );
+        }
         m_col = col;
     }
 
@@ -129,6 +134,9 @@ public class StateAgent {
       *
       */
     public void setRow( int row ) {
+        if ( m_owner != null ) {
+            m_owner.agentChanged( m_index, Zobrist.ROW, m_row, row );
+        }
         m_row = row;
     }
 
@@ -140,8 +148,11 @@ public class StateAgent {
       *
       */
     public void setStaminaPoints( int points ) {
-        m_staminaPoints = Math.max(0, Math.min(MAX_STAMINA, points));
-
+        points = Math.max(0, Math.min(MAX_STAMINA, points));
+        if ( m_owner != null ) {
+            m_owner.agentChanged( m_index, Zobrist.STAMINA, m_staminaPoints, points );
+        }
+        m_staminaPoints = points;
     }
 
     /**
@@ -152,7 +163,53 @@ public class StateAgent {
       *
       */
     public void setHealthPoints( int points ) {
-        m_healthPoints = Math.max(0, Math.min(MAX_HEALTH, points));
+        points = Math.max(0, Math.min(MAX_HEALTH, points));
+        if ( m_owner != null ) {
+            m_owner.agentChanged( m_index, Zobrist.HEALTH, m_healthPoints, points );
+        }
+        m_healthPoints = points;
+    }
+
+    /**
+      *
+      * Make a battle state the owner of this agent state, so that the state's hash follows any change.
+      *
+      * @param owner  The battle state.
+      * @param index  Index of this agent in the battle state.
+      *
+      */
+    void setOwner( StateBattle owner, int index ) {
+        m_owner = owner;
+        m_index = index;
+    }
+
+    /**
+      *
+      * Compare with another agent state by value (location, stamina and health).
+      * Agent states are mutable, so one used as a key must not be changed afterwards.
+      *
+      * @param  o  The object to compare with.
+      *
+      * @return  <code>true</code> if the other object is an agent state with the same values.
+      *
+      */
+    @Override
+    public boolean equals( Object o ) {
+        if ( o == this ) {
+            return true;
+        }
+        if ( !(o instanceof StateAgent) ) {
+            return false;
+        }
+        StateAgent as = (StateAgent) o;
+        return getCol() == as.getCol() && getRow() == as.getRow()
+            && getStaminaPoints() == as.getStaminaPoints() && getHealthPoints() == as.getHealthPoints();
+    }
+
+    @Override
+    public int hashCode() {
+        long key = Zobrist.agentKey( 0, this );
+        return (int) (key ^ (key >>> 32));
     }
 
  }
@@ -3,18 +3,27 @@ package itml.simulator;
 /**
  *
  *  This class implements the type StateBattle, which keeps track of the current state of a battle.
- *  (i.e., size of arena and information about the two competing agents and their last actions).
+ *  (i.e., size of arena and information about the competing agents and their last actions).
+ *
+ *  Any number of agents can compete (free-for-all). With many agents, attacks are resolved through
+ *  a spatial index, so only agents within an attack's range are looked at.
  *
  * @author      Yngvi Bjornsson
  *
  * @version     %I%, %G%
  *
  */
-import itml.agents.AgentFresco;
 import itml.cards.Card;
 
+import java.util.Arrays;
+
 public class StateBattle {
 
+    // Number of agents from which on attacks are resolved through the spatial index.
+    private static final int INDEX_THRESHOLD = 8;
+
+    private static final Card.CardActionType[] ACTION_TYPES = Card.CardActionType.values();
+
     final private int m_numColumns;
     final private int m_numRows;
     final private int m_numSteps;
@@ -22,6 +31,11 @@ public class StateBattle {
     private int m_stepNumber;
     private StateAgent[] m_stateAgent;
     private Card[] m_lastMove;
+    private SpatialIndex m_index;   // Built on demand, only used with many agents.
+    private Object[] m_cacheKeys;   // Values derived from this state (e.g. features), dropped by play().
+    private Object[] m_cacheValues;
+    private int[] m_defense;   // Scratch space for play( ), not part of the state.
+    private long m_positionKey;   // Zobrist hash of the agent states, kept up to date by the agents' setters.
 
     /**
      *
@@ -43,6 +57,7 @@ public class StateBattle {
             m_stateAgent[a] = new StateAgent( stateAgents[a] );
         }
         m_lastMove = new Card[stateAgents.length];
+        adoptAgents();
     }
 
     /**
@@ -57,16 +72,70 @@ public class StateBattle {
         m_numRows = bs.getNumRows();
         m_numSteps = bs.getNumSteps();
         m_stepNumber= bs.getStepNumber();
-        m_stateAgent = new StateAgent[bs.m_stateAgent.length];
+        m_stateAgent = new StateAgent[bs.getNumAgents()];
         for ( int a=0; a<m_stateAgent.length; ++a ) {
-            m_stateAgent[a] = new StateAgent( bs.m_stateAgent[a] );
+            m_stateAgent[a] = new StateAgent( bs.getAgentState( a ) );
         }
-        m_lastMove = new Card[bs.m_lastMove.length];
+        Card[] lastMove = bs.getLastMoves();
+        m_lastMove = new Card[lastMove.length];
         for ( int a=0; a<m_lastMove.length; ++a ) {
-            m_lastMove[a] = bs.m_lastMove[a];   // No need to clone the cards themselves as they are immutable.
+            m_lastMove[a] = lastMove[a];   // No need to clone the cards themselves as they are immutable.
+        }
+        adoptAgents();
+    }
+
+    /**
+      *
+      * Constructor for subclasses that provide the agent states themselves (such as read-only views).
+      *
+      * @param  numColumns   An integer representing the number of column of the arena.
+      * @param  numRows      An integer representing the number of rows of the arena.
+      * @param  numSteps     An integer representing the maximum number of steps (turns) a battle can take.
+      *
+      */
+    protected StateBattle( int numColumns, int numRows, int numSteps ) {
+        m_numColumns = numColumns;
+        m_numRows = numRows;
+        m_numSteps = numSteps;
+        m_stateAgent = new StateAgent[0];
+        m_lastMove = new Card[0];
+    }
+
+    // Take ownership of the agent states, and compute the hash from scratch.
+    private void adoptAgents() {
+        m_positionKey = 0;
+        for ( int a=0; a<m_stateAgent.length; ++a ) {
+            m_stateAgent[a].setOwner( this, a );
+            m_positionKey ^= Zobrist.agentKey( a, m_stateAgent[a] );
         }
     }
 
+    /**
+      *
+      * Update the hash for a changed value of an agent (called by the agent state's setters).
+      *
+      * @param  a          Index of the agent.
+      * @param  feature    The feature that changed (see <code>Zobrist</code>).
+      * @param  oldValue   The value before the change.
+      * @param  newValue   The value after the change.
+      *
+      */
+    void agentChanged( int a, int feature, int oldValue, int newValue ) {
+        m_positionKey ^= Zobrist.agentKey( a, feature, oldValue ) ^ Zobrist.agentKey( a, feature, newValue );
+    }
+
+    /**
+      *
+      * Get a read-only view of this state. The view reads through to this state (so it follows any later
+      * changes), and is only copied if <code>play</code> is called on it.
+      *
+      * @return  A read-only view.
+      *
+      */
+    public StateBattle readOnlyView() {
+        return new StateBattleView( this );
+    }
+
     /**
       *
       * Clone battle state.
@@ -78,6 +147,35 @@ public class StateBattle {
         return new StateBattle( this );
     }
 
+    /**
+      *
+      * Make this state a copy of another state of the same battle, without allocating anything.
+      *
+      * @param  bs     Battle state to copy (same arena, number of steps and number of agents).
+      *
+      */
+    public void copyFrom( StateBattle bs ) {
+        if ( bs.getNumAgents() != m_stateAgent.length || bs.getNumColumns() != m_numColumns
+          || bs.getNumRows() != m_numRows || bs.getNumSteps() != m_numSteps ) {
+            throw new IllegalArgumentException( "Can only copy a state of the same battle" );
+        }
+        m_stepNumber = bs.getStepNumber();
+        Card[] lastMove = bs.getLastMoves();
+        for ( int a=0; a<m_stateAgent.length; ++a ) {
+            StateAgent from = bs.getAgentState( a );
+            StateAgent to = m_stateAgent[a];
+            to.setCol( from.getCol() );
+            to.setRow( from.getRow() );
+            to.setStaminaPoints( from.getStaminaPoints() );
+            to.setHealthPoints( from.getHealthPoints() );
+            m_lastMove[a] = lastMove[a];
+        }
+        if ( m_cacheKeys != null ) {
+            Arrays.fill( m_cacheKeys, null );
+            Arrays.fill( m_cacheValues, null );
+        }
+    }
+
     /**
       *
       * Get number of columns of arena.
@@ -122,11 +220,51 @@ public class StateBattle {
         return m_stepNumber;
     }
 
+    /**
+      *
+      * Get the number of agents in the battle.
+      *
+      * @return  An integer representing number of agents
+      *
+      */
+    public int getNumAgents() {
+        return m_stateAgent.length;
+    }
+
+    /**
+      *
+      * Get the opponent closest (in Manhattan distance) to an agent. Agents still standing are preferred;
+      * ties are broken by the lowest agent index. With two agents this is simply the other agent.
+      *
+      * @param   a  An integer representing the agent number.
+      *
+      * @return  Index of the nearest opponent, or -1 if there is no other agent.
+      *
+      */
+    public int getNearestOpponent( int a ) {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        boolean bestStanding = false;
+        StateAgent as = m_stateAgent[a];
+        for ( int oa=0; oa<m_stateAgent.length; ++oa ) {
+            if ( oa == a ) continue;
+            StateAgent os = m_stateAgent[oa];
+            boolean standing = os.getHealthPoints() > 0;
+            int distance = Math.abs( as.getCol() - os.getCol() ) + Math.abs( as.getRow() - os.getRow() );
+            if ( best < 0 || (standing && !bestStanding) || (standing == bestStanding && distance < bestDistance) ) {
+                best = oa;
+                bestDistance = distance;
+                bestStanding = standing;
+            }
+        }
+        return best;
+    }
+
     /**
       *
       * Get information about an agent.
       *
-      * @param   a  An integer representing the agent number (0 or 1).
+      * @param   a  An integer representing the agent number (0 ... number of agents - 1).
       *
       * @return  State of agent <code>a</code>
       *
@@ -146,6 +284,128 @@ public class StateBattle {
         return m_lastMove;
     }
 
+    /**
+      *
+      * Get the 64-bit Zobrist hash of the location, stamina and health of every agent (not the step number).
+      * The hash is updated as the state changes, so getting it takes constant time.
+      *
+      * @return  The hash.
+      *
+      */
+    public long getPositionKey() {
+        return m_positionKey;
+    }
+
+    /**
+      *
+      * Get the 64-bit Zobrist hash of the state: the location, stamina and health of every agent, and the
+      * step number. Equal states have equal hashes; the last moves are not part of the state's value.
+      *
+      * @return  The hash.
+      *
+      */
+    public long getZobristKey() {
+        return m_positionKey ^ Zobrist.stepKey( m_stepNumber );
+    }
+
+    /**
+      *
+      * Compare with another battle state by value: arena size, number of steps, step number, and the
+      * location, stamina and health of every agent (the same values the hash covers). States are mutable,
+      * so one used as a key must not be played on afterwards.
+      *
+      * @param  o  The object to compare with.
+      *
+      * @return  <code>true</code> if the other object is a battle state with the same values.
+      *
+      */
+    @Override
+    public boolean equals( Object o ) {
+        if ( o == this ) {
+            return true;
+        }
+        if ( !(o instanceof StateBattle) ) {
+            return false;
+        }
+        StateBattle bs = (StateBattle) o;
+        if ( getZobristKey() != bs.getZobristKey() || getNumAgents() != bs.getNumAgents()
+          || getStepNumber() != bs.getStepNumber() || getNumSteps() != bs.getNumSteps()
+          || getNumColumns() != bs.getNumColumns() || getNumRows() != bs.getNumRows() ) {
+            return false;
+        }
+        for ( int a=0; a<getNumAgents(); ++a ) {
+            if ( !getAgentState( a ).equals( bs.getAgentState( a ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long key = getZobristKey();
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+      *
+      * Set the last action of an agent (used when building mirrored states, see <code>Symmetry</code>).
+      *
+      * @param  a      An integer representing the agent number.
+      * @param  card   The card.
+      *
+      */
+    void setLastMove( int a, Card card ) {
+        m_lastMove[a] = card;
+    }
+
+    /**
+      *
+      * Get a value previously derived from this state (and cached with <code>setCached</code>).
+      * The cache is emptied whenever the state changes through <code>play</code>.
+      *
+      * @param  key   The owner of the value (e.g. the object that computed it).
+      *
+      * @return  The cached value, or <code>null</code> if none.
+      *
+      */
+    public Object getCached( Object key ) {
+        if ( m_cacheKeys != null ) {
+            for ( int i=0; i<m_cacheKeys.length && m_cacheKeys[i] != null; ++i ) {
+                if ( m_cacheKeys[i] == key ) {
+                    return m_cacheValues[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+      *
+      * Cache a value derived from this state. The value must only depend on the state, as the state
+      * itself is not changed by this call. Only a handful of values are expected per state.
+      *
+      * @param  key     The owner of the value (compared by identity).
+      * @param  value   The value to cache.
+      *
+      */
+    public void setCached( Object key, Object value ) {
+        if ( m_cacheKeys == null ) {
+            m_cacheKeys = new Object[4];
+            m_cacheValues = new Object[4];
+        }
+        int i = 0;
+        while ( i < m_cacheKeys.length && m_cacheKeys[i] != null && m_cacheKeys[i] != key ) {
+            ++i;
+        }
+        if ( i == m_cacheKeys.length ) {
+            m_cacheKeys = Arrays.copyOf( m_cacheKeys, 2 * i );
+            m_cacheValues = Arrays.copyOf( m_cacheValues, 2 * i );
+        }
+        m_cacheKeys[i] = key;
+        m_cacheValues[i] = value;
+    }
+
     /**
       *
       * Get string representation of battle state.
@@ -156,22 +416,19 @@ public class StateBattle {
     public String toString() {
 
         String symbol = "0123456789abcdef";
+        int numColumns = this.getNumColumns();
+        char[] board = new char[numColumns * this.getNumRows()];
+        Arrays.fill( board, '.' );
+        for ( int a = 0; a < m_stateAgent.length; ++a ) {
+            int col = m_stateAgent[a].getCol();
+            int row = m_stateAgent[a].getRow();
+            if ( col < 0 || col >= numColumns || row < 0 || row >= this.getNumRows() ) continue;
+            int i = row * numColumns + col;
+            board[i] = (board[i] == '.') ? ((a < symbol.length()) ? symbol.charAt(a) : '#') : '*';
+        }
         StringBuilder text = new StringBuilder();
         for ( int row = this.getNumRows()-1; row >= 0; --row ) {
-            for ( int col = 0; col < this.getNumColumns(); ++col ) {
-                char c = '.';
-                for ( int a = 0; a < m_stateAgent.length; ++a ) {
-                    if ( m_stateAgent[a].getCol() == col && m_stateAgent[a].getRow() == row ) {
-                        if ( c == '.' ) {
-                            c = symbol.charAt(a);
-                        }
-                        else {
-                            c = '*';
-                        }
-                    }
-                }
-                text.append( c );
-            }
+            text.append( board, row * numColumns, numColumns );
             text.append( "\n" );
         }
         text.append( "step:" + m_stepNumber + " (" + m_numSteps + ")" );
@@ -196,13 +453,21 @@ public class StateBattle {
       */
     public boolean play( Card[] cards ) {
 
-        int defense[] = new int[cards.length];
-
-        for ( int a=0; a<defense.length; ++a ) {
-            defense[a] = 0;
+        if ( m_defense == null || m_defense.length < cards.length ) {
+            m_defense = new int[cards.length];
         }
+        int[] defense = m_defense;
+        Arrays.fill( defense, 0, cards.length, 0 );
+
+        for ( Card.CardActionType type : ACTION_TYPES ) {
 
-        for ( Card.CardActionType type : Card.CardActionType.values() ) {
+            if ( type == Card.CardActionType.ctAttack && m_stateAgent.length >= INDEX_THRESHOLD ) {
+                // All moves are done, so locations stay fixed while attacks are resolved.
+                if ( m_index == null ) {
+                    m_index = new SpatialIndex( m_numColumns, m_numRows, m_stateAgent.length );
+                }
+                m_index.build( m_stateAgent );
+            }
 
             for ( int a=0; a < m_stateAgent.length; ++a ) {
 
@@ -223,6 +488,11 @@ public class StateBattle {
                     m_stateAgent[a].setStaminaPoints( m_stateAgent[a].getStaminaPoints() + cards[a].getStaminaPoints() );
                     break;
                 case ctAttack:
+                    if ( m_stateAgent.length >= INDEX_THRESHOLD ) {
+                        attackIndexed( a, cards[a], defense );
+                        m_stateAgent[a].setStaminaPoints( m_stateAgent[a].getStaminaPoints() + cards[a].getStaminaPoints() );
+                        break;
+                    }
                     for ( int oa=0; oa< m_stateAgent.length; ++oa ) {
                         if ( oa != a && (cards[a].getHitPoints() > defense[oa]) &&
                             cards[a].inAttackRange( m_stateAgent[a].getCol(), m_stateAgent[a].getRow(),
@@ -239,6 +509,10 @@ public class StateBattle {
         }
 
         m_stepNumber++;
+        if ( m_cacheKeys != null ) {
+            Arrays.fill( m_cacheKeys, null );
+            Arrays.fill( m_cacheValues, null );
+        }
 
         int numAgentsStillStanding = 0;
         for ( int a=0; a < m_stateAgent.length; ++a ) {
@@ -251,4 +525,29 @@ public class StateBattle {
         return numAgentsStillStanding <= 1;
     }
 
+    /**
+      *
+      * Resolve an attack by looking up, through the spatial index, only the squares within the card's range.
+      * The range of a card lists each relative coordinate once (see <code>Card</code>), so each square is hit once.
+      *
+      * @param  a        Index of the attacking agent.
+      * @param  card     The attack card played.
+      * @param  defense  Defence points of each agent.
+      *
+      */
+    private void attackIndexed( int a, Card card, int[] defense ) {
+        int colA = m_stateAgent[a].getCol();
+        int rowA = m_stateAgent[a].getRow();
+        for ( Coordinate co : card.getRange() ) {
+            int col = colA + co.getX();
+            int row = rowA + co.getY();
+            for ( int oa = m_index.first( col, row ); oa >= 0; oa = m_index.next( oa ) ) {
+                StateAgent so = m_stateAgent[oa];
+                if ( oa != a && (card.getHitPoints() > defense[oa]) && so.getCol() == col && so.getRow() == row ) {
+                    so.setHealthPoints( so.getHealthPoints() - (card.getHitPoints()-defense[oa]) );
+                }
+            }
+        }
+    }
+
 }
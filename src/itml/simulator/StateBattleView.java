@@ -0,0 +1,192 @@
+package itml.simulator;
+
+import itml.cards.Card;
+
+/**
+ *
+ *  This class implements a read-only view of a battle state, which is what agents are handed in
+ *  <code>startGame</code>, <code>act</code> and <code>endGame</code> instead of a full copy.
+ *
+ *  The view reads straight through to the live state, and the agent states it returns cannot be
+ *  modified. The state is only copied if an agent calls <code>play</code> on the view itself; from
+ *  then on the view shows the agent's private, modified copy. <code>clone</code> always returns an
+ *  independent (modifiable) copy. A view is only valid for the duration of the call it was passed to,
+ *  so agents that want to keep a state around must clone it.
+ *
+ *  Every public method of <code>StateBattle</code> that reads the state must be overridden here.
+ *
+ * @version     %I%, %G%
+ *
+ */
+class StateBattleView extends StateBattle {
+
+    private final StateBattle   m_source;
+    private final StateAgent[]  m_agentViews;
+    private final Card[]        m_lastMoves;   // Buffer the last moves are copied into, so agents cannot modify the real ones.
+    private StateBattle         m_copy;        // Private copy, created when the agent calls play().
+
+    /**
+     *
+     * Constructor, create a view of a battle state.
+     *
+     * @param  source   The (live) battle state.
+     *
+     */
+    StateBattleView( StateBattle source ) {
+        super( source.getNumColumns(), source.getNumRows(), source.getNumSteps() );
+        m_source = source;
+        m_agentViews = new StateAgent[source.getNumAgents()];
+        for ( int a=0; a<m_agentViews.length; ++a ) {
+            m_agentViews[a] = new ReadOnly( source.getAgentState( a ) );
+        }
+        m_lastMoves = new Card[source.getNumAgents()];
+    }
+
+    /**
+     *
+     * Drop any private copy, so the view again shows the live state. Called before the view is handed out.
+     *
+     * @return  This view.
+     *
+     */
+    StateBattleView reset() {
+        m_copy = null;
+        return this;
+    }
+
+    private StateBattle current() {
+        return (m_copy != null) ? m_copy : m_source;
+    }
+
+    @Override
+    public Object clone() {
+        return new StateBattle( current() );
+    }
+
+    @Override
+    public void copyFrom( StateBattle bs ) {
+        m_copy = new StateBattle( bs );   // Like play(), only ever changes a private copy.
+    }
+
+    @Override
+    public int getStepNumber() {
+        return current().getStepNumber();
+    }
+
+    @Override
+    public int getNumAgents() {
+        return m_agentViews.length;
+    }
+
+    @Override
+    public int getNearestOpponent( int a ) {
+        return current().getNearestOpponent( a );
+    }
+
+    @Override
+    public StateAgent getAgentState( int a ) {
+        return (m_copy != null) ? m_copy.getAgentState( a ) : m_agentViews[a];
+    }
+
+    @Override
+    public Card[] getLastMoves() {
+        if ( m_copy != null ) {
+            return m_copy.getLastMoves();
+        }
+        System.arraycopy( m_source.getLastMoves(), 0, m_lastMoves, 0, m_lastMoves.length );
+        return m_lastMoves;
+    }
+
+    @Override
+    public long getPositionKey() {
+        return current().getPositionKey();
+    }
+
+    @Override
+    public long getZobristKey() {
+        return current().getZobristKey();
+    }
+
+    @Override
+    public Object getCached( Object key ) {
+        return current().getCached( key );
+    }
+
+    @Override
+    public void setCached( Object key, Object value ) {
+        current().setCached( key, value );
+    }
+
+    @Override
+    public String toString() {
+        return current().toString();
+    }
+
+    @Override
+    public boolean play( Card[] cards ) {
+        if ( m_copy == null ) {
+            m_copy = new StateBattle( m_source );
+        }
+        return m_copy.play( cards );
+    }
+
+    /**
+     *
+     *  Read-only agent state, reading through to the live agent state.
+     *
+     */
+    private static class ReadOnly extends StateAgent {
+
+        private final StateAgent m_state;
+
+        ReadOnly( StateAgent state ) {
+            super( state );
+            m_state = state;
+        }
+
+        @Override
+        public Object clone() {
+            return new StateAgent( m_state );
+        }
+
+        @Override
+        public int getCol() {
+            return m_state.getCol();
+        }
+
+        @Override
+        public int getRow() {
+            return m_state.getRow();
+        }
+
+        @Override
+        public int getStaminaPoints() {
+            return m_state.getStaminaPoints();
+        }
+
+        @Override
+        public int getHealthPoints() {
+            return m_state.getHealthPoints();
+        }
+
+        @Override
+        public void setCol( int col ) {
+            throw new UnsupportedOperationException( "Battle state is read-only, clone() it first" );
+        }
+
+        @Override
+        public void setRow( int row ) {
+            throw new UnsupportedOperationException( "Battle state is read-only, clone() it first" );
+        }
+
+        @Override
+        public void setStaminaPoints( int points ) {
+            throw new UnsupportedOperationException( "Battle state is read-only, clone() it first" );
+        }
+
+        @Override
+        public void setHealthPoints( int points ) {
+            throw new UnsupportedOperationException( "Battle state is read-only, clone() it first" );
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package itml.simulator;
+
+/**
+ *
+ *  This class packs the state of a two-agent battle into a single <code>long</code>, for use as a key
+ *  in transposition and lookup tables.
+ *
+ *  Each agent takes 20 bits (column and row 6 bits each, stamina and health 4 bits each), and the step
+ *  number the 16 bits above those, so arenas can be at most 64 x 64. Last moves are not included.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class StateKey {
+
+    public static final int MAX_SIZE = 64;
+
+    private StateKey() {
+    }
+
+    /**
+     *
+     * Check whether a battle state can be packed.
+     *
+     * @param  bs   The battle state.
+     *
+     * @return  <code>true</code> if the battle has two agents and fits in the key.
+     *
+     */
+    public static boolean canPack( StateBattle bs ) {
+        return bs.getNumAgents() == 2 && bs.getNumColumns() <= MAX_SIZE && bs.getNumRows() <= MAX_SIZE;
+    }
+
+    /**
+     *
+     * Pack the positions, stamina and health of both agents (but not the step number).
+     *
+     * @param  bs   The battle state (see <code>canPack</code>).
+     *
+     * @return  Packed key.
+     *
+     */
+    public static long packPosition( StateBattle bs ) {
+        return ((long) packAgent( bs.getAgentState( 1 ) ) << 20) | packAgent( bs.getAgentState( 0 ) );
+    }
+
+    /**
+     *
+     * Pack the positions, stamina and health of both agents, and the step number.
+     *
+     * @param  bs   The battle state (see <code>canPack</code>).
+     *
+     * @return  Packed key.
+     *
+     */
+    public static long pack( StateBattle bs ) {
+        return ((long) (bs.getStepNumber() & 0xFFFF) << 40) | packPosition( bs );
+    }
+
+    private static int packAgent( StateAgent as ) {
+        return (as.getCol() & 0x3F)
+             | (as.getRow() & 0x3F) << 6
+             | (as.getStaminaPoints() & 0xF) << 12
+             | (as.getHealthPoints() & 0xF) << 16;
+    }
+}
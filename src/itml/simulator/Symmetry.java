@@ -0,0 +1,283 @@
+package itml.simulator;
+
+import itml.cards.Card;
+
+import java.util.ArrayList;
+
+/**
+ *
+ *  This class maps battle states to a canonical representative under the mirror symmetries of the
+ *  arena, so that tables keyed by state (caches, solvers, training data) need only hold one of the up
+ *  to four states that play out the same way.
+ *
+ *  There are four transforms: the identity, mirroring the columns (left/right), mirroring the rows
+ *  (up/down), and both. Mirroring the arena also mirrors the cards, e.g. cMoveLeft becomes cMoveRight,
+ *  so a transform is only a symmetry of the game if every card of the deck has a mirror image in the
+ *  deck. This is worked out from the card definitions (offsets, points and attack ranges) when the
+ *  object is created, so decks that are not symmetric simply have fewer transforms.
+ *
+ *  Each transform is its own inverse: applying it twice gives the original state, and
+ *  <code>mapCard</code> with the same transform maps a move chosen in the transformed state back to
+ *  the original one.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class Symmetry {
+
+    public static final int IDENTITY       = 0;
+    public static final int MIRROR_COLUMNS = 1;
+    public static final int MIRROR_ROWS    = 2;
+    public static final int MIRROR_BOTH    = MIRROR_COLUMNS | MIRROR_ROWS;
+
+    private final CardDeck m_deck;
+    private final int[]    m_transforms;   // The transforms that are symmetries of the deck, identity first.
+    private final int[][]  m_cardMap;      // Per transform, the deck index of the image of each card (null if none).
+
+    /**
+     *
+     * Constructor, find the symmetries of a deck.
+     *
+     * @param  deck   The deck of cards.
+     *
+     */
+    public Symmetry( CardDeck deck ) {
+        m_deck = deck;
+        m_cardMap = new int[4][];
+        ArrayList<Card> cards = deck.getCards();
+        int numTransforms = 0;
+        for ( int t=IDENTITY; t<=MIRROR_BOTH; ++t ) {
+            int[] map = new int[cards.size()];
+            for ( int i=0; map != null && i<map.length; ++i ) {
+                map[i] = findImage( cards, cards.get( i ), t );
+                if ( map[i] < 0 ) {
+                    map = null;
+                }
+            }
+            m_cardMap[t] = map;
+            if ( map != null ) {
+                numTransforms++;
+            }
+        }
+        m_transforms = new int[numTransforms];
+        for ( int t=IDENTITY, n=0; t<=MIRROR_BOTH; ++t ) {
+            if ( m_cardMap[t] != null ) {
+                m_transforms[n++] = t;
+            }
+        }
+    }
+
+    /**
+     *
+     * Get the transforms that are symmetries of the deck.
+     *
+     * @return  Array of transforms, the first being <code>IDENTITY</code>. Must not be modified.
+     *
+     */
+    public int[] getTransforms() {
+        return m_transforms;
+    }
+
+    /**
+     *
+     * Check whether a transform is a symmetry of the deck.
+     *
+     * @param  transform   The transform.
+     *
+     * @return  <code>true</code> if the transform is a symmetry.
+     *
+     */
+    public boolean isSymmetry( int transform ) {
+        return m_cardMap[transform] != null;
+    }
+
+    /**
+     *
+     * Get the mirror image of a card under a transform. As transforms are their own inverse, this also
+     * maps a card back from the transformed state to the original.
+     *
+     * @param  card        A card of the deck (may be <code>null</code>).
+     * @param  transform   A symmetry of the deck.
+     *
+     * @return  The image of the card, or <code>null</code> if the card is <code>null</code>.
+     *
+     */
+    public Card mapCard( Card card, int transform ) {
+        if ( card == null || transform == IDENTITY ) {
+            return card;
+        }
+        int i = m_deck.indexOf( card );
+        if ( i < 0 ) {
+            throw new IllegalArgumentException( "Card " + card.getName() + " is not in the deck" );
+        }
+        return m_deck.getCards().get( m_cardMap[transform][i] );
+    }
+
+    /**
+     *
+     * Get the mirror image of a card under a transform, by position in the deck.
+     *
+     * @param  index       Index of a card in the deck.
+     * @param  transform   A symmetry of the deck.
+     *
+     * @return  Index of the image of the card.
+     *
+     */
+    public int mapCardIndex( int index, int transform ) {
+        return m_cardMap[transform][index];
+    }
+
+    /**
+     *
+     * Get the transform that takes a state to its canonical representative: the image with the smallest
+     * positions, compared from the last agent to the first and row before column (the same order as
+     * <code>canonicalKey</code>), with ties broken by the last moves.
+     *
+     * @param  bs   The battle state.
+     *
+     * @return  The transform.
+     *
+     */
+    public int canonicalTransform( StateBattle bs ) {
+        int best = IDENTITY;
+        for ( int n=1; n<m_transforms.length; ++n ) {
+            if ( compare( bs, m_transforms[n], best ) < 0 ) {
+                best = m_transforms[n];
+            }
+        }
+        return best;
+    }
+
+    /**
+     *
+     * Get the canonical representative of a state (see <code>canonicalTransform</code>).
+     *
+     * @param  bs   The battle state.
+     *
+     * @return  The state itself if it is canonical, otherwise a new, transformed state.
+     *
+     */
+    public StateBattle canonicalize( StateBattle bs ) {
+        int transform = canonicalTransform( bs );
+        return (transform == IDENTITY) ? bs : apply( bs, transform );
+    }
+
+    /**
+     *
+     * Get the smallest <code>StateKey.pack</code> key over the symmetric images of a two-agent state,
+     * without creating the images. States that are mirror images of each other get the same key.
+     *
+     * @param  bs   The battle state (see <code>StateKey.canPack</code>).
+     *
+     * @return  Packed key.
+     *
+     */
+    public long canonicalKey( StateBattle bs ) {
+        StateAgent a0 = bs.getAgentState( 0 );
+        StateAgent a1 = bs.getAgentState( 1 );
+        long rest = ((long) (bs.getStepNumber() & 0xFFFF) << 40)
+                  | ((long) ((a1.getStaminaPoints() & 0xF) << 12 | (a1.getHealthPoints() & 0xF) << 16) << 20)
+                  | ((a0.getStaminaPoints() & 0xF) << 12 | (a0.getHealthPoints() & 0xF) << 16);
+        long best = Long.MAX_VALUE;
+        for ( int transform : m_transforms ) {
+            long key = rest
+                     | ((long) ((col( bs, a1, transform ) & 0x3F) | (row( bs, a1, transform ) & 0x3F) << 6) << 20)
+                     | ((col( bs, a0, transform ) & 0x3F) | (row( bs, a0, transform ) & 0x3F) << 6);
+            best = Math.min( best, key );
+        }
+        return best;
+    }
+
+    /**
+     *
+     * Apply a transform to a state.
+     *
+     * @param  bs          The battle state.
+     * @param  transform   A symmetry of the deck.
+     *
+     * @return  A new, transformed state.
+     *
+     */
+    public StateBattle apply( StateBattle bs, int transform ) {
+        StateBattle image = new StateBattle( bs );
+        Card[] lastMoves = bs.getLastMoves();
+        for ( int a=0; a<image.getNumAgents(); ++a ) {
+            StateAgent as = image.getAgentState( a );
+            as.setCol( col( bs, as, transform ) );
+            as.setRow( row( bs, as, transform ) );
+            image.setLastMove( a, mapCard( lastMoves[a], transform ) );
+        }
+        return image;
+    }
+
+    private static int col( StateBattle bs, StateAgent as, int transform ) {
+        return ((transform & MIRROR_COLUMNS) != 0) ? bs.getNumColumns() - 1 - as.getCol() : as.getCol();
+    }
+
+    private static int row( StateBattle bs, StateAgent as, int transform ) {
+        return ((transform & MIRROR_ROWS) != 0) ? bs.getNumRows() - 1 - as.getRow() : as.getRow();
+    }
+
+    // Compare the images of a state under two transforms (stamina, health and step are the same in both).
+    private int compare( StateBattle bs, int t1, int t2 ) {
+        for ( int a=bs.getNumAgents()-1; a>=0; --a ) {
+            StateAgent as = bs.getAgentState( a );
+            int diff = row( bs, as, t1 ) - row( bs, as, t2 );
+            if ( diff == 0 ) {
+                diff = col( bs, as, t1 ) - col( bs, as, t2 );
+            }
+            if ( diff != 0 ) {
+                return diff;
+            }
+        }
+        Card[] lastMoves = bs.getLastMoves();
+        for ( int a=0; a<lastMoves.length; ++a ) {
+            int i = m_deck.indexOf( lastMoves[a] );
+            if ( i >= 0 ) {
+                int diff = m_cardMap[t1][i] - m_cardMap[t2][i];
+                if ( diff != 0 ) {
+                    return diff;
+                }
+            }
+        }
+        return 0;
+    }
+
+    // Find the card of the deck that is the mirror image of a card, preferring the card itself.
+    private static int findImage( ArrayList<Card> cards, Card card, int transform ) {
+        int index = cards.indexOf( card );
+        if ( isImage( card, card, transform ) ) {
+            return index;
+        }
+        for ( int i=0; i<cards.size(); ++i ) {
+            if ( isImage( card, cards.get( i ), transform ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isImage( Card card, Card image, int transform ) {
+        int sx = ((transform & MIRROR_COLUMNS) != 0) ? -1 : 1;
+        int sy = ((transform & MIRROR_ROWS) != 0) ? -1 : 1;
+        if ( card.getType() != image.getType() || sx * card.getCol() != image.getCol() || sy * card.getRow() != image.getRow()
+          || card.getStaminaPoints() != image.getStaminaPoints() || card.getHitPoints() != image.getHitPoints()
+          || card.getDefencePoints() != image.getDefencePoints() ) {
+            return false;
+        }
+        Coordinate[] range = card.getRange();
+        Coordinate[] imageRange = image.getRange();
+        if ( range == null || imageRange == null ) {
+            return range == imageRange;
+        }
+        if ( range.length != imageRange.length ) {
+            return false;
+        }
+        for ( Coordinate co : range ) {
+            if ( !image.inAttackRange( 0, 0, sx * co.getX(), sy * co.getY() ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package itml.simulator;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ *  This class provides the type TimingStats, which collects how long agents take to act, by agent (class
+ *  name): the number of calls, the mean and the longest time, both in wall time and in CPU time of the
+ *  agent's thread, and how many calls exceeded the time limit (on the clock the battle enforces it on).
+ *
+ *  A battle records into the statistics it is given (see <code>Battle.setTimingStats</code>); separate
+ *  statistics for different stages, such as the warm-up and the timed match, keep one stage from
+ *  skewing the other. The statistics can be shared by battles running on several threads.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class TimingStats {
+
+    private static final int CALLS         = 0;
+    private static final int NANOS         = 1;
+    private static final int MAX_NANOS     = 2;
+    private static final int CPU_CALLS     = 3;   // Calls whose CPU time was measured.
+    private static final int CPU_NANOS     = 4;
+    private static final int MAX_CPU_NANOS = 5;
+    private static final int OVER_LIMIT    = 6;
+    private static final int SIZE          = 7;
+
+    private final Map<String, long[]> m_stats = new TreeMap<String, long[]>();
+
+    /**
+     *
+     * Record one call.
+     *
+     * @param  name          Name of the agent.
+     * @param  nanos         Wall time the call took (in nanoseconds).
+     * @param  cpuNanos      CPU time the call took (in nanoseconds), or -1 if it was not measured.
+     * @param  isOverLimit   Whether the call exceeded the time limit.
+     *
+     */
+    public synchronized void record( String name, long nanos, long cpuNanos, boolean isOverLimit ) {
+        long[] stats = stats( name );
+        stats[CALLS]++;
+        stats[NANOS] += nanos;
+        stats[MAX_NANOS] = Math.max( stats[MAX_NANOS], nanos );
+        if ( cpuNanos >= 0 ) {
+            stats[CPU_CALLS]++;
+            stats[CPU_NANOS] += cpuNanos;
+            stats[MAX_CPU_NANOS] = Math.max( stats[MAX_CPU_NANOS], cpuNanos );
+        }
+        if ( isOverLimit ) {
+            stats[OVER_LIMIT]++;
+        }
+    }
+
+    /**
+     *
+     * Add the calls recorded in other statistics (e.g. of another thread).
+     *
+     * @param  other   The other statistics.
+     *
+     */
+    public void add( TimingStats other ) {
+        Map<String, long[]> copy = new TreeMap<String, long[]>();
+        synchronized ( other ) {
+            for ( Map.Entry<String, long[]> entry : other.m_stats.entrySet() ) {
+                copy.put( entry.getKey(), entry.getValue().clone() );
+            }
+        }
+        synchronized ( this ) {
+            for ( Map.Entry<String, long[]> entry : copy.entrySet() ) {
+                long[] stats = stats( entry.getKey() );
+                long[] more = entry.getValue();
+                for ( int i=0; i<SIZE; ++i ) {
+                    stats[i] = (i == MAX_NANOS || i == MAX_CPU_NANOS) ? Math.max( stats[i], more[i] ) : stats[i] + more[i];
+                }
+            }
+        }
+    }
+
+    private long[] stats( String name ) {
+        long[] stats = m_stats.get( name );
+        if ( stats == null ) {
+            stats = new long[SIZE];
+            m_stats.put( name, stats );
+        }
+        return stats;
+    }
+
+    /**
+     *
+     * Get the number of calls of all agents.
+     *
+     * @return  Number of calls.
+     *
+     */
+    public synchronized long getNumCalls() {
+        return total( CALLS );
+    }
+
+    /**
+     *
+     * Get the total wall time of the calls of all agents.
+     *
+     * @return  Time (in nanoseconds).
+     *
+     */
+    public synchronized long getTotalNanos() {
+        return total( NANOS );
+    }
+
+    /**
+     *
+     * Get the total CPU time of the calls of all agents (of the calls it was measured for).
+     *
+     * @return  Time (in nanoseconds).
+     *
+     */
+    public synchronized long getTotalCpuNanos() {
+        return total( CPU_NANOS );
+    }
+
+    /**
+     *
+     * Get the number of calls of all agents that exceeded the time limit.
+     *
+     * @return  Number of calls.
+     *
+     */
+    public synchronized long getNumOverLimit() {
+        return total( OVER_LIMIT );
+    }
+
+    private long total( int field ) {
+        long n = 0;
+        for ( long[] stats : m_stats.values() ) {
+            n += stats[field];
+        }
+        return n;
+    }
+
+    /**
+     *
+     * Forget all calls.
+     *
+     */
+    public synchronized void clear() {
+        m_stats.clear();
+    }
+
+    /**
+     *
+     * Describe the statistics, one line per agent.
+     *
+     * @param  title   Name of the stage the statistics are of (starts each line).
+     *
+     * @return  The description (empty if there were no calls).
+     *
+     */
+    public synchronized String report( String title ) {
+        StringBuilder text = new StringBuilder();
+        for ( Map.Entry<String, long[]> entry : m_stats.entrySet() ) {
+            long[] stats = entry.getValue();
+            text.append( String.format( "%s: %s act calls = %d, mean = %.3f ms, max = %.3f ms", title, entry.getKey(),
+                                        stats[CALLS], stats[NANOS] / 1e6 / stats[CALLS], stats[MAX_NANOS] / 1e6 ) );
+            if ( stats[CPU_CALLS] > 0 ) {
+                text.append( String.format( ", mean cpu = %.3f ms, max cpu = %.3f ms",
+                                            stats[CPU_NANOS] / 1e6 / stats[CPU_CALLS], stats[MAX_CPU_NANOS] / 1e6 ) );
+            }
+            text.append( String.format( ", over limit = %d%n", stats[OVER_LIMIT] ) );
+        }
+        return text.toString();
+    }
+
+    public String toString() {
+        return report( "Timing" );
+    }
+}
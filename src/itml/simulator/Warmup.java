@@ -0,0 +1,237 @@
+package itml.simulator;
+
+import itml.agents.Agent;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ *
+ *  This class provides the warm-up stage before timed games: the agents play untimed games against each
+ *  other until the JIT compiler has compiled their hot code, so that the timed games measure compiled
+ *  code rather than the interpreter.
+ *
+ *  Games are played in batches of at least <code>MIN_BATCH_MS</code>; each round of a batch seats every agent
+ *  against every other agent, from random start squares. After each batch the stage checks whether it is
+ *  done, by one of two heuristics:
+ *
+ *      COMPILATION: the JIT spent at most 1% of the batch compiling (from the <code>CompilationMXBean</code>;
+ *                   if the JVM does not monitor compilation time, THROUGHPUT is used instead).
+ *      THROUGHPUT:  the number of act calls per second changed by at most the tolerance since the last batch.
+ *
+ *  The stage ends once the heuristic holds for <code>PATIENCE</code> batches in a row (after at least
+ *  <code>MIN_BATCHES</code> batches), or when its time is up. The time of every act call is recorded in
+ *  statistics of the stage's own, so it can be reported apart from the timed games. The agents play real
+ *  games, so agents that learn from their games learn from these too.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class Warmup {
+
+    public enum Until { COMPILATION, THROUGHPUT }
+
+    public static final long MIN_BATCH_MS = 100;
+    public static final int  MIN_BATCHES  = 3;
+    public static final int  PATIENCE     = 2;
+
+    private static final int STAMINA = 10;   // Start stamina and health of the agents (as in the batch mode).
+    private static final int HEALTH  = 3;
+
+    private final Battle      m_battle;
+    private final int         m_numSteps;
+    private final int         m_msPerMove;
+    private final TimingStats m_timingStats = new TimingStats();
+    private Until             m_until = Until.COMPILATION;
+    private long              m_msMax = 10000;
+    private double            m_tolerance = 0.05;
+
+    private int               m_numGames;
+    private long              m_msElapsed;
+    private String            m_reason = "not run";
+
+    /**
+     *
+     * Constructor, create a warm-up stage.
+     *
+     * @param  numColumns   Number of columns of the arena.
+     * @param  numRows      Number of rows of the arena.
+     * @param  deck         The deck of cards.
+     * @param  numSteps     Maximum number of steps of a game.
+     * @param  msPerMove    The time limit per move (only to count calls over it; the games are not timed).
+     *
+     */
+    public Warmup( int numColumns, int numRows, CardDeck deck, int numSteps, int msPerMove ) {
+        m_battle = new Battle( numColumns, numRows, deck, new StateAgent[0] );
+        m_battle.setQuiet( true );
+        m_battle.setTimingStats( m_timingStats );
+        m_numSteps = numSteps;
+        m_msPerMove = msPerMove;
+    }
+
+    /**
+     *
+     * Set the heuristic that decides when the stage is done.
+     *
+     * @param  until   The heuristic.
+     *
+     */
+    public void setUntil( Until until ) {
+        m_until = until;
+    }
+
+    /**
+     *
+     * Set the longest time the stage may take.
+     *
+     * @param  msMax   Time (in milliseconds).
+     *
+     */
+    public void setMaxMs( long msMax ) {
+        m_msMax = msMax;
+    }
+
+    /**
+     *
+     * Set the clock calls are counted as over the time limit on (see <code>Battle.setClock</code>).
+     *
+     * @param  clock   The clock.
+     *
+     */
+    public void setClock( Battle.Clock clock ) {
+        m_battle.setClock( clock );
+    }
+
+    /**
+     *
+     * Set how much the throughput may change between batches and still count as a plateau.
+     *
+     * @param  tolerance   Relative change (e.g. 0.05 for 5%).
+     *
+     */
+    public void setTolerance( double tolerance ) {
+        m_tolerance = tolerance;
+    }
+
+    /**
+     *
+     * Play warm-up games until the heuristic holds or the time is up.
+     *
+     * @param  agents   The agents (at least two), each of which plays against each of the others.
+     * @param  seed     Seed of the start squares.
+     *
+     * @return  Timing statistics of the act calls of the stage.
+     *
+     */
+    public TimingStats run( Agent[] agents, long seed ) {
+        if ( agents.length < 2 ) {
+            throw new IllegalArgumentException( "The warm-up needs at least two agents" );
+        }
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        Until until = m_until;
+        if ( until == Until.COMPILATION && (jit == null || !jit.isCompilationTimeMonitoringSupported()) ) {
+            until = Until.THROUGHPUT;
+        }
+
+        Random random = new Random( seed );
+        Agent[] seated = new Agent[2];
+        double[] score = new double[2];
+        GameLog log = new GameLog();
+        long nsStart = System.nanoTime();
+        long msCompiled = (until == Until.COMPILATION) ? jit.getTotalCompilationTime() : 0;
+        double lastRate = 0.0;
+        int numBatches = 0;
+        int numSettled = 0;
+        m_numGames = 0;
+        m_timingStats.clear();
+        while ( true ) {
+            long nsBatch = System.nanoTime();
+            long numCalls = m_timingStats.getNumCalls();
+            do {
+                for ( int i=0; i<agents.length; ++i ) {
+                    for ( int j=0; j<agents.length; ++j ) {
+                        if ( i != j ) {
+                            seated[0] = agents[i];
+                            seated[1] = agents[j];
+                            m_battle.setStateAgents( Battle.createStateAgents( m_battle.getNumColumns(), m_battle.getNumRows(),
+                                                                               2, STAMINA, HEALTH, random ) );
+                            m_battle.run( false, m_numSteps, m_msPerMove, seated, score, log );
+                            m_numGames++;
+                        }
+                    }
+                }
+            } while ( System.nanoTime() - nsBatch < MIN_BATCH_MS * 1000000 );
+            numBatches++;
+
+            long nsNow = System.nanoTime();
+            long msBatch = (nsNow - nsBatch) / 1000000;
+            boolean isSettled;
+            if ( until == Until.COMPILATION ) {
+                long msCompiledNow = jit.getTotalCompilationTime();
+                isSettled = 100 * (msCompiledNow - msCompiled) <= msBatch;
+                msCompiled = msCompiledNow;
+            }
+            else {
+                double rate = (m_timingStats.getNumCalls() - numCalls) * 1e9 / (nsNow - nsBatch);
+                isSettled = Math.abs( rate - lastRate ) <= m_tolerance * lastRate;
+                lastRate = rate;
+            }
+            numSettled = isSettled ? numSettled + 1 : 0;
+            m_msElapsed = (nsNow - nsStart) / 1000000;
+            if ( numBatches >= MIN_BATCHES && numSettled >= PATIENCE ) {
+                m_reason = (until == Until.COMPILATION) ? "compilation settled" : "throughput plateau";
+                break;
+            }
+            if ( m_msElapsed >= m_msMax ) {
+                m_reason = "time limit";
+                break;
+            }
+        }
+        return m_timingStats;
+    }
+
+    /**
+     *
+     * Get the number of games played by the last run.
+     *
+     * @return  Number of games.
+     *
+     */
+    public int getNumGames() {
+        return m_numGames;
+    }
+
+    /**
+     *
+     * Get the time the last run took.
+     *
+     * @return  Time (in milliseconds).
+     *
+     */
+    public long getElapsedMs() {
+        return m_msElapsed;
+    }
+
+    /**
+     *
+     * Get why the last run ended.
+     *
+     * @return  "compilation settled", "throughput plateau" or "time limit".
+     *
+     */
+    public String getReason() {
+        return m_reason;
+    }
+
+    /**
+     *
+     * Get the timing statistics of the last run.
+     *
+     * @return  The statistics.
+     *
+     */
+    public TimingStats getTimingStats() {
+        return m_timingStats;
+    }
+}
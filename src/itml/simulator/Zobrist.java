@@ -0,0 +1,103 @@
+package itml.simulator;
+
+/**
+ *
+ *  This class provides the random keys of the Zobrist hash of battle states (see
+ *  <code>StateBattle.getZobristKey</code>).
+ *
+ *  The hash of a state is the XOR of one key per agent and feature (column, row, stamina, health) for
+ *  the feature's value, and a key for the step number. Changing a feature only takes two XORs: out
+ *  with the key of the old value, in with the key of the new one.
+ *
+ *  Keys are a fixed function of agent, feature and value (a SplitMix64 mix), so hashes are the same in
+ *  every run. The keys of small values are looked up in tables; larger ones are computed.
+ *
+ * @version     %I%, %G%
+ *
+ */
+final class Zobrist {
+
+    static final int COL      = 0;
+    static final int ROW      = 1;
+    static final int STAMINA  = 2;
+    static final int HEALTH   = 3;
+
+    private static final int  NUM_FEATURES = 4;
+    private static final int  STEP         = NUM_FEATURES;   // Feature slot of the step number (agent -1).
+    private static final int  TABLE_AGENTS = 8;
+    private static final int  TABLE_VALUES = 64;
+    private static final int  TABLE_STEPS  = 1024;
+
+    private static final long[] s_agentKeys = new long[TABLE_AGENTS * NUM_FEATURES * TABLE_VALUES];
+    private static final long[] s_stepKeys  = new long[TABLE_STEPS];
+
+    static {
+        for ( int a=0; a<TABLE_AGENTS; ++a ) {
+            for ( int f=0; f<NUM_FEATURES; ++f ) {
+                for ( int v=0; v<TABLE_VALUES; ++v ) {
+                    s_agentKeys[(a * NUM_FEATURES + f) * TABLE_VALUES + v] = compute( a, f, v );
+                }
+            }
+        }
+        for ( int s=0; s<TABLE_STEPS; ++s ) {
+            s_stepKeys[s] = compute( -1, STEP, s );
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     *
+     * Get the key of a feature value of an agent.
+     *
+     * @param  agent     Index of the agent.
+     * @param  feature   <code>COL</code>, <code>ROW</code>, <code>STAMINA</code> or <code>HEALTH</code>.
+     * @param  value     Value of the feature.
+     *
+     * @return  The key.
+     *
+     */
+    static long agentKey( int agent, int feature, int value ) {
+        if ( agent < TABLE_AGENTS && value >= 0 && value < TABLE_VALUES ) {
+            return s_agentKeys[(agent * NUM_FEATURES + feature) * TABLE_VALUES + value];
+        }
+        return compute( agent, feature, value );
+    }
+
+    /**
+     *
+     * Get the key of the whole state of an agent.
+     *
+     * @param  agent   Index of the agent.
+     * @param  as      State of the agent.
+     *
+     * @return  The XOR of the keys of its features.
+     *
+     */
+    static long agentKey( int agent, StateAgent as ) {
+        return agentKey( agent, COL, as.getCol() ) ^ agentKey( agent, ROW, as.getRow() )
+             ^ agentKey( agent, STAMINA, as.getStaminaPoints() ) ^ agentKey( agent, HEALTH, as.getHealthPoints() );
+    }
+
+    /**
+     *
+     * Get the key of a step number.
+     *
+     * @param  step   The step number.
+     *
+     * @return  The key.
+     *
+     */
+    static long stepKey( int step ) {
+        return (step >= 0 && step < TABLE_STEPS) ? s_stepKeys[step] : compute( -1, STEP, step );
+    }
+
+    private static long compute( int agent, int feature, int value ) {
+        long z = ((long) agent << 40) ^ ((long) feature << 32) ^ (value & 0xFFFFFFFFL);
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,144 @@
+package itml.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ *  This class provides the type BoundedQueue, a fixed-capacity FIFO queue that any number of threads
+ *  can add to and take from without locking.
+ *
+ *  It is a ring buffer where every slot has a sequence number telling whether it is free for the
+ *  producer at a given position, or filled for the consumer at that position (D. Vyukov's bounded
+ *  queue). A thread claims a position with a single compare-and-set, and never waits for another
+ *  thread while holding it. When the queue is full, <code>put</code> parks the producer until a
+ *  slot is freed, so a slow consumer holds back its producers rather than letting the queue grow.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class BoundedQueue<T> {
+
+    private static final long PARK_NANOS = 50000L;   // How long a producer waits before trying a full queue again.
+
+    private final AtomicReferenceArray<T> m_items;
+    private final AtomicLongArray         m_sequences;
+    private final int                     m_mask;
+    private final AtomicLong              m_tail = new AtomicLong();   // Next position to add at.
+    private final AtomicLong              m_head = new AtomicLong();   // Next position to take from.
+
+    /**
+     *
+     * Constructor, create an empty queue.
+     *
+     * @param  capacity   The minimum number of items the queue can hold (rounded up to a power of two).
+     *
+     */
+    public BoundedQueue( int capacity ) {
+        int size = 2;
+        while ( size < capacity ) {
+            size <<= 1;
+        }
+        m_items = new AtomicReferenceArray<T>( size );
+        m_sequences = new AtomicLongArray( size );
+        for ( int i=0; i<size; ++i ) {
+            m_sequences.set( i, i );
+        }
+        m_mask = size - 1;
+    }
+
+    /**
+     *
+     * Get the number of items the queue can hold.
+     *
+     * @return  An integer representing the capacity.
+     *
+     */
+    public int capacity() {
+        return m_mask + 1;
+    }
+
+    /**
+     *
+     * Add an item, if there is room.
+     *
+     * @param  item   The item (not <code>null</code>).
+     *
+     * @return  <code>true</code> if the item was added, <code>false</code> if the queue is full.
+     *
+     */
+    public boolean offer( T item ) {
+        if ( item == null ) {
+            throw new NullPointerException();
+        }
+        while ( true ) {
+            long pos = m_tail.get();
+            int slot = (int) pos & m_mask;
+            long diff = m_sequences.get( slot ) - pos;
+            if ( diff == 0 ) {
+                if ( m_tail.compareAndSet( pos, pos + 1 ) ) {
+                    m_items.set( slot, item );
+                    m_sequences.set( slot, pos + 1 );   // Publish to the consumer.
+                    return true;
+                }
+            }
+            else if ( diff < 0 ) {
+                return false;   // The slot still holds an item from one lap before.
+            }
+            // Otherwise another producer claimed the position first; retry.
+        }
+    }
+
+    /**
+     *
+     * Add an item, waiting for room if the queue is full.
+     *
+     * @param  item   The item (not <code>null</code>).
+     *
+     */
+    public void put( T item ) {
+        while ( !offer( item ) ) {
+            LockSupport.parkNanos( PARK_NANOS );
+        }
+    }
+
+    /**
+     *
+     * Take the oldest item, if there is one.
+     *
+     * @return  The item, or <code>null</code> if the queue is empty.
+     *
+     */
+    public T poll() {
+        while ( true ) {
+            long pos = m_head.get();
+            int slot = (int) pos & m_mask;
+            long diff = m_sequences.get( slot ) - (pos + 1);
+            if ( diff == 0 ) {
+                if ( m_head.compareAndSet( pos, pos + 1 ) ) {
+                    T item = m_items.get( slot );
+                    m_items.set( slot, null );
+                    m_sequences.set( slot, pos + m_mask + 1 );   // Free the slot for the next lap.
+                    return item;
+                }
+            }
+            else if ( diff < 0 ) {
+                return null;   // Nothing has been published at this position yet.
+            }
+        }
+    }
+
+    /**
+     *
+     * Get the number of items in the queue. The number may be out of date as soon as it is returned.
+     *
+     * @return  An integer representing the number of items.
+     *
+     */
+    public int size() {
+        long size = m_tail.get() - m_head.get();
+        return (int) Math.max( 0, Math.min( size, m_mask + 1 ) );
+    }
+}
@@ -0,0 +1,85 @@
+package itml.util;
+
+/**
+ *
+ *  This class provides the type Fingerprint, a 64-bit hash (FNV-1a) accumulated over a sequence of
+ *  strings and numbers. It identifies configurations, e.g. a deck of cards or the settings training
+ *  data was generated with, so that results saved earlier can be recognized as still valid.
+ *
+ *  Every value added is delimited, so ("ab", "c") and ("a", "bc") give different fingerprints.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public final class Fingerprint {
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME        = 0x100000001b3L;
+
+    private long m_hash = OFFSET_BASIS;
+
+    /**
+     *
+     * Add a string.
+     *
+     * @param  value   The string (<code>null</code> is distinct from every string).
+     *
+     * @return  This fingerprint.
+     *
+     */
+    public Fingerprint add( String value ) {
+        if ( value == null ) {
+            return add( -1L );
+        }
+        add( (long) value.length() );
+        for ( int i=0; i<value.length(); ++i ) {
+            addByte( value.charAt( i ) >>> 8 );
+            addByte( value.charAt( i ) );
+        }
+        return this;
+    }
+
+    /**
+     *
+     * Add a number.
+     *
+     * @param  value   The number.
+     *
+     * @return  This fingerprint.
+     *
+     */
+    public Fingerprint add( long value ) {
+        for ( int shift=0; shift<64; shift+=8 ) {
+            addByte( (int) (value >>> shift) );
+        }
+        return this;
+    }
+
+    /**
+     *
+     * Get the fingerprint of everything added so far.
+     *
+     * @return  The 64-bit hash value.
+     *
+     */
+    public long getValue() {
+        return m_hash;
+    }
+
+    /**
+     *
+     * Get the fingerprint as 16 hexadecimal digits, e.g. for use in file names.
+     *
+     * @return  Hexadecimal string.
+     *
+     */
+    public String toString() {
+        String hex = Long.toHexString( m_hash );
+        return "0000000000000000".substring( hex.length() ) + hex;
+    }
+
+    private void addByte( int b ) {
+        m_hash ^= (b & 0xff);
+        m_hash *= PRIME;
+    }
+}
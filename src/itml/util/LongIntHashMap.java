@@ -0,0 +1,177 @@
+package itml.util;
+
+import java.util.Arrays;
+
+/**
+ *
+ *  This class provides the type LongIntHashMap, a hash map from <code>long</code> keys to <code>int</code>
+ *  values, using open addressing over primitive arrays (no boxing, no per-entry objects).
+ *
+ *  The key <code>Long.MIN_VALUE</code> is reserved to mark empty slots, and cannot be stored.
+ *  The map is not synchronized.
+ *
+ * @version     %I%, %G%
+ *
+ */
+public class LongIntHashMap {
+
+    public static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] m_keys;
+    private int[]  m_values;
+    private int    m_size;
+    private int    m_mask;
+
+    /**
+     *
+     * Constructor, create an empty map.
+     *
+     * @param  expectedSize   The number of entries the map should hold without growing.
+     *
+     */
+    public LongIntHashMap( int expectedSize ) {
+        int capacity = 16;
+        while ( capacity < 2 * expectedSize ) {
+            capacity <<= 1;
+        }
+        allocate( capacity );
+    }
+
+    /**
+     *
+     * Constructor, create an empty map.
+     *
+     */
+    public LongIntHashMap() {
+        this( 16 );
+    }
+
+    /**
+     *
+     * Get the number of entries.
+     *
+     * @return  An integer representing the number of entries.
+     *
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     *
+     * Get the value of a key.
+     *
+     * @param  key            The key.
+     * @param  defaultValue   Value to return if the key is not in the map.
+     *
+     * @return  The value, or <code>defaultValue</code>.
+     *
+     */
+    public int get( long key, int defaultValue ) {
+        int i = slot( key );
+        return (m_keys[i] == key) ? m_values[i] : defaultValue;
+    }
+
+    /**
+     *
+     * Check whether a key is in the map.
+     *
+     * @param  key   The key.
+     *
+     * @return  <code>true</code> if the map holds the key.
+     *
+     */
+    public boolean containsKey( long key ) {
+        return m_keys[slot( key )] == key;
+    }
+
+    /**
+     *
+     * Set the value of a key.
+     *
+     * @param  key     The key (not <code>EMPTY</code>).
+     * @param  value   The value.
+     *
+     */
+    public void put( long key, int value ) {
+        int i = insert( key );
+        m_values[i] = value;
+    }
+
+    /**
+     *
+     * Add to the value of a key (a missing key counts as 0).
+     *
+     * @param  key     The key (not <code>EMPTY</code>).
+     * @param  delta   The amount to add.
+     *
+     * @return  The new value.
+     *
+     */
+    public int add( long key, int delta ) {
+        int i = insert( key );
+        m_values[i] += delta;
+        return m_values[i];
+    }
+
+    /**
+     *
+     * Remove all entries.
+     *
+     */
+    public void clear() {
+        Arrays.fill( m_keys, EMPTY );
+        m_size = 0;
+    }
+
+    private int insert( long key ) {
+        if ( key == EMPTY ) {
+            throw new IllegalArgumentException( "Reserved key" );
+        }
+        int i = slot( key );
+        if ( m_keys[i] != key ) {
+            if ( 2 * (m_size + 1) > m_keys.length ) {
+                grow();
+                i = slot( key );
+            }
+            m_keys[i] = key;
+            m_values[i] = 0;
+            m_size++;
+        }
+        return i;
+    }
+
+    // Slot holding the key, or the empty slot where it belongs.
+    private int slot( long key ) {
+        int i = hash( key ) & m_mask;
+        while ( m_keys[i] != EMPTY && m_keys[i] != key ) {
+            i = (i + 1) & m_mask;
+        }
+        return i;
+    }
+
+    private static int hash( long key ) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void grow() {
+        long[] keys = m_keys;
+        int[] values = m_values;
+        allocate( 2 * keys.length );
+        for ( int j=0; j<keys.length; ++j ) {
+            if ( keys[j] != EMPTY ) {
+                int i = slot( keys[j] );
+                m_keys[i] = keys[j];
+                m_values[i] = values[j];
+            }
+        }
+    }
+
+    private void allocate( int capacity ) {
+        m_keys = new long[capacity];
+        m_values = new int[capacity];
+        m_mask = capacity - 1;
+        Arrays.fill( m_keys, EMPTY );
+    }
+}